@@ -2,6 +2,8 @@ package no.nordicsemi.android.blinky;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
@@ -12,12 +14,17 @@ import androidx.lifecycle.ViewModelProvider;
 
 import no.nordicsemi.android.ble.livedata.state.ConnectionState;
 import no.nordicsemi.android.ble.observer.ConnectionObserver;
+import no.nordicsemi.android.blinky.adapter.DeviceHandle;
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
 import no.nordicsemi.android.blinky.databinding.ActivityBlinkyBinding;
 import no.nordicsemi.android.blinky.viewmodels.BlinkyViewModel;
 
 public class BlinkyActivity extends AppCompatActivity {
+    private static final String TAG = "BlinkyActivity";
+    /** The {@link DiscoveredBluetoothDevice}. Prefer {@link #EXTRA_DEVICE_HANDLE}. */
     public static final String EXTRA_DEVICE = "no.nordicsemi.android.blinky.EXTRA_DEVICE";
+    /** The {@link DeviceHandle} of the device. */
+    public static final String EXTRA_DEVICE_HANDLE = "no.nordicsemi.android.blinky.EXTRA_DEVICE_HANDLE";
 
     private BlinkyViewModel viewModel;
     private ActivityBlinkyBinding binding;
@@ -29,7 +36,15 @@ public class BlinkyActivity extends AppCompatActivity {
         setContentView(binding.getRoot());
 
         final Intent intent = getIntent();
-        final DiscoveredBluetoothDevice device = intent.getParcelableExtra(EXTRA_DEVICE);
+        final DiscoveredBluetoothDevice device;
+        final DeviceHandle handle = intent.getParcelableExtra(EXTRA_DEVICE_HANDLE);
+        if (handle != null) {
+            device = handle.resolve();
+            Log.d(TAG, "Device " + (handle.isLocal() ? "resolved" : "recreated") + " "
+                    + (SystemClock.elapsedRealtime() - handle.getCreationTime()) + " ms after handoff");
+        } else {
+            device = intent.getParcelableExtra(EXTRA_DEVICE);
+        }
         final String deviceName = device.getName();
         final String deviceAddress = device.getAddress();
 
@@ -5,14 +5,24 @@ import android.os.Build;
 
 import androidx.appcompat.app.AppCompatDelegate;
 
+import java.util.Arrays;
+
+import no.nordicsemi.android.blinky.utils.StartupTracer;
+import no.nordicsemi.android.blinky.viewmodels.DevicesLiveData;
+
 public class BlinkyApplication extends Application {
 
     @Override
     public void onCreate() {
+        StartupTracer.begin("Application.onCreate");
         super.onCreate();
         // Added to support vector drawables for devices below Android 21.
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             AppCompatDelegate.setCompatVectorFromResourcesEnabled(true);
         }
+        // The patterns are compiled when the first device name is matched.
+        DevicesLiveData.setLockNamePatterns(
+                Arrays.asList(getResources().getStringArray(R.array.lock_name_patterns)));
+        StartupTracer.end("Application.onCreate");
     }
 }
@@ -6,7 +6,11 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.Settings;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -18,6 +22,7 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.splashscreen.SplashScreen;
 import androidx.lifecycle.ViewModelProvider;
@@ -25,14 +30,19 @@ import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.SimpleItemAnimator;
+import no.nordicsemi.android.blinky.adapter.DeviceHandle;
 import no.nordicsemi.android.blinky.adapter.DevicesAdapter;
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
 import no.nordicsemi.android.blinky.databinding.ActivityScannerBinding;
+import no.nordicsemi.android.blinky.utils.StartupTracer;
 import no.nordicsemi.android.blinky.utils.Utils;
-import no.nordicsemi.android.blinky.viewmodels.ScannerStateLiveData;
+import no.nordicsemi.android.blinky.viewmodels.DevicesLiveData;
+import no.nordicsemi.android.blinky.viewmodels.ScannerState;
 import no.nordicsemi.android.blinky.viewmodels.ScannerViewModel;
 
 public class ScannerActivity extends AppCompatActivity implements DevicesAdapter.OnItemClickListener {
+    private static final String TAG = "ScannerActivity";
+
     // This flag is false when the app is first started (cold start).
     // In this case, the animation will be fully shown (1 sec).
     // Subsequent launches will display it only briefly.
@@ -51,6 +61,7 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
         // setTheme, this is preferred in our case, as this also work for older platforms.
         setTheme(R.style.AppTheme);
 
+        StartupTracer.begin("ScannerActivity.onCreate");
         super.onCreate(savedInstanceState);
 
         // Set up the splash screen.
@@ -82,16 +93,23 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
             }
         }
 
+        StartupTracer.begin("Inflate");
         binding = ActivityScannerBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
+        StartupTracer.end("Inflate");
+        StartupTracer.reportFirstFrame(binding.getRoot());
 
         final MaterialToolbar toolbar = binding.toolbar;
         toolbar.setTitle(R.string.app_name);
         setSupportActionBar(toolbar);
 
         // Create view model containing utility methods for scanning
+        StartupTracer.begin("ScannerViewModel");
         scannerViewModel = new ViewModelProvider(this).get(ScannerViewModel.class);
         scannerViewModel.getScannerState().observe(this, this::startScan);
+        // The menu may have been created before the preferences were loaded.
+        scannerViewModel.getPreconnectEnabled().observe(this, enabled -> invalidateOptionsMenu());
+        StartupTracer.end("ScannerViewModel");
 
         // Configure the recycler view
         final RecyclerView recyclerView = binding.recyclerViewBleDevices;
@@ -121,6 +139,7 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
             binding.refreshLayout.setRefreshing(false);
         });
         binding.noDevices.actionEnableLocation.setOnClickListener(v -> openLocationSettings());
+        binding.noDevices.actionRetryScan.setOnClickListener(v -> scannerViewModel.retryScan());
         binding.bluetoothOff.actionEnableBluetooth.setOnClickListener(v -> requestBluetoothEnabled());
         binding.noLocationPermission.actionGrantLocationPermission.setOnClickListener(v -> {
             if (ActivityCompat.shouldShowRequestPermissionRationale(this,
@@ -149,6 +168,7 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
                 openPermissionSettings();
             });
         }
+        StartupTracer.end("ScannerActivity.onCreate");
     }
 
     @Override
@@ -166,8 +186,37 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
     @Override
     public boolean onCreateOptionsMenu(@NonNull final Menu menu) {
         getMenuInflater().inflate(R.menu.filter, menu);
-        menu.findItem(R.id.filter_uuid).setChecked(scannerViewModel.isDeviceNameFilterEnabled());
+        menu.findItem(R.id.filter_uuid)
+                .setTitle(getString(R.string.menu_filter_uuid,
+                        TextUtils.join(", ", DevicesLiveData.getLockNamePatterns())))
+                .setChecked(scannerViewModel.isDeviceNameFilterEnabled());
         menu.findItem(R.id.filter_nearby).setChecked(scannerViewModel.isNearbyFilterEnabled());
+        menu.findItem(R.id.preconnect).setChecked(scannerViewModel.isPreconnectEnabled());
+        menu.findItem(R.id.background_scan).setChecked(scannerViewModel.isBackgroundScanEnabled());
+        menu.findItem(R.id.auto_unlock).setChecked(scannerViewModel.isAutoUnlockEnabled());
+
+        final MenuItem searchItem = menu.findItem(R.id.search);
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.menu_search));
+        // Restore the query after the Activity has been recreated.
+        final String savedQuery = scannerViewModel.getSearchQuery();
+        if (!savedQuery.isEmpty()) {
+            searchItem.expandActionView();
+            searchView.setQuery(savedQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(@NonNull final String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(@NonNull final String newText) {
+                scannerViewModel.search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -182,21 +231,49 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
             item.setChecked(!item.isChecked());
             scannerViewModel.filterByDistance(item.isChecked());
             return true;
+        } else if (itemId == R.id.preconnect) {
+            item.setChecked(!item.isChecked());
+            scannerViewModel.setPreconnectEnabled(item.isChecked());
+            return true;
+        } else if (itemId == R.id.background_scan) {
+            item.setChecked(!item.isChecked());
+            scannerViewModel.setBackgroundScanEnabled(item.isChecked());
+            return true;
+        } else if (itemId == R.id.auto_unlock) {
+            item.setChecked(!item.isChecked());
+            scannerViewModel.setAutoUnlockEnabled(item.isChecked());
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
     public void onItemClick(@NonNull final DiscoveredBluetoothDevice device) {
+        // Only a small handle is parcelled. The device is resolved from a registry.
+        final DeviceHandle handle = DeviceHandle.of(device);
         final Intent controlBlinkIntent = new Intent(this, BlinkyActivity.class);
-        controlBlinkIntent.putExtra(BlinkyActivity.EXTRA_DEVICE, device);
+        controlBlinkIntent.putExtra(BlinkyActivity.EXTRA_DEVICE_HANDLE, handle);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Handoff parcel size: " + parcelSize(handle) + " bytes, was "
+                    + parcelSize(device) + " bytes");
+        }
         startActivity(controlBlinkIntent);
     }
 
+    private static int parcelSize(@NonNull final Parcelable parcelable) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(parcelable, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
     /**
      * Starts scanning for Bluetooth LE devices or displays a message based on the scanner state.
      */
-    private void startScan(@NonNull final ScannerStateLiveData state) {
+    private void startScan(@NonNull final ScannerState state) {
         // First, check the Location permission.
         // This is required since Marshmallow up until Android 11 in order to scan for Bluetooth LE
         // devices.
@@ -214,7 +291,15 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
                 binding.noBluetoothPermission.getRoot().setVisibility(View.GONE);
 
                 // Bluetooth must be enabled
-                if (state.isBluetoothEnabled()) {
+                if (state.isBluetoothEnabled() && state.isScanFailed()) {
+                    binding.bluetoothOff.getRoot().setVisibility(View.GONE);
+
+                    // Scanning has been given up, it's started again when the user retries.
+                    binding.stateScanning.setVisibility(View.INVISIBLE);
+                    binding.noDevices.getRoot().setVisibility(View.VISIBLE);
+                    binding.noDevices.noLocation.setVisibility(View.GONE);
+                    binding.noDevices.scanFailed.setVisibility(View.VISIBLE);
+                } else if (state.isBluetoothEnabled()) {
                     binding.bluetoothOff.getRoot().setVisibility(View.GONE);
 
                     // We are now OK to start scanning
@@ -223,6 +308,7 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
 
                     if (!state.hasRecords()) {
                         binding.noDevices.getRoot().setVisibility(View.VISIBLE);
+                        binding.noDevices.scanFailed.setVisibility(View.GONE);
 
                         if (!Utils.isLocationRequired(this) ||
                                 Utils.isLocationEnabled(this)) {
@@ -268,7 +354,7 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
      * Starts scanning for Bluetooth LE devices.
      */
     private void startScan() {
-        startScan(scannerViewModel.getScannerState());
+        startScan(scannerViewModel.getScannerState().getState());
     }
 
     /**
@@ -0,0 +1,136 @@
+package no.nordicsemi.android.blinky.adapter;
+
+import android.bluetooth.BluetoothAdapter;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import no.nordicsemi.android.blinky.utils.MacAddress;
+
+/**
+ * A compact reference to a {@link DiscoveredBluetoothDevice}, used to hand the device over
+ * to another Activity.
+ * <p>
+ * Parcelling the device itself writes its last scan result, with the whole advertising packet.
+ * Instead, the device is kept in an in-process registry, and only its address, as a long,
+ * the session ID of the process, the name and the creation time are parcelled. The receiver
+ * resolves the handle from the registry. If the process has been restarted in the meantime,
+ * the session ID does not match and the device is created again from the address and name.
+ */
+public final class DeviceHandle implements Parcelable {
+	/** Number of devices kept in the registry. */
+	private static final int REGISTRY_SIZE = 8;
+	/** A random ID of this process, so that handles from a previous process are not resolved. */
+	private static final long SESSION_ID = new SecureRandom().nextLong();
+
+	private static final Map<Long, DiscoveredBluetoothDevice> registry =
+			new LinkedHashMap<Long, DiscoveredBluetoothDevice>(REGISTRY_SIZE, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(final Entry<Long, DiscoveredBluetoothDevice> eldest) {
+					return size() > REGISTRY_SIZE;
+				}
+			};
+
+	private final long address;
+	private final long session;
+	@Nullable
+	private final String name;
+	private final long creationTime;
+
+	private DeviceHandle(final long address, final long session,
+						 @Nullable final String name, final long creationTime) {
+		this.address = address;
+		this.session = session;
+		this.name = name;
+		this.creationTime = creationTime;
+	}
+
+	/**
+	 * Registers the device and returns its handle.
+	 */
+	@NonNull
+	public static DeviceHandle of(@NonNull final DiscoveredBluetoothDevice device) {
+		final long address = MacAddress.toLong(device.getAddress());
+		synchronized (registry) {
+			registry.put(address, device);
+		}
+		return new DeviceHandle(address, SESSION_ID, device.getName(), SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Returns the registered device, or, if the handle was created in another process,
+	 * a new device with the address and name from the handle.
+	 */
+	@NonNull
+	public DiscoveredBluetoothDevice resolve() {
+		if (isLocal()) {
+			synchronized (registry) {
+				final DiscoveredBluetoothDevice device = registry.get(address);
+				if (device != null)
+					return device;
+			}
+		}
+		final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+		return new DiscoveredBluetoothDevice(adapter.getRemoteDevice(getAddress()), name);
+	}
+
+	/**
+	 * Returns whether the handle was created in this process.
+	 */
+	public boolean isLocal() {
+		return session == SESSION_ID;
+	}
+
+	@NonNull
+	public String getAddress() {
+		return MacAddress.toString(address);
+	}
+
+	/**
+	 * Returns the time the handle was created, from {@link SystemClock#elapsedRealtime()}.
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	// Parcelable implementation
+
+	private DeviceHandle(final Parcel in) {
+		address = in.readLong();
+		session = in.readLong();
+		name = in.readString();
+		creationTime = in.readLong();
+	}
+
+	@Override
+	public void writeToParcel(final Parcel parcel, final int flags) {
+		parcel.writeLong(address);
+		parcel.writeLong(session);
+		parcel.writeString(name);
+		parcel.writeLong(creationTime);
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	public static final Creator<DeviceHandle> CREATOR = new Creator<DeviceHandle>() {
+		@Override
+		public DeviceHandle createFromParcel(final Parcel source) {
+			return new DeviceHandle(source);
+		}
+
+		@Override
+		public DeviceHandle[] newArray(final int size) {
+			return new DeviceHandle[size];
+		}
+	};
+}
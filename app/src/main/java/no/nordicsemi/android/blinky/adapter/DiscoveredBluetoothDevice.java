@@ -3,6 +3,7 @@ package no.nordicsemi.android.blinky.adapter;
 import android.bluetooth.BluetoothDevice;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -22,6 +23,17 @@ public class DiscoveredBluetoothDevice implements Parcelable {
 		update(scanResult);
 	}
 
+	/**
+	 * Creates a device which has not been scanned in this process, e.g. from a
+	 * {@link DeviceHandle} after the process was restarted.
+	 */
+	/* package */ DiscoveredBluetoothDevice(@NonNull final BluetoothDevice device,
+										   @Nullable final String name) {
+		this.device = device;
+		this.lastScanResult = new ScanResult(device, null, 0, SystemClock.elapsedRealtimeNanos());
+		this.name = name;
+	}
+
 	@NonNull
 	public BluetoothDevice getDevice() {
 		return device;
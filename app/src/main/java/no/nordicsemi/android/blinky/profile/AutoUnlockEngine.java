@@ -0,0 +1,164 @@
+package no.nordicsemi.android.blinky.profile;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Unlocks authorised locks automatically when the user approaches them.
+ * <p>
+ * The scanner passes every advertising packet of a lock to {@link #onLockSeen}, before any
+ * display filter is applied, and the engine feeds the RSSI of authorised locks, with the time
+ * the packet was received, to a {@link ProximityDecider}. A lock which is no longer heard
+ * produces no samples, and the decider considers it left. When the decider triggers, the engine connects, waits for
+ * the handshake and unlocks. The link is then handed over to the {@link WarmLinkCache},
+ * so that opening the lock screen right after is fast.
+ * <p>
+ * A trigger which does not result in the lock being unlocked is counted as a false trigger.
+ * Latency is measured from the moment the lock was approached until the unlock result.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public class AutoUnlockEngine {
+    private static final String TAG = "AutoUnlockEngine";
+    private static final long HANDSHAKE_TIMEOUT = 5000; // [ms]
+
+    private final Context context;
+    private final ProximityDecider decider;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Executor mainExecutor = handler::post;
+    private Set<String> authorized = Collections.emptySet();
+    private final Set<String> inProgress = new HashSet<>();
+    private boolean started;
+
+    private int triggers;
+    private int unlocks;
+    private int falseTriggers;
+    private long totalLatency;
+    private long maxLatency;
+
+    public AutoUnlockEngine(@NonNull final Context context,
+                            @NonNull final ProximityDecider.Config config) {
+        this.context = context.getApplicationContext();
+        this.decider = new ProximityDecider(config);
+    }
+
+    /**
+     * Sets the addresses of the locks which may be unlocked automatically.
+     */
+    @MainThread
+    public void setAuthorizedAddresses(@NonNull final Set<String> addresses) {
+        authorized = new HashSet<>(addresses);
+    }
+
+    /**
+     * Starts taking the samples passed to {@link #onLockSeen}.
+     */
+    @MainThread
+    public void start() {
+        stop();
+        started = true;
+    }
+
+    /**
+     * Stops taking samples. Unlocks in progress are completed.
+     */
+    @MainThread
+    public void stop() {
+        started = false;
+        decider.reset();
+    }
+
+    /**
+     * Adds an RSSI sample of a lock.
+     *
+     * @param device the lock.
+     * @param rssi   the received RSSI, in dBm.
+     * @param time   the time the packet was received, in ms since boot, see
+     *               {@link SystemClock#elapsedRealtime()}.
+     */
+    @MainThread
+    public void onLockSeen(@NonNull final BluetoothDevice device, final int rssi, final long time) {
+        final String address = device.getAddress();
+        if (!started || !authorized.contains(address))
+            return;
+        // Samples are taken during an unlock, so that the lock is not considered lost meanwhile.
+        if (decider.onSample(address, rssi, time) && !inProgress.contains(address))
+            unlock(device, decider.getApproachTime(address));
+    }
+
+    public int getTriggerCount() {
+        return triggers;
+    }
+
+    public int getUnlockCount() {
+        return unlocks;
+    }
+
+    /**
+     * Returns the number of triggers which have not resulted in the lock being unlocked.
+     */
+    public int getFalseTriggerCount() {
+        return falseTriggers;
+    }
+
+    /**
+     * Returns the average time from approaching a lock until it was unlocked, in ms.
+     */
+    public long getAverageLatency() {
+        return unlocks > 0 ? totalLatency / unlocks : 0;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    private void unlock(@NonNull final BluetoothDevice device, final long approachTime) {
+        final String address = device.getAddress();
+        triggers++;
+        inProgress.add(address);
+        Log.i(TAG, "Unlocking " + address);
+
+        final BlinkyManager warm = WarmLinkCache.getInstance().acquire(address);
+        final BlinkyManager manager = warm != null ? warm : new BlinkyManager(context);
+        final LockFuture<LockResult> connected = warm != null ?
+                LockFuture.completed(null) : manager.connectAsync(device, mainExecutor);
+        connected
+                .thenCompose(mainExecutor, r -> manager.handshakeAsync(HANDSHAKE_TIMEOUT, mainExecutor))
+                .thenCompose(mainExecutor, r -> manager.unlockAsync(mainExecutor))
+                .addListener(mainExecutor, (result, error) -> {
+                    final boolean success = result != null && result.isSuccess();
+                    final long now = SystemClock.elapsedRealtime();
+                    if (success) {
+                        final long latency = now - approachTime;
+                        unlocks++;
+                        totalLatency += latency;
+                        maxLatency = Math.max(maxLatency, latency);
+                        Log.i(TAG, "Unlocked " + address + " in " + latency + " ms from approach");
+                    } else {
+                        falseTriggers++;
+                        Log.w(TAG, "Unlocking " + address + " failed", error);
+                    }
+                    Log.i(TAG, "Triggers: " + triggers + ", false: " + falseTriggers
+                            + ", average latency: " + getAverageLatency() + " ms");
+                    decider.onCompleted(address, now);
+                    inProgress.remove(address);
+
+                    if (manager.isConnected())
+                        WarmLinkCache.getInstance().release(address, manager);
+                    else
+                        manager.close();
+                });
+    }
+}
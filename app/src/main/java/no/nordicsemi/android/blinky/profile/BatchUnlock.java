@@ -0,0 +1,414 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unlocks a set of locks with a configurable level of parallelism.
+ * <p>
+ * For each address the connect, handshake and unlock stages are executed using
+ * {@link LockOperations}. Results are streamed to the {@link Listener} as soon as each device
+ * completes, and a {@link Report} is given when all devices have completed or the batch
+ * has been cancelled.
+ * <p>
+ * Each stage is limited by the timeout from the {@link RetryPolicy}, and failed connection
+ * attempts are retried with backoff within the retry budget of the device.
+ * <p>
+ * The class does not depend on Android BLE API, so it may be run against fake peripherals.
+ * Listener methods are called on the thread that completed the operation, or on the
+ * scheduler thread in case of a timeout.
+ */
+public class BatchUnlock {
+    public enum Stage {
+        CONNECT,
+        HANDSHAKE,
+        UNLOCK
+    }
+
+    public interface Listener {
+        /**
+         * Called when a device has been unlocked, or has failed.
+         */
+        void onDeviceResult(@NonNull DeviceResult result);
+
+        /**
+         * Called once, when all devices have completed or the batch has been cancelled.
+         */
+        void onCompleted(@NonNull Report report);
+    }
+
+    public static final class DeviceResult {
+        @NonNull
+        public final String address;
+        public final boolean success;
+        /** The stage that failed, or null on success. */
+        @Nullable
+        public final Stage failedStage;
+        /** The failure reason, see {@link LockOperations.Callback#onFailure(int)}. */
+        public final int reason;
+        /** Duration of each stage in ms, indexed by {@link Stage#ordinal()}, -1 if not reached. */
+        @NonNull
+        private final long[] stageTimes;
+        public final int retries;
+
+        private DeviceResult(@NonNull final String address, final boolean success,
+                             @Nullable final Stage failedStage, final int reason,
+                             @NonNull final long[] stageTimes, final int retries) {
+            this.address = address;
+            this.success = success;
+            this.failedStage = failedStage;
+            this.reason = reason;
+            this.stageTimes = stageTimes.clone();
+            this.retries = retries;
+        }
+
+        /**
+         * Returns the duration of the stage in ms, or -1 if it has not been reached.
+         */
+        public long getStageTime(@NonNull final Stage stage) {
+            return stageTimes[stage.ordinal()];
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return address + ": " + (success ? "unlocked" : "failed at " + failedStage + " (" + reason + ")")
+                    + ", connect: " + getStageTime(Stage.CONNECT)
+                    + " ms, handshake: " + getStageTime(Stage.HANDSHAKE)
+                    + " ms, unlock: " + getStageTime(Stage.UNLOCK)
+                    + " ms, retries: " + retries;
+        }
+    }
+
+    public static final class Report {
+        @NonNull
+        public final List<DeviceResult> results;
+        public final boolean cancelled;
+        public final long totalTime;
+
+        private Report(@NonNull final List<DeviceResult> results, final boolean cancelled,
+                       final long totalTime) {
+            this.results = Collections.unmodifiableList(results);
+            this.cancelled = cancelled;
+            this.totalTime = totalTime;
+        }
+
+        public int getSuccessCount() {
+            int count = 0;
+            for (final DeviceResult result : results)
+                if (result.success)
+                    count++;
+            return count;
+        }
+
+        public int getRetryCount() {
+            int count = 0;
+            for (final DeviceResult result : results)
+                count += result.retries;
+            return count;
+        }
+    }
+
+    private final LockOperations.Factory factory;
+    private final int parallelism;
+    private final RetryPolicy policy;
+    private final ScheduledExecutorService scheduler;
+
+    /** Addresses waiting for their turn, in order. A set, so that duplicates are dropped. */
+    private final LinkedHashSet<String> pending = new LinkedHashSet<>();
+    private final Set<Job> active = new HashSet<>();
+    private final List<DeviceResult> results = new ArrayList<>();
+    @Nullable
+    private Listener listener;
+    private long startTime;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * Creates the batch.
+     *
+     * @param factory     the factory of lock operations.
+     * @param parallelism maximum number of devices processed at the same time.
+     * @param policy      the retry and timeout policy.
+     * @param scheduler   the executor used for timeouts and backoff.
+     */
+    public BatchUnlock(@NonNull final LockOperations.Factory factory,
+                       final int parallelism,
+                       @NonNull final RetryPolicy policy,
+                       @NonNull final ScheduledExecutorService scheduler) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.factory = factory;
+        this.parallelism = parallelism;
+        this.policy = policy;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts unlocking the given devices. A batch may only be started once.
+     *
+     * @param addresses the addresses of the locks.
+     * @param listener  the listener notified about results.
+     */
+    public void start(@NonNull final List<String> addresses, @NonNull final Listener listener) {
+        synchronized (this) {
+            if (started)
+                throw new IllegalStateException("Batch already started");
+            started = true;
+            this.listener = listener;
+            startTime = System.nanoTime();
+            // Duplicates would fight for the same connection.
+            pending.addAll(addresses);
+        }
+        schedule();
+    }
+
+    /**
+     * Cancels the batch. Active connections are released immediately and devices which have
+     * not been completed are not reported.
+     */
+    public void cancel() {
+        complete(true);
+    }
+
+    private void schedule() {
+        while (true) {
+            final Job job;
+            synchronized (this) {
+                if (finished || active.size() >= parallelism || pending.isEmpty())
+                    break;
+                final Iterator<String> iterator = pending.iterator();
+                job = new Job(iterator.next());
+                iterator.remove();
+                active.add(job);
+            }
+            job.connect();
+        }
+        synchronized (this) {
+            if (!pending.isEmpty() || !active.isEmpty())
+                return;
+        }
+        complete(false);
+    }
+
+    private void onJobCompleted(@NonNull final Job job, @NonNull final DeviceResult result) {
+        final Listener l;
+        synchronized (this) {
+            if (finished || !active.remove(job))
+                return;
+            results.add(result);
+            l = listener;
+        }
+        job.ops.release();
+        if (l != null)
+            l.onDeviceResult(result);
+        schedule();
+    }
+
+    private void complete(final boolean cancelled) {
+        final List<Job> jobs;
+        final Listener l;
+        final Report report;
+        synchronized (this) {
+            if (finished)
+                return;
+            // Set before releasing the jobs, so that failures caused by the release
+            // are neither reported nor retried.
+            finished = true;
+            pending.clear();
+            jobs = new ArrayList<>(active);
+            active.clear();
+            report = new Report(new ArrayList<>(results), cancelled,
+                    (System.nanoTime() - startTime) / 1000000);
+            l = listener;
+            listener = null;
+        }
+        for (final Job job : jobs)
+            job.ops.release();
+        if (l != null)
+            l.onCompleted(report);
+    }
+
+    private synchronized boolean isFinished() {
+        return finished;
+    }
+
+    private final class Job {
+        private final String address;
+        /** Replaced after a timed out attempt, as released operations may not be reused. */
+        private volatile LockOperations ops;
+        private boolean stale;
+        /*
+         * Stage times and retries are written from callback and scheduler threads,
+         * so they are guarded by the job.
+         */
+        private final long[] stageTimes = { -1, -1, -1 };
+        private int retries;
+        private long stageStart;
+
+        private Job(@NonNull final String address) {
+            this.address = address;
+            this.ops = factory.create(address);
+        }
+
+        private void connect() {
+            startStage();
+            attemptConnect();
+        }
+
+        private void attemptConnect() {
+            synchronized (BatchUnlock.this) {
+                if (finished)
+                    return;
+                // Swapped under the lock, so that the batch releases the current operations.
+                if (stale) {
+                    stale = false;
+                    ops = factory.create(address);
+                }
+            }
+            ops.connect(new StageCallback(Stage.CONNECT, policy.getConnectTimeout()) {
+                @Override
+                void next() {
+                    if (isFinished())
+                        return;
+                    policy.onAttempt(address, true);
+                    handshake();
+                }
+
+                @Override
+                void failed(final int reason) {
+                    // A connection cancelled with the batch may fail with any status.
+                    if (isFinished())
+                        return;
+                    if (reason == LockOperations.REASON_CANCELLED) {
+                        super.failed(reason);
+                        return;
+                    }
+                    policy.onAttempt(address, false);
+                    final int retry = nextRetry(policy.getRetryBudget(address));
+                    if (retry > 0) {
+                        policy.onRetry(address);
+                        // A timed out attempt may still be in progress. Released operations
+                        // are done, so the next attempt uses new ones.
+                        if (reason == LockOperations.REASON_TIMEOUT) {
+                            ops.release();
+                            stale = true;
+                        }
+                        scheduler.schedule(Job.this::attemptConnect,
+                                policy.getBackoff(retry), TimeUnit.MILLISECONDS);
+                    } else {
+                        super.failed(reason);
+                    }
+                }
+            });
+        }
+
+        private void handshake() {
+            startStage();
+            ops.awaitHandshake(new StageCallback(Stage.HANDSHAKE, policy.getHandshakeTimeout()) {
+                @Override
+                void next() {
+                    unlock();
+                }
+            });
+        }
+
+        private void unlock() {
+            startStage();
+            ops.unlock(new StageCallback(Stage.UNLOCK, policy.getUnlockTimeout()) {
+                @Override
+                void next() {
+                    onJobCompleted(Job.this, result(null, 0));
+                }
+            });
+        }
+
+        private synchronized void startStage() {
+            stageStart = System.nanoTime();
+        }
+
+        private synchronized void endStage(@NonNull final Stage stage) {
+            stageTimes[stage.ordinal()] = (System.nanoTime() - stageStart) / 1000000;
+        }
+
+        /**
+         * Counts a retry, if the budget allows it.
+         *
+         * @return The retry number, starting from 1, or 0 if the budget has been used.
+         */
+        private synchronized int nextRetry(final int budget) {
+            if (retries >= budget)
+                return 0;
+            return ++retries;
+        }
+
+        /**
+         * Returns the result of the job, with a copy of the stage times.
+         *
+         * @param failedStage the stage that failed, or null on success.
+         */
+        @NonNull
+        private synchronized DeviceResult result(@Nullable final Stage failedStage, final int reason) {
+            return new DeviceResult(address, failedStage == null, failedStage, reason,
+                    stageTimes, retries);
+        }
+
+        /**
+         * A callback that completes only once, either by the operation or by the timeout.
+         */
+        private abstract class StageCallback implements LockOperations.Callback {
+            private final Stage stage;
+            @Nullable
+            private final ScheduledFuture<?> timeout;
+            private boolean completed;
+
+            private StageCallback(@NonNull final Stage stage, final long timeoutMillis) {
+                this.stage = stage;
+                this.timeout = timeoutMillis > 0 ?
+                        scheduler.schedule(() -> onFailure(LockOperations.REASON_TIMEOUT),
+                                timeoutMillis, TimeUnit.MILLISECONDS) : null;
+            }
+
+            abstract void next();
+
+            void failed(final int reason) {
+                onJobCompleted(Job.this, result(stage, reason));
+            }
+
+            private boolean complete() {
+                synchronized (this) {
+                    if (completed)
+                        return false;
+                    completed = true;
+                }
+                if (timeout != null)
+                    timeout.cancel(false);
+                endStage(stage);
+                return true;
+            }
+
+            @Override
+            public void onSuccess() {
+                if (complete())
+                    next();
+            }
+
+            @Override
+            public void onFailure(final int reason) {
+                if (complete())
+                    failed(reason);
+            }
+        }
+    }
+}
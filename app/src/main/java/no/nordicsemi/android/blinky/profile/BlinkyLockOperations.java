@@ -0,0 +1,156 @@
+package no.nordicsemi.android.blinky.profile;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import no.nordicsemi.android.ble.ConnectRequest;
+
+/**
+ * {@link LockOperations} implemented using a {@link BlinkyManager}.
+ */
+public class BlinkyLockOperations implements LockOperations, BlinkyManager.LockListener {
+    private final BlinkyManager manager;
+    private final BluetoothDevice device;
+    private final boolean ownsManager;
+    @Nullable
+    private ConnectRequest connectRequest;
+    @Nullable
+    private Callback handshakeCallback;
+    @Nullable
+    private Callback unlockCallback;
+
+    public BlinkyLockOperations(@NonNull final BlinkyManager manager,
+                                @NonNull final BluetoothDevice device) {
+        this(manager, device, false);
+    }
+
+    private BlinkyLockOperations(@NonNull final BlinkyManager manager,
+                                 @NonNull final BluetoothDevice device,
+                                 final boolean ownsManager) {
+        this.manager = manager;
+        this.device = device;
+        this.ownsManager = ownsManager;
+        manager.addLockListener(this);
+    }
+
+    /**
+     * Returns a factory creating a new {@link BlinkyManager} for each address.
+     *
+     * @param context the context.
+     */
+    @NonNull
+    public static Factory factory(@NonNull final Context context) {
+        final Context appContext = context.getApplicationContext();
+        return address -> new BlinkyLockOperations(new BlinkyManager(appContext),
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address), true);
+    }
+
+    @Override
+    public void connect(@NonNull final Callback callback) {
+        final ConnectRequest request = manager.connectLock(device)
+                .useAutoConnect(false)
+                .done(d -> callback.onSuccess())
+                .fail((d, status) -> callback.onFailure(status))
+                .then(d -> connectRequest = null);
+        connectRequest = request;
+        request.enqueue();
+    }
+
+    @Override
+    public synchronized void awaitHandshake(@NonNull final Callback callback) {
+        if (manager.isHandshakeCompleted()) {
+            callback.onSuccess();
+            return;
+        }
+        handshakeCallback = callback;
+    }
+
+    @Override
+    public synchronized void unlock(@NonNull final Callback callback) {
+        if (!manager.isHandshakeCompleted()) {
+            callback.onFailure(REASON_SESSION_LOST);
+            return;
+        }
+        unlockCallback = callback;
+        manager.tryUnlock();
+    }
+
+    @Override
+    public void release() {
+        manager.removeLockListener(this);
+        final Callback handshake, unlock;
+        synchronized (this) {
+            handshake = handshakeCallback;
+            unlock = unlockCallback;
+            handshakeCallback = unlockCallback = null;
+        }
+        final ConnectRequest request = connectRequest;
+        if (request != null) {
+            request.cancelPendingConnection();
+        }
+        if (ownsManager) {
+            manager.close();
+        } else if (request == null && manager.isConnected()) {
+            manager.disconnect().enqueue();
+        }
+        if (handshake != null)
+            handshake.onFailure(REASON_CANCELLED);
+        if (unlock != null)
+            unlock.onFailure(REASON_CANCELLED);
+    }
+
+    @Override
+    public void onHandshakeCompleted() {
+        final Callback callback;
+        synchronized (this) {
+            callback = handshakeCallback;
+            handshakeCallback = null;
+        }
+        if (callback != null)
+            callback.onSuccess();
+    }
+
+    @Override
+    public void onUnlockResult(final boolean success) {
+        final Callback callback;
+        synchronized (this) {
+            callback = unlockCallback;
+            unlockCallback = null;
+        }
+        if (callback != null) {
+            if (success)
+                callback.onSuccess();
+            else
+                callback.onFailure(REASON_UNLOCK_REJECTED);
+        }
+    }
+
+    @Override
+    public void onUnlockFailed(final int reason) {
+        final Callback callback;
+        synchronized (this) {
+            callback = unlockCallback;
+            unlockCallback = null;
+        }
+        if (callback != null)
+            callback.onFailure(reason);
+    }
+
+    @Override
+    public void onSessionLost() {
+        final Callback handshake, unlock;
+        synchronized (this) {
+            handshake = handshakeCallback;
+            unlock = unlockCallback;
+            handshakeCallback = unlockCallback = null;
+        }
+        if (handshake != null)
+            handshake.onFailure(REASON_SESSION_LOST);
+        if (unlock != null)
+            unlock.onFailure(REASON_SESSION_LOST);
+    }
+}
@@ -5,6 +5,9 @@ import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -14,44 +17,121 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
+import no.nordicsemi.android.ble.ConnectRequest;
+import no.nordicsemi.android.ble.callback.DataReceivedCallback;
 import no.nordicsemi.android.ble.data.Data;
 import no.nordicsemi.android.ble.livedata.ObservableBleManager;
 import no.nordicsemi.android.blinky.BuildConfig;
-import no.nordicsemi.android.blinky.profile.callback.BlinkyNotifyDataCallback;
 import no.nordicsemi.android.blinky.profile.callback.BlinkyWriteDataCallback;
-import no.nordicsemi.android.blinky.utils.HexString;
-import no.nordicsemi.android.log.LogContract;
+import no.nordicsemi.android.blinky.utils.LogSink;
+import no.nordicsemi.android.blinky.viewmodels.SingleLiveEvent;
 import no.nordicsemi.android.log.LogSession;
-import no.nordicsemi.android.log.Logger;
 
 public class BlinkyManager extends ObservableBleManager {
     /**
-     * Nordic Blinky Service UUID.
+     * Listener of the lock protocol events. Unlike the LiveData objects, the listener is
+     * called on the thread that delivered the BLE callback.
      */
-    public final static UUID LBS_UUID_SERVICE = UUID.fromString("0000FFB0-0000-1000-8000-00805F9B34FB");
+    public interface LockListener extends LockSession.Listener {
+    }
+
     /**
-     * BUTTON characteristic UUID.
+     * The service UUID of the YX lock. Other lock models are registered in the
+     * {@link LockProfileRegistry}.
      */
-    private final static UUID LBS_UUID_BUTTON_CHAR = UUID.fromString("0000FFB2-0000-1000-8000-00805F9B34FB");
+    public final static UUID LBS_UUID_SERVICE = LockProfile.YX.getServiceUuid();
+
     /**
-     * LED characteristic UUID.
+     * The unlock command. Unlock requests made while one is pending or in flight are served
+     * by the same frame.
      */
-    private final static UUID LBS_UUID_LED_CHAR = UUID.fromString("0000FFB1-0000-1000-8000-00805F9B34FB");
-
-
-    private final static String WRITE_FOR_CONNECT_CHAR = "A902FCCF";
-    private final static String WRITE_FOR_UNLOCK_CHAR = "A70701020304050603";
+    public final static CommandScheduler.Command COMMAND_UNLOCK = LockSession.COMMAND_UNLOCK;
 
     private final MutableLiveData<Boolean> connectState = new MutableLiveData<>();
-    private final MutableLiveData<Boolean> unlockSuccess = new MutableLiveData<>();
+    /**
+     * Unlock result is an event. When the manager is reused, e.g. from a warm link,
+     * a new observer should not be notified about the previous result.
+     */
+    private final MutableLiveData<Boolean> unlockSuccess = new SingleLiveEvent<>();
+    private final Handler timeoutHandler = new Handler(Looper.getMainLooper());
 
-    private BluetoothGattCharacteristic notifyCharacteristic, writeCharacteristic;
+    private volatile BluetoothGattCharacteristic notifyCharacteristic, writeCharacteristic;
+    /** The profile of the connected lock, chosen when services were discovered. */
+    @NonNull
+    private volatile LockProfile profile = LockProfile.YX;
     private LogSession logSession;
     private boolean supported;
 
+    /**
+     * The lock protocol logic. Frames are written without response to the write
+     * characteristic, and timeouts are run on the main thread.
+     */
+    private final LockSession lockSession = new LockSession(new LockSession.Link() {
+        @Override
+        public boolean isWritable() {
+            return writeCharacteristic != null;
+        }
+
+        @Override
+        public void write(@NonNull final byte[] frame) {
+            final BluetoothGattCharacteristic characteristic = writeCharacteristic;
+            if (characteristic == null)
+                return;
+            writeCharacteristic(
+                    characteristic,
+                    frame,
+                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+            ).with(ledCallback).enqueue();
+        }
+    }, new LockSession.Timer() {
+        @Override
+        public void schedule(@NonNull final Runnable task, final long delayMillis) {
+            timeoutHandler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(@NonNull final Runnable task) {
+            timeoutHandler.removeCallbacks(task);
+        }
+    }, new LockSession.Logger() {
+        @Override
+        public boolean isLoggable(final int priority) {
+            return BlinkyManager.this.isLoggable(priority);
+        }
+
+        @Override
+        public void log(final int priority, @NonNull final String message) {
+            BlinkyManager.this.log(priority, message);
+        }
+    });
+
     public BlinkyManager(@NonNull final Context context) {
         super(context);
+        // Added first, so that the LiveData objects are updated before other listeners
+        // are notified, as before.
+        lockSession.addListener(new LockSession.Listener() {
+            @Override
+            public void onHandshakeCompleted() {
+                setValue(connectState, true);
+            }
+
+            @Override
+            public void onUnlockResult(final boolean success) {
+                setValue(unlockSuccess, success);
+            }
+
+            @Override
+            public void onUnlockFailed(final int reason) {
+                setValue(unlockSuccess, false);
+            }
+
+            @Override
+            public void onSessionLost() {
+                // The connection state is reported by the ObservableBleManager.
+            }
+        });
     }
 
     public final LiveData<Boolean> getConnectState() {
@@ -62,6 +142,80 @@ public class BlinkyManager extends ObservableBleManager {
         return unlockSuccess;
     }
 
+    /**
+     * Returns the time-to-unlock measurements of the current connection.
+     */
+    @NonNull
+    public UnlockTimings getTimings() {
+        return lockSession.getTimings();
+    }
+
+    /**
+     * Returns the state machine of the lock session. Observers may be added to it to be
+     * notified about transitions.
+     */
+    @NonNull
+    public SessionStateMachine getSession() {
+        return lockSession.getStateMachine();
+    }
+
+    /**
+     * Returns the profile of the lock. It is known when the services have been discovered.
+     */
+    @NonNull
+    public LockProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns whether A90D has been received on the current connection.
+     */
+    public boolean isHandshakeCompleted() {
+        return lockSession.isHandshakeCompleted();
+    }
+
+    /**
+     * Sets the time in which A70D or A700 must be received after the unlock frame has been
+     * sent. If no reply is received in that time, the unlock is reported as failed.
+     *
+     * @param timeout the timeout in milliseconds, 0 to wait forever.
+     */
+    public void setUnlockTimeout(final long timeout) {
+        lockSession.setUnlockTimeout(timeout);
+    }
+
+    public void addLockListener(@NonNull final LockListener listener) {
+        lockSession.addListener(listener);
+    }
+
+    public void removeLockListener(@NonNull final LockListener listener) {
+        lockSession.removeListener(listener);
+    }
+
+    /**
+     * Enables or disables the fast reconnect path. When enabled, devices which have already
+     * been validated in this process are initialized without reading the characteristics
+     * and with notifications enabled first, so that the FCCF prompt arrives sooner.
+     *
+     * @param enabled true to enable fast reconnect, false to always use the full path.
+     */
+    public void setFastReconnectEnabled(final boolean enabled) {
+        lockSession.setFastReconnectEnabled(enabled);
+    }
+
+    /**
+     * Creates a connection request to the given lock and starts the time-to-unlock measurement.
+     * The request needs to be enqueued.
+     *
+     * @param device the lock to connect to.
+     * @return The connect request.
+     */
+    @NonNull
+    public ConnectRequest connectLock(@NonNull final BluetoothDevice device) {
+        lockSession.onConnecting(device.getAddress());
+        return connect(device);
+    }
+
     @NonNull
     @Override
     protected BleManagerGattCallback getGattCallback() {
@@ -82,8 +236,16 @@ public class BlinkyManager extends ObservableBleManager {
         if (BuildConfig.DEBUG) {
             Log.println(priority, "BlinkyManager", message);
         }
-        // The priority is a Log.X constant, while the Logger accepts it's log levels.
-        Logger.log(logSession, LogContract.Log.Level.fromPriority(priority), message);
+        // Writing to nRF Logger is done on a background thread.
+        LogSink.getInstance().log(logSession, priority, message);
+    }
+
+    /**
+     * Returns whether a message with the given priority would be logged anywhere.
+     * Use it to avoid building messages that would be discarded.
+     */
+    private boolean isLoggable(final int priority) {
+        return BuildConfig.DEBUG || LogSink.getInstance().isLoggable(priority);
     }
 
     @Override
@@ -95,71 +257,69 @@ public class BlinkyManager extends ObservableBleManager {
      * The Button callback will be notified when a notification from Button characteristic
      * has been received, or its data was read.
      * <p>
-     * If the data received are valid the {@link BlinkyNotifyDataCallback#writeCharacteristicForConnect}
-     * or {@link BlinkyNotifyDataCallback#onLongConnectSuccess}  will be called.
-     * Otherwise, the {@link BlinkyNotifyDataCallback#onInvalidDataReceived(BluetoothDevice, Data)}
-     * will be called with the data received.
+     * The data are decoded by the {@link LockSession} using the codec of the lock profile.
+     * Invalid data are counted and logged.
      */
-    private final BlinkyNotifyDataCallback notifyCallback = new BlinkyNotifyDataCallback() {
-
-        @Override
-        public void writeCharacteristicForConnect() {
-            // Are we connected?
-            if (writeCharacteristic == null)
-                return;
-            writeCharacteristic(
-                    writeCharacteristic,
-                    HexString.hexToBytes(WRITE_FOR_CONNECT_CHAR),
-                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
-            ).with(ledCallback).enqueue();
-        }
-
-        @Override
-        public void onLongConnectSuccess() {
-            log(Log.WARN, "Long Connect Success!");
-            connectState.setValue(true);
-        }
-
-        @Override
-        public void onUnlockedResult(boolean isSuccess) {
-            log(Log.WARN, "Unlocked " + (isSuccess ? "Success" : "Fail"));
-            unlockSuccess.setValue(isSuccess);
-        }
-
-        @Override
-        public void onInvalidDataReceived(@NonNull final BluetoothDevice device,
-                                          @NonNull final Data data) {
-            log(Log.WARN, "Invalid data received: " + data);
-        }
+    private final DataReceivedCallback notifyCallback = (device, data) -> {
+        if (!lockSession.onNotification(data.getValue()))
+            onInvalidData(device, data);
     };
 
     /**
      * The LED callback will be notified when the LED state was read or sent to the target device.
      * <p>
      * This callback implements both {@link no.nordicsemi.android.ble.callback.DataReceivedCallback}
-     * and {@link no.nordicsemi.android.ble.callback.DataSentCallback} and calls the same
-     * method on success.
+     * and {@link no.nordicsemi.android.ble.callback.DataSentCallback}. Sent frames are reported
+     * to {@link BlinkyWriteDataCallback#onFrameSent(BluetoothDevice, Data)}.
      * <p>
-     * If the data received were invalid, the
+     * If the data were read, the
      * {@link BlinkyWriteDataCallback#onInvalidDataReceived(BluetoothDevice, Data)} will be
      * called.
      */
     private final BlinkyWriteDataCallback ledCallback = new BlinkyWriteDataCallback() {
+        @Override
+        public void onFrameSent(@NonNull final BluetoothDevice device, @NonNull final Data data) {
+            if (isLoggable(Log.DEBUG))
+                log(Log.DEBUG, "Frame sent: " + data);
+        }
+
         @Override
         public void onInvalidDataReceived(@NonNull final BluetoothDevice device,
                                           @NonNull final Data data) {
             // Data can only invalid if we read them. We assume the app always sends correct data.
-            log(Log.WARN, "Invalid data received: " + data);
+            onInvalidData(device, data);
         }
     };
 
+    /**
+     * Counts the invalid payload and logs a sample of them, so that a misbehaving lock
+     * does not flood the log.
+     */
+    private void onInvalidData(@NonNull final BluetoothDevice device, @NonNull final Data data) {
+        final long count = InvalidDataStats.getInstance().record(device.getAddress(), data.getValue());
+        if (count > 0 && isLoggable(Log.WARN)) {
+            log(Log.WARN, count > 1 ?
+                    "Invalid data received: " + data + " (" + (count - 1) + " more since last report)" :
+                    "Invalid data received: " + data);
+        }
+    }
+
     /**
      * BluetoothGatt callbacks object.
      */
     private class BlinkyBleManagerGattCallback extends BleManagerGattCallback {
+        private boolean fastPath;
+
         @Override
         protected void initialize() {
+            lockSession.onServicesReady(fastPath);
             setNotificationCallback(notifyCharacteristic).with(notifyCallback);
+            if (fastPath) {
+                // The device has already been validated. Its values are not used, so skip
+                // reading them and enable notifications straight away.
+                enableNotifications(notifyCharacteristic).enqueue();
+                return;
+            }
             readCharacteristic(writeCharacteristic).with(ledCallback).enqueue();
             readCharacteristic(notifyCharacteristic).with(notifyCallback).enqueue();
             enableNotifications(notifyCharacteristic).enqueue();
@@ -167,12 +327,30 @@ public class BlinkyManager extends ObservableBleManager {
 
         @Override
         public boolean isRequiredServiceSupported(@NonNull final BluetoothGatt gatt) {
-            final BluetoothGattService service = gatt.getService(LBS_UUID_SERVICE);
-            if (service != null) {
-                notifyCharacteristic = service.getCharacteristic(LBS_UUID_BUTTON_CHAR);
-                writeCharacteristic = service.getCharacteristic(LBS_UUID_LED_CHAR);
+            final String address = gatt.getDevice().getAddress();
+            // Choose the profile by the service UUID. The first supported one is used.
+            final LockProfileRegistry registry = LockProfileRegistry.getInstance();
+            for (final BluetoothGattService service : gatt.getServices()) {
+                final LockProfile candidate = registry.get(service.getUuid());
+                if (candidate == null)
+                    continue;
+                notifyCharacteristic = service.getCharacteristic(candidate.getNotifyUuid());
+                writeCharacteristic = service.getCharacteristic(candidate.getWriteUuid());
+                if (notifyCharacteristic != null && writeCharacteristic != null) {
+                    profile = candidate;
+                    break;
+                }
             }
             supported = notifyCharacteristic != null && writeCharacteristic != null;
+            if (supported) {
+                if (isLoggable(Log.INFO))
+                    log(Log.INFO, "Lock profile: " + profile);
+                lockSession.setCodec(profile.getCodec());
+            } else {
+                notifyCharacteristic = null;
+                writeCharacteristic = null;
+            }
+            fastPath = lockSession.onServicesValidated(address, supported);
             return supported;
         }
 
@@ -180,6 +358,7 @@ public class BlinkyManager extends ObservableBleManager {
         protected void onServicesInvalidated() {
             notifyCharacteristic = null;
             writeCharacteristic = null;
+            lockSession.onLinkLost();
         }
     }
 
@@ -187,15 +366,149 @@ public class BlinkyManager extends ObservableBleManager {
      * Sends a request to the device to unlock
      */
     public void tryUnlock() {
-        // Are we connected?
-        if (writeCharacteristic == null)
-            return;
-
-        log(Log.VERBOSE, "Unlocking ...");
-        writeCharacteristic(
-                writeCharacteristic,
-                HexString.hexToBytes(WRITE_FOR_UNLOCK_CHAR),
-                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
-        ).with(ledCallback).enqueue();
+        tryUnlock(null);
+    }
+
+    /**
+     * Sends a request to the device to unlock. If an unlock is already pending or in flight,
+     * no new frame is sent and the callback is notified with its result.
+     *
+     * @param callback an optional callback.
+     */
+    public void tryUnlock(@Nullable final CommandScheduler.Callback callback) {
+        lockSession.tryUnlock(callback);
+    }
+
+    /**
+     * Connects to the lock. The future completes when the device is ready, i.e. the services
+     * were discovered and notifications were enabled. On failure, it completes with
+     * a {@link LockException} with the connection status.
+     *
+     * @param device   the lock to connect to.
+     * @param executor the executor used to complete the future.
+     * @return The future result.
+     */
+    @NonNull
+    public LockFuture<LockResult> connectAsync(@NonNull final BluetoothDevice device,
+                                               @NonNull final Executor executor) {
+        final LockFuture<LockResult> future = new LockFuture<>();
+        final long start = SystemClock.elapsedRealtime();
+        connectLock(device)
+                .done(d -> executor.execute(() ->
+                        future.complete(result(LockResult.Operation.CONNECT, true, start))))
+                .fail((d, status) -> {
+                    lockSession.onConnectFailed();
+                    executor.execute(() ->
+                            future.completeExceptionally(new LockException("Connection failed", status)));
+                })
+                .enqueue();
+        return future;
+    }
+
+    /**
+     * Waits for the handshake to complete on the current connection. If it has already been
+     * completed, the future completes immediately.
+     *
+     * @param timeout  the time to wait for A90D, in milliseconds.
+     * @param executor the executor used to complete the future.
+     * @return The future result.
+     */
+    @NonNull
+    public LockFuture<LockResult> handshakeAsync(final long timeout,
+                                                 @NonNull final Executor executor) {
+        final HandshakeWaiter waiter = new HandshakeWaiter(executor);
+        // Add the listener before checking the flag, so that the handshake cannot be missed.
+        addLockListener(waiter);
+        timeoutHandler.postDelayed(waiter, timeout);
+        if (isHandshakeCompleted())
+            waiter.onHandshakeCompleted();
+        return waiter.future;
+    }
+
+    /**
+     * Unlocks the lock. If an unlock is already pending or in flight, the future completes with
+     * its result. The result is not successful if the lock replied with A700 or did not reply
+     * in time. If the session was lost, the future fails.
+     *
+     * @param executor the executor used to complete the future.
+     * @return The future result.
+     */
+    @NonNull
+    public LockFuture<LockResult> unlockAsync(@NonNull final Executor executor) {
+        final LockFuture<LockResult> future = new LockFuture<>();
+        final long start = SystemClock.elapsedRealtime();
+        tryUnlock((command, success) -> executor.execute(() -> {
+            if (!success && !isHandshakeCompleted())
+                future.completeExceptionally(
+                        new LockException("Session lost", LockOperations.REASON_SESSION_LOST));
+            else
+                future.complete(result(LockResult.Operation.UNLOCK, success, start));
+        }));
+        return future;
+    }
+
+    private final class HandshakeWaiter implements LockListener, Runnable {
+        private final LockFuture<LockResult> future = new LockFuture<>();
+        private final Executor executor;
+        private final long start = SystemClock.elapsedRealtime();
+
+        private HandshakeWaiter(@NonNull final Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void onHandshakeCompleted() {
+            finish(null);
+        }
+
+        @Override
+        public void onUnlockResult(final boolean success) {
+            // Ignore.
+        }
+
+        @Override
+        public void onUnlockFailed(final int reason) {
+            // Ignore.
+        }
+
+        @Override
+        public void onSessionLost() {
+            finish(new LockException("Session lost", LockOperations.REASON_SESSION_LOST));
+        }
+
+        /** Called on timeout. */
+        @Override
+        public void run() {
+            finish(new LockException("Handshake timed out", LockOperations.REASON_TIMEOUT));
+        }
+
+        private void finish(@Nullable final LockException error) {
+            removeLockListener(this);
+            timeoutHandler.removeCallbacks(this);
+            executor.execute(() -> {
+                if (error != null)
+                    future.completeExceptionally(error);
+                else
+                    future.complete(result(LockResult.Operation.HANDSHAKE, true, start));
+            });
+        }
+    }
+
+    @NonNull
+    private LockResult result(@NonNull final LockResult.Operation operation,
+                              final boolean success, final long start) {
+        return new LockResult(operation, success, SystemClock.elapsedRealtime() - start,
+                lockSession.getTimings().getElapsedSinceConnect());
+    }
+
+    /**
+     * Sets the value on the main thread. Listeners may be called on other threads, e.g. when
+     * an unlock is requested from a background thread.
+     */
+    private static <T> void setValue(@NonNull final MutableLiveData<T> liveData, final T value) {
+        if (Looper.myLooper() == Looper.getMainLooper())
+            liveData.setValue(value);
+        else
+            liveData.postValue(value);
     }
 }
@@ -0,0 +1,224 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Schedules commands sent to a single lock, one at a time.
+ * <p>
+ * A command submitted while an identical command is pending or in flight is not sent again.
+ * Instead, its callback is added to the existing command, and all callbacks are notified with
+ * its result. E.g. tapping unlock repeatedly results in a single unlock frame.
+ * <p>
+ * Pending commands are sent in order of their priority, and then in order of submission.
+ * <p>
+ * This class does not depend on Android API and is thread safe. The executor and callbacks
+ * are called without holding the lock.
+ */
+public class CommandScheduler {
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    /**
+     * A command type. Commands are compared by identity, so each type should be a constant.
+     */
+    public static final class Command {
+        private final String name;
+        private final int priority;
+
+        public Command(@NonNull final String name, final int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public interface Executor {
+        /**
+         * Sends the command. {@link #complete(Command, boolean)} must be called when the result
+         * is known, also if sending has failed.
+         */
+        void execute(@NonNull Command command);
+    }
+
+    public interface Callback {
+        void onCommandCompleted(@NonNull Command command, boolean success);
+    }
+
+    public interface StatsListener {
+        /**
+         * Called when a command has been completed or cancelled.
+         *
+         * @param queueTime time from the first submission until the command was sent, in ms.
+         * @param onAirTime time from sending until the result, in ms.
+         * @param callers   the number of submissions served by the command.
+         */
+        void onCommandStats(@NonNull Command command, long queueTime, long onAirTime,
+                            int callers, boolean success);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final Command command;
+        private final long sequence;
+        private final long submitTime;
+        private final List<Callback> callbacks = new ArrayList<>(1);
+        private int callers;
+        private long sendTime;
+
+        private Entry(@NonNull final Command command, final long sequence) {
+            this.command = command;
+            this.sequence = sequence;
+            this.submitTime = System.nanoTime();
+        }
+
+        private void add(@Nullable final Callback callback) {
+            callers++;
+            if (callback != null)
+                callbacks.add(callback);
+        }
+
+        @Override
+        public int compareTo(@NonNull final Entry other) {
+            if (command.priority != other.command.priority)
+                return command.priority < other.command.priority ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Executor executor;
+    @Nullable
+    private final StatsListener statsListener;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Map<Command, Entry> pending = new HashMap<>();
+    @Nullable
+    private Entry inFlight;
+    private long sequence;
+    private long coalescedCount;
+
+    public CommandScheduler(@NonNull final Executor executor,
+                            @Nullable final StatsListener statsListener) {
+        this.executor = executor;
+        this.statsListener = statsListener;
+    }
+
+    /**
+     * Submits the command. If the same command is already pending or in flight, the callback
+     * will be notified with its result instead.
+     *
+     * @param command  the command.
+     * @param callback an optional callback.
+     */
+    public void submit(@NonNull final Command command, @Nullable final Callback callback) {
+        final Entry next;
+        synchronized (this) {
+            Entry entry = inFlight != null && inFlight.command == command ?
+                    inFlight : pending.get(command);
+            if (entry != null) {
+                entry.add(callback);
+                coalescedCount++;
+                return;
+            }
+            entry = new Entry(command, sequence++);
+            entry.add(callback);
+            pending.put(command, entry);
+            queue.add(entry);
+            next = inFlight == null ? startNext() : null;
+        }
+        if (next != null)
+            executor.execute(next.command);
+    }
+
+    /**
+     * Completes the command in flight. The call is ignored if the given command is not
+     * in flight, e.g. when the reply arrived after a timeout.
+     *
+     * @param command the command.
+     * @param success whether the command has succeeded.
+     * @return True if the command was in flight.
+     */
+    public boolean complete(@NonNull final Command command, final boolean success) {
+        final Entry entry;
+        final Entry next;
+        synchronized (this) {
+            if (inFlight == null || inFlight.command != command)
+                return false;
+            entry = inFlight;
+            next = startNext();
+        }
+        finish(entry, System.nanoTime(), success);
+        if (next != null)
+            executor.execute(next.command);
+        return true;
+    }
+
+    /**
+     * Fails the command in flight and all pending commands, e.g. when the connection was lost.
+     */
+    public void cancelAll() {
+        final List<Entry> cancelled = new ArrayList<>();
+        synchronized (this) {
+            if (inFlight != null)
+                cancelled.add(inFlight);
+            inFlight = null;
+            while (!queue.isEmpty())
+                cancelled.add(queue.poll());
+            pending.clear();
+        }
+        final long now = System.nanoTime();
+        for (final Entry entry : cancelled)
+            finish(entry, now, false);
+    }
+
+    /**
+     * Returns whether the given command is pending or in flight.
+     */
+    public synchronized boolean isScheduled(@NonNull final Command command) {
+        return (inFlight != null && inFlight.command == command) || pending.containsKey(command);
+    }
+
+    /**
+     * Returns the number of submissions which were merged into an already scheduled command.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    @Nullable
+    private Entry startNext() {
+        final Entry next = queue.poll();
+        inFlight = next;
+        if (next != null) {
+            pending.remove(next.command);
+            next.sendTime = System.nanoTime();
+        }
+        return next;
+    }
+
+    private void finish(@NonNull final Entry entry, final long now, final boolean success) {
+        for (final Callback callback : entry.callbacks)
+            callback.onCommandCompleted(entry.command, success);
+        if (statsListener != null) {
+            // A command cancelled before being sent has not been on air.
+            final long sendTime = entry.sendTime != 0 ? entry.sendTime : now;
+            statsListener.onCommandStats(entry.command,
+                    (sendTime - entry.submitTime) / 1000000,
+                    (now - sendTime) / 1000000, entry.callers, success);
+        }
+    }
+}
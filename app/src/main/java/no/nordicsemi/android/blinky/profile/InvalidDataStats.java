@@ -0,0 +1,130 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of invalid payloads received from locks, per device and per opcode.
+ * <p>
+ * A misbehaving lock may send invalid data continuously. Instead of logging every payload,
+ * callers should log only when {@link #record(String, byte[])} returns non-zero: the first
+ * invalid payload of each device is logged, and then at most one every
+ * {@link #LOG_INTERVAL} ms, together with the number of payloads suppressed since.
+ * <p>
+ * This class does not depend on Android API and is thread safe.
+ */
+public final class InvalidDataStats {
+    /** Minimum interval between two sampled log entries of the same device, in milliseconds. */
+    public static final long LOG_INTERVAL = 10000;
+    /** The opcode key of payloads shorter than 2 bytes. */
+    public static final int NO_OPCODE = -1;
+
+    private static final InvalidDataStats INSTANCE = new InvalidDataStats();
+
+    private static final class DeviceCounter {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+        /** Time of the last sampled log entry, in ns, or 0. */
+        private final AtomicLong lastLogTime = new AtomicLong();
+    }
+
+    private final ConcurrentHashMap<String, DeviceCounter> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, AtomicLong> opcodes = new ConcurrentHashMap<>();
+
+    @NonNull
+    public static InvalidDataStats getInstance() {
+        return INSTANCE;
+    }
+
+    private InvalidDataStats() {
+        // Use getInstance().
+    }
+
+    /**
+     * Counts an invalid payload.
+     *
+     * @param address the device address.
+     * @param value   the payload, which may be null if empty.
+     * @return The number of payloads suppressed since the last sampled entry, plus one, if this
+     * payload should be logged, or 0 if it should not.
+     */
+    public long record(@NonNull final String address, @Nullable final byte[] value) {
+        final int opcode = opcode(value);
+        AtomicLong opcodeCount = opcodes.get(opcode);
+        if (opcodeCount == null) {
+            opcodeCount = new AtomicLong();
+            final AtomicLong existing = opcodes.putIfAbsent(opcode, opcodeCount);
+            if (existing != null)
+                opcodeCount = existing;
+        }
+        opcodeCount.incrementAndGet();
+
+        DeviceCounter device = devices.get(address);
+        if (device == null) {
+            device = new DeviceCounter();
+            final DeviceCounter existing = devices.putIfAbsent(address, device);
+            if (existing != null)
+                device = existing;
+        }
+        device.count.incrementAndGet();
+
+        final long now = System.nanoTime();
+        final long last = device.lastLogTime.get();
+        if ((last == 0 || now - last >= LOG_INTERVAL * 1000000L)
+                && device.lastLogTime.compareAndSet(last, now)) {
+            return device.suppressed.getAndSet(0) + 1;
+        }
+        device.suppressed.incrementAndGet();
+        return 0;
+    }
+
+    /**
+     * Returns the number of invalid payloads received from the device.
+     */
+    public long getCount(@NonNull final String address) {
+        final DeviceCounter device = devices.get(address);
+        return device != null ? device.count.get() : 0;
+    }
+
+    /**
+     * Returns the number of invalid payloads per device address.
+     */
+    @NonNull
+    public Map<String, Long> getCountsByDevice() {
+        final Map<String, Long> counts = new HashMap<>();
+        for (final Map.Entry<String, DeviceCounter> entry : devices.entrySet())
+            counts.put(entry.getKey(), entry.getValue().count.get());
+        return counts;
+    }
+
+    /**
+     * Returns the number of invalid payloads per opcode, i.e. the first 2 bytes of the payload,
+     * or {@link #NO_OPCODE}.
+     */
+    @NonNull
+    public Map<Integer, Long> getCountsByOpcode() {
+        final Map<Integer, Long> counts = new HashMap<>();
+        for (final Map.Entry<Integer, AtomicLong> entry : opcodes.entrySet())
+            counts.put(entry.getKey(), entry.getValue().get());
+        return counts;
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public void clear() {
+        devices.clear();
+        opcodes.clear();
+    }
+
+    private static int opcode(@Nullable final byte[] value) {
+        if (value == null || value.length < 2)
+            return NO_OPCODE;
+        return (value[0] & 0xFF) << 8 | (value[1] & 0xFF);
+    }
+}
@@ -0,0 +1,37 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import no.nordicsemi.android.blinky.profile.callback.BlinkyResponseCallback;
+
+/**
+ * Encodes the frames sent to a lock model and decodes its notifications.
+ * <p>
+ * All lock models follow the same sequence: the lock asks for a connection, the app replies
+ * with the connect frame and the lock confirms the handshake. Then the unlock frame may be
+ * sent and the lock replies with the result. Only the frames differ.
+ */
+public interface LockCodec {
+
+    /**
+     * Returns the frame sent when the lock asks for a connection.
+     */
+    @NonNull
+    byte[] connectFrame();
+
+    /**
+     * Returns the unlock frame.
+     */
+    @NonNull
+    byte[] unlockFrame();
+
+    /**
+     * Calls the callback method matching the notification.
+     *
+     * @param value    the notification value.
+     * @param callback the callback.
+     * @return True if the notification was valid, false otherwise.
+     */
+    boolean dispatch(@Nullable byte[] value, @NonNull BlinkyResponseCallback callback);
+}
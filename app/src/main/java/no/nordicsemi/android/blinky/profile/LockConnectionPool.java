@@ -0,0 +1,448 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a pool of connections, one for each lock, and connects to multiple locks at the
+ * same time.
+ * <p>
+ * The Android Bluetooth stack serializes connection attempts, so only a limited number of
+ * connection attempts may be in progress at a time. Handshakes and unlocks do not count
+ * towards the limit. Other devices wait in a FIFO queue, so each of them gets its turn in
+ * order, and a device which is retried after a failed attempt is put at the end of the queue.
+ * Timeouts, backoff and the retry budget are taken from the {@link RetryPolicy}.
+ * <p>
+ * Connections are made using {@link LockOperations}. Use
+ * {@link BlinkyLockOperations#factory(android.content.Context)} to keep a
+ * {@link BlinkyManager} for each lock, or {@link TransportLockOperations} to run the pool
+ * against simulated locks. A lost link is noticed when the next unlock fails, and the
+ * device may then be connected again using {@link #connect(String)}.
+ * <p>
+ * This class is thread safe. Listeners are called on the thread that completed the
+ * operation, or on the scheduler thread.
+ */
+public class LockConnectionPool {
+    public enum Status {
+        QUEUED,
+        CONNECTING,
+        HANDSHAKING,
+        READY,
+        UNLOCKING,
+        UNLOCKED,
+        FAILED,
+        DISCONNECTED
+    }
+
+    public interface Listener {
+        /**
+         * Called when the status of a device has changed.
+         */
+        void onStatusChanged(@NonNull String address, @NonNull Status status);
+    }
+
+    private final LockOperations.Factory factory;
+    private final int maxInFlight;
+    private final RetryPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    /** Entries with a connection attempt in progress. */
+    private final Set<Entry> inFlight = new HashSet<>();
+    private long firstConnectTime = -1;
+    private int unlocks;
+    private boolean closed;
+
+    private final class Entry {
+        private final String address;
+        /** The operations, released when the status is FAILED or DISCONNECTED. */
+        private LockOperations ops;
+        private Status status;
+        /** Incremented on each attempt, so that callbacks of an old attempt are ignored. */
+        private int attempt;
+        private int retries;
+
+        private Entry(@NonNull final String address) {
+            this.address = address;
+            this.ops = factory.create(address);
+        }
+
+        private boolean isReleased() {
+            return status == Status.FAILED || status == Status.DISCONNECTED;
+        }
+    }
+
+    /**
+     * Creates the pool.
+     *
+     * @param factory     the factory of lock operations.
+     * @param maxInFlight maximum number of connection attempts in progress at the same time.
+     * @param policy      the retry and timeout policy.
+     * @param scheduler   the executor used for timeouts and backoff.
+     */
+    public LockConnectionPool(@NonNull final LockOperations.Factory factory,
+                              final int maxInFlight,
+                              @NonNull final RetryPolicy policy,
+                              @NonNull final ScheduledExecutorService scheduler) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        this.factory = factory;
+        this.maxInFlight = maxInFlight;
+        this.policy = policy;
+        this.scheduler = scheduler;
+    }
+
+    public void addListener(@NonNull final Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(@NonNull final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the status of each device in the pool, keyed by the device address,
+     * in the order the devices were added.
+     */
+    @NonNull
+    public synchronized Map<String, Status> getStatuses() {
+        final Map<String, Status> statuses = new LinkedHashMap<>();
+        for (final Entry entry : entries.values())
+            statuses.put(entry.address, entry.status);
+        return Collections.unmodifiableMap(statuses);
+    }
+
+    /**
+     * Returns the status of the given device, or null, if the device is not in the pool.
+     */
+    @Nullable
+    public synchronized Status getStatus(@NonNull final String address) {
+        final Entry entry = entries.get(address);
+        return entry != null ? entry.status : null;
+    }
+
+    /**
+     * Returns the number of connection attempts in progress.
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Adds the device to the connection queue. If the device is already connected, connecting
+     * or queued this method does nothing.
+     *
+     * @param address the address of the lock to connect to.
+     * @throws IllegalStateException if the pool has been closed.
+     */
+    public void connect(@NonNull final String address) {
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("Pool closed");
+            Entry entry = entries.get(address);
+            if (entry == null) {
+                entry = new Entry(address);
+                entries.put(address, entry);
+            } else if (entry.status != Status.FAILED && entry.status != Status.DISCONNECTED) {
+                return;
+            } else {
+                // Released operations may not be reused.
+                entry.ops = factory.create(address);
+            }
+            if (firstConnectTime < 0)
+                firstConnectTime = System.nanoTime();
+            entry.retries = 0;
+            entry.status = Status.QUEUED;
+            queue.add(entry);
+        }
+        notifyStatus(address, Status.QUEUED);
+        schedule();
+    }
+
+    /**
+     * Sends the unlock command to the given device, if it has completed the handshake.
+     *
+     * @param address the device address.
+     * @return True if the command was sent, false if the device is not ready.
+     */
+    public boolean unlock(@NonNull final String address) {
+        final Entry entry;
+        final LockOperations ops;
+        final int attempt;
+        synchronized (this) {
+            entry = entries.get(address);
+            if (entry == null || entry.status != Status.READY && entry.status != Status.UNLOCKED)
+                return false;
+            entry.status = Status.UNLOCKING;
+            ops = entry.ops;
+            attempt = entry.attempt;
+        }
+        notifyStatus(address, Status.UNLOCKING);
+        ops.unlock(new StageCallback(policy.getUnlockTimeout()) {
+            @Override
+            void onCompleted() {
+                synchronized (LockConnectionPool.this) {
+                    if (!isCurrent(entry, attempt))
+                        return;
+                    unlocks++;
+                    entry.status = Status.UNLOCKED;
+                }
+                notifyStatus(address, Status.UNLOCKED);
+            }
+
+            @Override
+            void onFailed(final int reason) {
+                // The connection is released, so the device needs to be connected again
+                // before the next unlock.
+                setStatus(entry, attempt, reason == LockOperations.REASON_UNLOCK_REJECTED ?
+                        Status.FAILED : Status.DISCONNECTED);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Removes the device from the pool and disconnects it.
+     *
+     * @param address the device address.
+     */
+    public void remove(@NonNull final String address) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.remove(address);
+            if (entry == null)
+                return;
+            queue.remove(entry);
+            inFlight.remove(entry);
+            entry.attempt++;
+        }
+        if (!entry.isReleased())
+            entry.ops.release();
+        schedule();
+    }
+
+    /**
+     * Disconnects all devices and clears the pool. The pool may not be used afterwards.
+     */
+    public void close() {
+        final List<Entry> closedEntries;
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            inFlight.clear();
+            closedEntries = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        for (final Entry entry : closedEntries)
+            if (!entry.isReleased())
+                entry.ops.release();
+    }
+
+    /**
+     * Returns the number of successful unlocks per minute since the first device was added
+     * to the pool.
+     */
+    public synchronized float getUnlocksPerMinute() {
+        if (firstConnectTime < 0)
+            return 0;
+        final long elapsed = (System.nanoTime() - firstConnectTime) / 1000000;
+        return elapsed > 0 ? unlocks * 60000f / elapsed : 0;
+    }
+
+    /**
+     * Returns the number of successful unlocks.
+     */
+    public synchronized int getUnlockCount() {
+        return unlocks;
+    }
+
+    private void schedule() {
+        while (true) {
+            final Entry entry;
+            final int attempt;
+            synchronized (this) {
+                if (closed || inFlight.size() >= maxInFlight || queue.isEmpty())
+                    return;
+                entry = queue.poll();
+                inFlight.add(entry);
+                attempt = ++entry.attempt;
+                entry.status = Status.CONNECTING;
+            }
+            notifyStatus(entry.address, Status.CONNECTING);
+            connect(entry, attempt);
+        }
+    }
+
+    private void connect(@NonNull final Entry entry, final int attempt) {
+        final LockOperations ops;
+        synchronized (this) {
+            if (!isCurrent(entry, attempt))
+                return;
+            ops = entry.ops;
+        }
+        ops.connect(new StageCallback(policy.getConnectTimeout()) {
+            @Override
+            void onCompleted() {
+                synchronized (LockConnectionPool.this) {
+                    if (!isCurrent(entry, attempt))
+                        return;
+                    inFlight.remove(entry);
+                    entry.status = Status.HANDSHAKING;
+                }
+                policy.onAttempt(entry.address, true);
+                notifyStatus(entry.address, Status.HANDSHAKING);
+                schedule();
+                handshake(entry, attempt, ops);
+            }
+
+            @Override
+            void onFailed(final int reason) {
+                final boolean retry;
+                synchronized (LockConnectionPool.this) {
+                    if (!isCurrent(entry, attempt))
+                        return;
+                    inFlight.remove(entry);
+                    retry = reason != LockOperations.REASON_CANCELLED
+                            && entry.retries < policy.getRetryBudget(entry.address);
+                    if (retry) {
+                        entry.retries++;
+                        entry.status = Status.QUEUED;
+                        entry.ops = factory.create(entry.address);
+                    } else {
+                        entry.status = Status.FAILED;
+                    }
+                }
+                policy.onAttempt(entry.address, false);
+                // A timed out attempt may still be in progress. Released operations are done,
+                // so the next attempt uses new ones, created above.
+                ops.release();
+                if (retry) {
+                    policy.onRetry(entry.address);
+                    notifyStatus(entry.address, Status.QUEUED);
+                    scheduler.schedule(() -> requeue(entry, attempt),
+                            policy.getBackoff(entry.retries), TimeUnit.MILLISECONDS);
+                } else {
+                    notifyStatus(entry.address, Status.FAILED);
+                }
+                schedule();
+            }
+        });
+    }
+
+    private void handshake(@NonNull final Entry entry, final int attempt,
+                           @NonNull final LockOperations ops) {
+        ops.awaitHandshake(new StageCallback(policy.getHandshakeTimeout()) {
+            @Override
+            void onCompleted() {
+                synchronized (LockConnectionPool.this) {
+                    if (!isCurrent(entry, attempt))
+                        return;
+                    entry.status = Status.READY;
+                }
+                notifyStatus(entry.address, Status.READY);
+            }
+
+            @Override
+            void onFailed(final int reason) {
+                setStatus(entry, attempt, Status.DISCONNECTED);
+            }
+        });
+    }
+
+    /**
+     * Puts the entry at the end of the queue after the backoff.
+     */
+    private void requeue(@NonNull final Entry entry, final int attempt) {
+        synchronized (this) {
+            if (!isCurrent(entry, attempt))
+                return;
+            queue.add(entry);
+        }
+        schedule();
+    }
+
+    /**
+     * Sets the status of a device which is no longer connected and releases its connection.
+     */
+    private void setStatus(@NonNull final Entry entry, final int attempt,
+                           @NonNull final Status status) {
+        final LockOperations ops;
+        synchronized (this) {
+            if (!isCurrent(entry, attempt))
+                return;
+            entry.status = status;
+            ops = entry.ops;
+        }
+        ops.release();
+        notifyStatus(entry.address, status);
+    }
+
+    /**
+     * Returns whether the entry is still in the pool and the attempt is the latest one.
+     */
+    private boolean isCurrent(@NonNull final Entry entry, final int attempt) {
+        return !closed && entries.get(entry.address) == entry && entry.attempt == attempt;
+    }
+
+    private void notifyStatus(@NonNull final String address, @NonNull final Status status) {
+        for (final Listener listener : listeners)
+            listener.onStatusChanged(address, status);
+    }
+
+    /**
+     * A callback that completes only once, either by the operation or by the timeout.
+     */
+    private abstract class StageCallback implements LockOperations.Callback {
+        @Nullable
+        private final ScheduledFuture<?> timeout;
+        private boolean completed;
+
+        private StageCallback(final long timeoutMillis) {
+            this.timeout = timeoutMillis > 0 ?
+                    scheduler.schedule(() -> onFailure(LockOperations.REASON_TIMEOUT),
+                            timeoutMillis, TimeUnit.MILLISECONDS) : null;
+        }
+
+        abstract void onCompleted();
+
+        abstract void onFailed(int reason);
+
+        private boolean complete() {
+            synchronized (this) {
+                if (completed)
+                    return false;
+                completed = true;
+            }
+            if (timeout != null)
+                timeout.cancel(false);
+            return true;
+        }
+
+        @Override
+        public void onSuccess() {
+            if (complete())
+                onCompleted();
+        }
+
+        @Override
+        public void onFailure(final int reason) {
+            if (complete())
+                onFailed(reason);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package no.nordicsemi.android.blinky.profile;
+
+/**
+ * The failure of an asynchronous operation of {@link BlinkyManager}.
+ */
+public class LockException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int reason;
+
+    public LockException(final String message, final int reason) {
+        super(message + " (" + reason + ")");
+        this.reason = reason;
+    }
+
+    /**
+     * Returns one of the {@link LockOperations} REASON_* constants, or the connection status
+     * reported by the BLE library.
+     */
+    public int getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,240 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of an asynchronous lock operation, which may be composed with other operations.
+ * <p>
+ * This is a minimal subset of {@code CompletableFuture}, which requires API 24.
+ * Listeners added without an executor are called on the thread that completed the future,
+ * or immediately, if it has already been completed.
+ */
+public final class LockFuture<T> implements Future<T> {
+
+    public interface Listener<T> {
+        /**
+         * Called when the future has been completed.
+         *
+         * @param result the result, or null if failed.
+         * @param error  the failure, or null if succeeded.
+         */
+        void onComplete(@Nullable T result, @Nullable Throwable error);
+    }
+
+    public interface Continuation<T, U> {
+        /**
+         * Starts the next operation using the result of the previous one.
+         */
+        @NonNull
+        LockFuture<U> then(@NonNull T result) throws Exception;
+    }
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private List<Runnable> listeners = new ArrayList<>(2);
+    private boolean done;
+    @Nullable
+    private T result;
+    @Nullable
+    private Throwable error;
+
+    /**
+     * Returns a future which has already succeeded.
+     */
+    @NonNull
+    public static <T> LockFuture<T> completed(@Nullable final T result) {
+        final LockFuture<T> future = new LockFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Returns a future which has already failed.
+     */
+    @NonNull
+    public static <T> LockFuture<T> failed(@NonNull final Throwable error) {
+        final LockFuture<T> future = new LockFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Returns a future which succeeds with the results of all given futures, in the same order,
+     * or fails with the first failure.
+     */
+    @NonNull
+    public static <T> LockFuture<List<T>> allOf(@NonNull final List<LockFuture<T>> futures) {
+        final LockFuture<List<T>> all = new LockFuture<>();
+        final int count = futures.size();
+        if (count == 0) {
+            all.complete(Collections.emptyList());
+            return all;
+        }
+        final List<T> results = new ArrayList<>(Collections.nCopies(count, (T) null));
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            futures.get(i).addListener((result, error) -> {
+                if (error != null) {
+                    all.completeExceptionally(error);
+                    return;
+                }
+                synchronized (results) {
+                    results.set(index, result);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    synchronized (results) {
+                        all.complete(results);
+                    }
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Completes the future with the given result.
+     *
+     * @return True if the future was completed by this call.
+     */
+    public boolean complete(@Nullable final T result) {
+        return finish(result, null);
+    }
+
+    /**
+     * Completes the future with the given failure.
+     *
+     * @return True if the future was completed by this call.
+     */
+    public boolean completeExceptionally(@NonNull final Throwable error) {
+        return finish(null, error);
+    }
+
+    /**
+     * Adds a listener called on the thread completing the future.
+     */
+    @NonNull
+    public LockFuture<T> addListener(@NonNull final Listener<T> listener) {
+        return addListener(DIRECT, listener);
+    }
+
+    /**
+     * Adds a listener called using the given executor.
+     */
+    @NonNull
+    public LockFuture<T> addListener(@NonNull final Executor executor,
+                                     @NonNull final Listener<T> listener) {
+        final Runnable task = () -> executor.execute(() -> listener.onComplete(result, error));
+        synchronized (this) {
+            if (!done) {
+                listeners.add(task);
+                return this;
+            }
+        }
+        task.run();
+        return this;
+    }
+
+    /**
+     * Returns a future of the operation started by the continuation when this future succeeds.
+     * If this future fails, or the continuation throws, the returned future fails.
+     *
+     * @param executor the executor used to call the continuation.
+     */
+    @NonNull
+    public <U> LockFuture<U> thenCompose(@NonNull final Executor executor,
+                                         @NonNull final Continuation<? super T, U> continuation) {
+        final LockFuture<U> next = new LockFuture<>();
+        addListener(executor, (result, error) -> {
+            if (error != null) {
+                next.completeExceptionally(error);
+                return;
+            }
+            try {
+                //noinspection ConstantConditions
+                continuation.then(result).addListener((r, e) -> {
+                    if (e != null)
+                        next.completeExceptionally(e);
+                    else
+                        next.complete(r);
+                });
+            } catch (final Exception e) {
+                next.completeExceptionally(e);
+            }
+        });
+        return next;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        // The operation itself is not cancelled, only its result is discarded.
+        return completeExceptionally(new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return error instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done)
+            wait();
+        return report();
+    }
+
+    @Override
+    public synchronized T get(final long timeout, @NonNull final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+
+    private T report() throws ExecutionException {
+        if (error instanceof CancellationException)
+            throw (CancellationException) error;
+        if (error != null)
+            throw new ExecutionException(error);
+        return result;
+    }
+
+    private boolean finish(@Nullable final T result, @Nullable final Throwable error) {
+        final List<Runnable> pending;
+        synchronized (this) {
+            if (done)
+                return false;
+            done = true;
+            this.result = result;
+            this.error = error;
+            pending = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (final Runnable listener : pending)
+            listener.run();
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Asynchronous operations on a single lock, independent of the Android BLE API.
+ * <p>
+ * The real implementation is {@link BlinkyLockOperations}, but orchestration code, like
+ * {@link BatchUnlock}, may be run against any implementation, e.g. a fake peripheral.
+ * Each callback must be called exactly once, on any thread.
+ */
+public interface LockOperations {
+    /** The operation was cancelled using {@link #release()}. */
+    int REASON_CANCELLED = -1;
+    /** The link was lost before the operation completed. */
+    int REASON_SESSION_LOST = -2;
+    /** The lock replied with A700. */
+    int REASON_UNLOCK_REJECTED = -3;
+    /** The operation did not complete in time. */
+    int REASON_TIMEOUT = -4;
+
+    interface Callback {
+        void onSuccess();
+
+        /**
+         * @param reason one of the REASON_* constants, or a GATT status code.
+         */
+        void onFailure(int reason);
+    }
+
+    interface Factory {
+        @NonNull
+        LockOperations create(@NonNull String address);
+    }
+
+    /**
+     * Connects to the lock and initializes it.
+     */
+    void connect(@NonNull Callback callback);
+
+    /**
+     * Waits until the FCCF/A902FCCF/A90D handshake has completed. Completes immediately if it
+     * has completed already on the current connection.
+     */
+    void awaitHandshake(@NonNull Callback callback);
+
+    /**
+     * Sends the unlock frame and waits for A70D (success) or A700 (failure).
+     */
+    void unlock(@NonNull Callback callback);
+
+    /**
+     * Cancels pending operations and releases the connection. Released operations may not be
+     * used again; a new connection attempt requires new operations from the {@link Factory}.
+     */
+    void release();
+}
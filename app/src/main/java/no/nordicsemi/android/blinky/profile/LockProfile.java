@@ -0,0 +1,78 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+import java.util.UUID;
+
+/**
+ * A lock model: the UUIDs of its service and characteristics, and its protocol codec.
+ *
+ * @see LockProfileRegistry
+ */
+public final class LockProfile {
+    /**
+     * The YX lock with the FFB0 service. Frames are written to FFB1 and notifications are
+     * received on FFB2.
+     */
+    public static final LockProfile YX = new LockProfile("YX",
+            UUID.fromString("0000FFB0-0000-1000-8000-00805F9B34FB"),
+            UUID.fromString("0000FFB1-0000-1000-8000-00805F9B34FB"),
+            UUID.fromString("0000FFB2-0000-1000-8000-00805F9B34FB"),
+            LockProtocol.CODEC);
+
+    private final String name;
+    private final UUID serviceUuid;
+    private final UUID writeUuid;
+    private final UUID notifyUuid;
+    private final LockCodec codec;
+
+    /**
+     * Creates a lock profile.
+     *
+     * @param name        the name of the model, used in logs.
+     * @param serviceUuid the UUID of the lock service.
+     * @param writeUuid   the UUID of the characteristic frames are written to.
+     * @param notifyUuid  the UUID of the characteristic notifying responses.
+     * @param codec       the protocol codec.
+     */
+    public LockProfile(@NonNull final String name, @NonNull final UUID serviceUuid,
+                       @NonNull final UUID writeUuid, @NonNull final UUID notifyUuid,
+                       @NonNull final LockCodec codec) {
+        this.name = name;
+        this.serviceUuid = serviceUuid;
+        this.writeUuid = writeUuid;
+        this.notifyUuid = notifyUuid;
+        this.codec = codec;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    @NonNull
+    public UUID getServiceUuid() {
+        return serviceUuid;
+    }
+
+    @NonNull
+    public UUID getWriteUuid() {
+        return writeUuid;
+    }
+
+    @NonNull
+    public UUID getNotifyUuid() {
+        return notifyUuid;
+    }
+
+    @NonNull
+    public LockCodec getCodec() {
+        return codec;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return name + " (" + serviceUuid + ")";
+    }
+}
@@ -0,0 +1,49 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The lock models supported by the app, by the UUID of their service.
+ * <p>
+ * When services of a device have been discovered, each service UUID is looked up in a hash
+ * map, so choosing the profile does not depend on the number of registered models.
+ * The {@link LockProfile#YX} profile is registered by default.
+ */
+public final class LockProfileRegistry {
+    private static final LockProfileRegistry INSTANCE = new LockProfileRegistry();
+
+    private final Map<UUID, LockProfile> profiles = new ConcurrentHashMap<>();
+
+    private LockProfileRegistry() {
+        register(LockProfile.YX);
+    }
+
+    @NonNull
+    public static LockProfileRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the profile. A profile with the same service UUID is replaced.
+     */
+    public void register(@NonNull final LockProfile profile) {
+        profiles.put(profile.getServiceUuid(), profile);
+    }
+
+    public void unregister(@NonNull final LockProfile profile) {
+        profiles.remove(profile.getServiceUuid(), profile);
+    }
+
+    /**
+     * Returns the profile with the given service UUID, or null.
+     */
+    @Nullable
+    public LockProfile get(@NonNull final UUID serviceUuid) {
+        return profiles.get(serviceUuid);
+    }
+}
@@ -0,0 +1,131 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import no.nordicsemi.android.blinky.profile.callback.BlinkyResponseCallback;
+
+/**
+ * The lock protocol over the FFB0 service.
+ * <p>
+ * After notifications on FFB2 are enabled, the lock sends FCCF. The app replies with A902FCCF
+ * on FFB1 and the lock confirms with A90D. From then on, the app may send the unlock frame
+ * A707..., to which the lock replies with A70D (unlocked) or A700 (failed).
+ * <p>
+ * This class does not depend on Android API.
+ */
+public final class LockProtocol {
+    public static final int OPCODE_PREPARE_FOR_CONNECT = 0xFCCF;
+    public static final int OPCODE_LONG_CONNECT_SUCCESS = 0xA90D;
+    public static final int OPCODE_UNLOCKED_SUCCESS = 0xA70D;
+    public static final int OPCODE_UNLOCKED_FAIL = 0xA700;
+
+    private static final byte[] CONNECT_FRAME = { (byte) 0xA9, 0x02, (byte) 0xFC, (byte) 0xCF };
+    private static final byte[] UNLOCK_FRAME = {
+            (byte) 0xA7, 0x07, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x03
+    };
+
+    /**
+     * The codec of this protocol, used by {@link LockProfile#YX}.
+     */
+    public static final LockCodec CODEC = new LockCodec() {
+        @NonNull
+        @Override
+        public byte[] connectFrame() {
+            return LockProtocol.connectFrame();
+        }
+
+        @NonNull
+        @Override
+        public byte[] unlockFrame() {
+            return LockProtocol.unlockFrame();
+        }
+
+        @Override
+        public boolean dispatch(@Nullable final byte[] value,
+                                @NonNull final BlinkyResponseCallback callback) {
+            return LockProtocol.dispatch(value, callback);
+        }
+    };
+
+    private LockProtocol() {
+        // Utility class.
+    }
+
+    /**
+     * Returns the frame sent in reply to FCCF.
+     */
+    @NonNull
+    public static byte[] connectFrame() {
+        return CONNECT_FRAME.clone();
+    }
+
+    /**
+     * Returns the unlock frame.
+     */
+    @NonNull
+    public static byte[] unlockFrame() {
+        return UNLOCK_FRAME.clone();
+    }
+
+    public static boolean isConnectFrame(@Nullable final byte[] value) {
+        return equals(value, CONNECT_FRAME);
+    }
+
+    public static boolean isUnlockFrame(@Nullable final byte[] value) {
+        return equals(value, UNLOCK_FRAME);
+    }
+
+    /**
+     * Returns the 2-byte opcode of a notification, or -1 if the value is not 2 bytes long.
+     */
+    public static int opcode(@Nullable final byte[] value) {
+        if (value == null || value.length != 2)
+            return -1;
+        return (value[0] & 0xFF) << 8 | (value[1] & 0xFF);
+    }
+
+    /**
+     * Returns the notification value for the given opcode.
+     */
+    @NonNull
+    public static byte[] notification(final int opcode) {
+        return new byte[] { (byte) (opcode >> 8), (byte) opcode };
+    }
+
+    /**
+     * Calls the callback method matching the notification.
+     *
+     * @param value    the notification value.
+     * @param callback the callback.
+     * @return True if the notification was valid, false otherwise.
+     */
+    public static boolean dispatch(@Nullable final byte[] value,
+                                   @NonNull final BlinkyResponseCallback callback) {
+        switch (opcode(value)) {
+            case OPCODE_PREPARE_FOR_CONNECT:
+                callback.writeCharacteristicForConnect();
+                return true;
+            case OPCODE_LONG_CONNECT_SUCCESS:
+                callback.onLongConnectSuccess();
+                return true;
+            case OPCODE_UNLOCKED_SUCCESS:
+                callback.onUnlockedResult(true);
+                return true;
+            case OPCODE_UNLOCKED_FAIL:
+                callback.onUnlockedResult(false);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean equals(@Nullable final byte[] value, @NonNull final byte[] frame) {
+        if (value == null || value.length != frame.length)
+            return false;
+        for (int i = 0; i < frame.length; i++)
+            if (value[i] != frame[i])
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The result of an asynchronous operation of {@link BlinkyManager}.
+ */
+public final class LockResult {
+    public enum Operation {
+        CONNECT, HANDSHAKE, UNLOCK
+    }
+
+    private final Operation operation;
+    private final boolean success;
+    private final long time;
+    private final long timeSinceConnect;
+
+    /* package */ LockResult(@NonNull final Operation operation, final boolean success,
+                             final long time, final long timeSinceConnect) {
+        this.operation = operation;
+        this.success = success;
+        this.time = time;
+        this.timeSinceConnect = timeSinceConnect;
+    }
+
+    @NonNull
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns whether the operation has succeeded. Only an unlock may complete without success,
+     * when the lock replied with A700 or did not reply in time.
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the duration of the operation, in ms.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the time from the connection request until the operation was completed, in ms,
+     * or -1 if unknown.
+     */
+    public long getTimeSinceConnect() {
+        return timeSinceConnect;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return operation + (success ? " done" : " failed") + " in " + time + " ms, "
+                + timeSinceConnect + " ms since connect";
+    }
+}
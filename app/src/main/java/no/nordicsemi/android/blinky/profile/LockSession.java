@@ -0,0 +1,397 @@
+package no.nordicsemi.android.blinky.profile;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import no.nordicsemi.android.blinky.profile.callback.BlinkyResponseCallback;
+import no.nordicsemi.android.blinky.utils.FlightRecorder;
+
+/**
+ * The lock protocol logic of a single connection: the session state machine, the
+ * FCCF/A902FCCF/A90D handshake, the unlock command with its timeout, the fast reconnect
+ * decision and the time-to-unlock measurements.
+ * <p>
+ * The session is driven by the owner of the link, which reports connection events and
+ * notifications, and sends the frames given to the {@link Link}. {@link BlinkyManager} runs
+ * it over GATT, and {@link TransportLockOperations} over a {@link LockTransport}, so that the
+ * same logic may be run on the JVM against a simulated lock.
+ * <p>
+ * This class does not depend on Android API, other than log priority constants. Listeners
+ * are called on the thread that reported the event, or on the {@link Timer} thread.
+ */
+public class LockSession implements BlinkyResponseCallback {
+
+    /**
+     * Listener of the lock protocol events.
+     */
+    public interface Listener {
+        /**
+         * Called when A90D has been received and the lock is ready to be unlocked.
+         */
+        void onHandshakeCompleted();
+
+        /**
+         * Called when A70D or A700 has been received.
+         *
+         * @param success true if the lock has been unlocked.
+         */
+        void onUnlockResult(boolean success);
+
+        /**
+         * Called when the unlock has failed without a reply from the lock.
+         *
+         * @param reason {@link LockOperations#REASON_TIMEOUT} if the lock did not reply in
+         *               time, or {@link LockOperations#REASON_SESSION_LOST} if the lock was
+         *               not ready to be unlocked.
+         */
+        void onUnlockFailed(int reason);
+
+        /**
+         * Called when the link has been lost. The handshake needs to be repeated after
+         * reconnection.
+         */
+        void onSessionLost();
+    }
+
+    public interface Link {
+        /**
+         * Returns whether the link is connected and frames may be written.
+         */
+        boolean isWritable();
+
+        /**
+         * Writes the frame without response.
+         */
+        void write(@NonNull byte[] frame);
+    }
+
+    public interface Timer {
+        void schedule(@NonNull Runnable task, long delayMillis);
+
+        void cancel(@NonNull Runnable task);
+    }
+
+    public interface Logger {
+        Logger NONE = new Logger() {
+            @Override
+            public boolean isLoggable(final int priority) {
+                return false;
+            }
+
+            @Override
+            public void log(final int priority, @NonNull final String message) {
+                // Ignore
+            }
+        };
+
+        boolean isLoggable(int priority);
+
+        void log(int priority, @NonNull String message);
+    }
+
+    /**
+     * The unlock command. Unlock requests made while one is pending or in flight are served
+     * by the same frame.
+     */
+    public final static CommandScheduler.Command COMMAND_UNLOCK =
+            new CommandScheduler.Command("Unlock", CommandScheduler.PRIORITY_HIGH);
+
+    /**
+     * Addresses of devices that have passed service validation in this process. Such
+     * devices may be initialized using the fast path.
+     */
+    private final static Set<String> validatedDevices = Collections.synchronizedSet(new HashSet<>());
+
+    private final Link link;
+    private final Timer timer;
+    private final Logger logger;
+    private final UnlockTimings timings = new UnlockTimings();
+    private final SessionStateMachine session = new SessionStateMachine();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final FlightRecorder recorder = FlightRecorder.getInstance();
+    private final CommandScheduler commands;
+    private final Runnable unlockTimeout = () -> {
+        recordEvent(FlightRecorder.EVENT_UNLOCK_TIMEOUT, 0);
+        log(Log.WARN, "Unlock timed out");
+        deliverUnlockFailure(LockOperations.REASON_TIMEOUT);
+    };
+
+    /** The codec of the connected lock model. */
+    @NonNull
+    private volatile LockCodec codec = LockProtocol.CODEC;
+    private volatile boolean fastReconnectEnabled = true;
+    private volatile long unlockTimeoutMillis = 3000;
+    /** The key of the device in the {@link FlightRecorder}. */
+    private volatile long deviceKey;
+
+    public LockSession(@NonNull final Link link, @NonNull final Timer timer,
+                       @NonNull final Logger logger) {
+        this.link = link;
+        this.timer = timer;
+        this.logger = logger;
+        this.commands = new CommandScheduler(this::execute,
+                (command, queueTime, onAirTime, callers, success) -> {
+                    if (logger.isLoggable(Log.INFO))
+                        log(Log.INFO, command + (success ? " done" : " failed") + ", queued: "
+                                + queueTime + " ms, on air: " + onAirTime + " ms, callers: " + callers);
+                });
+        session.addObserver((from, to) -> {
+            recordEvent(FlightRecorder.EVENT_SESSION_STATE, to.getState().ordinal());
+            if (logger.isLoggable(Log.DEBUG))
+                log(Log.DEBUG, "Session: " + from.getState() + " -> " + to.getState());
+        });
+    }
+
+    /**
+     * Returns the time-to-unlock measurements of the current connection.
+     */
+    @NonNull
+    public UnlockTimings getTimings() {
+        return timings;
+    }
+
+    @NonNull
+    public SessionStateMachine getStateMachine() {
+        return session;
+    }
+
+    /**
+     * Returns whether A90D has been received on the current connection.
+     */
+    public boolean isHandshakeCompleted() {
+        return session.get().isHandshakeCompleted();
+    }
+
+    /**
+     * Sets the codec of the lock model, chosen when the services have been discovered.
+     */
+    public void setCodec(@NonNull final LockCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the time in which A70D or A700 must be received after the unlock frame has been
+     * sent. If no reply is received in that time, the unlock is reported as failed.
+     *
+     * @param timeout the timeout in milliseconds, 0 to wait forever.
+     */
+    public void setUnlockTimeout(final long timeout) {
+        unlockTimeoutMillis = timeout;
+    }
+
+    /**
+     * Enables or disables the fast reconnect path for devices which have already been
+     * validated in this process.
+     */
+    public void setFastReconnectEnabled(final boolean enabled) {
+        fastReconnectEnabled = enabled;
+    }
+
+    public void addListener(@NonNull final Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(@NonNull final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Called when the connection to the device has been requested.
+     */
+    public void onConnecting(@NonNull final String address) {
+        timings.onConnectStarted();
+        deviceKey = FlightRecorder.key(address);
+        recordEvent(FlightRecorder.EVENT_CONNECT_REQUESTED, 0);
+        session.moveTo(SessionStateMachine.State.CONNECTING);
+    }
+
+    /**
+     * Called when the connection request has failed.
+     */
+    public void onConnectFailed() {
+        session.compareAndSet(SessionStateMachine.State.CONNECTING,
+                SessionStateMachine.State.DISCONNECTED);
+    }
+
+    /**
+     * Called when the services have been discovered and validated.
+     *
+     * @param address   the device address.
+     * @param supported whether the device has the required services.
+     * @return Whether the device may be initialized using the fast path.
+     */
+    public boolean onServicesValidated(@NonNull final String address, final boolean supported) {
+        deviceKey = FlightRecorder.key(address);
+        final boolean fastPath;
+        if (supported) {
+            // Set.add returns false if the device was already validated before.
+            fastPath = !validatedDevices.add(address) && fastReconnectEnabled;
+        } else {
+            // Fall back to the full path next time.
+            validatedDevices.remove(address);
+            fastPath = false;
+        }
+        recordEvent(FlightRecorder.EVENT_SERVICES_VALIDATED, supported ? 1 : 0);
+        return fastPath;
+    }
+
+    /**
+     * Called when the device is being initialized. FCCF is expected next.
+     *
+     * @param fastPath whether the fast path is used.
+     */
+    public void onServicesReady(final boolean fastPath) {
+        recordEvent(FlightRecorder.EVENT_INITIALIZED, fastPath ? 1 : 0);
+        timings.onServicesReady(fastPath);
+        session.moveTo(SessionStateMachine.State.HANDSHAKING);
+        if (fastPath)
+            log(Log.INFO, "Using fast reconnect path");
+    }
+
+    /**
+     * Called when a notification has been received, or the value has been read.
+     *
+     * @param value the value.
+     * @return True if the value was valid, false otherwise.
+     */
+    public boolean onNotification(@Nullable final byte[] value) {
+        if (codec.dispatch(value, this))
+            return true;
+        recordEvent(FlightRecorder.EVENT_NOTIFICATION, value != null ? FlightRecorder.payload(value) : 0);
+        return false;
+    }
+
+    /**
+     * Called when the link has been lost, or the services were invalidated.
+     */
+    public void onLinkLost() {
+        recordEvent(FlightRecorder.EVENT_SERVICES_INVALIDATED, 0);
+        session.moveTo(SessionStateMachine.State.DISCONNECTED);
+        timer.cancel(unlockTimeout);
+        commands.cancelAll();
+        for (final Listener listener : listeners)
+            listener.onSessionLost();
+    }
+
+    /**
+     * Sends a request to the device to unlock. If an unlock is already pending or in flight,
+     * no new frame is sent and the callback is notified with its result.
+     *
+     * @param callback an optional callback.
+     */
+    public void tryUnlock(@Nullable final CommandScheduler.Callback callback) {
+        commands.submit(COMMAND_UNLOCK, callback);
+    }
+
+    // BlinkyResponseCallback
+
+    @Override
+    public void writeCharacteristicForConnect() {
+        recordEvent(FlightRecorder.EVENT_NOTIFICATION, 0xFCCF);
+        // Are we connected?
+        if (!link.isWritable())
+            return;
+        final byte[] frame = codec.connectFrame();
+        recordEvent(FlightRecorder.EVENT_WRITE, FlightRecorder.payload(frame));
+        link.write(frame);
+    }
+
+    @Override
+    public void onLongConnectSuccess() {
+        recordEvent(FlightRecorder.EVENT_NOTIFICATION, 0xA90D);
+        if (!session.moveTo(SessionStateMachine.State.READY)) {
+            log(Log.WARN, "Unexpected A90D in state " + session.get().getState());
+            return;
+        }
+        timings.onHandshakeDone();
+        log(Log.WARN, "Long Connect Success!");
+        for (final Listener listener : listeners)
+            listener.onHandshakeCompleted();
+    }
+
+    @Override
+    public void onUnlockedResult(final boolean isSuccess) {
+        recordEvent(FlightRecorder.EVENT_NOTIFICATION, isSuccess ? 0xA70D : 0xA700);
+        log(Log.WARN, isSuccess ? "Unlocked Success" : "Unlocked Fail");
+        deliverUnlockResult(isSuccess);
+    }
+
+    private void execute(@NonNull final CommandScheduler.Command command) {
+        if (command == COMMAND_UNLOCK)
+            sendUnlock();
+    }
+
+    private void sendUnlock() {
+        // Are we connected and is the handshake completed?
+        if (!link.isWritable() || !session.moveTo(SessionStateMachine.State.UNLOCKING)) {
+            log(Log.WARN, "Not ready to unlock");
+            // Listeners waiting for the result would otherwise learn about it only when
+            // their own timeout fires.
+            for (final Listener listener : listeners)
+                listener.onUnlockFailed(LockOperations.REASON_SESSION_LOST);
+            commands.complete(COMMAND_UNLOCK, false);
+            return;
+        }
+
+        log(Log.VERBOSE, "Unlocking ...");
+        timings.onUnlockRequested();
+        // The frame is sent without response, so if it gets lost the only sign is
+        // the missing reply.
+        timer.cancel(unlockTimeout);
+        if (unlockTimeoutMillis > 0)
+            timer.schedule(unlockTimeout, unlockTimeoutMillis);
+        final byte[] frame = codec.unlockFrame();
+        recordEvent(FlightRecorder.EVENT_WRITE, FlightRecorder.payload(frame));
+        link.write(frame);
+    }
+
+    private void deliverUnlockResult(final boolean success) {
+        if (!finishUnlock(success))
+            return;
+        for (final Listener listener : listeners)
+            listener.onUnlockResult(success);
+        commands.complete(COMMAND_UNLOCK, success);
+    }
+
+    private void deliverUnlockFailure(final int reason) {
+        if (!finishUnlock(false))
+            return;
+        for (final Listener listener : listeners)
+            listener.onUnlockFailed(reason);
+        commands.complete(COMMAND_UNLOCK, false);
+    }
+
+    /**
+     * Ends the pending unlock.
+     *
+     * @return False if no unlock was pending.
+     */
+    private boolean finishUnlock(final boolean success) {
+        // A reply after the timeout, or without a request, is ignored.
+        final SessionStateMachine.State state = success ?
+                SessionStateMachine.State.UNLOCKED : SessionStateMachine.State.FAILED;
+        if (!session.moveTo(state))
+            return false;
+        timer.cancel(unlockTimeout);
+        timings.onUnlockDone();
+        recordEvent(FlightRecorder.EVENT_UNLOCK_RESULT, success ? 1 : 0);
+        if (logger.isLoggable(Log.INFO))
+            log(Log.INFO, "Time to unlock: " + timings);
+        return true;
+    }
+
+    private void recordEvent(final byte type, final int payload) {
+        recorder.record(type, deviceKey, payload);
+    }
+
+    private void log(final int priority, @NonNull final String message) {
+        logger.log(priority, message);
+    }
+}
@@ -0,0 +1,44 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A minimal GATT abstraction of the FFB0 lock service: a connection, writes to FFB1 and
+ * notifications from FFB2.
+ * <p>
+ * It allows running the lock protocol, see {@link TransportLockOperations}, against
+ * a simulated peripheral on the JVM.
+ */
+public interface LockTransport {
+    interface Listener {
+        /**
+         * Called when the connection has been established and notifications are enabled.
+         */
+        void onConnected();
+
+        /**
+         * Called when the connection attempt has failed, or the link has been lost.
+         */
+        void onDisconnected();
+
+        /**
+         * Called when a notification has been received on FFB2.
+         */
+        void onNotification(@NonNull byte[] value);
+    }
+
+    /**
+     * Connects to the lock and enables notifications.
+     */
+    void connect(@NonNull Listener listener);
+
+    /**
+     * Writes the value to FFB1 without response.
+     */
+    void write(@NonNull byte[] value);
+
+    /**
+     * Disconnects. No more listener calls are made.
+     */
+    void disconnect();
+}
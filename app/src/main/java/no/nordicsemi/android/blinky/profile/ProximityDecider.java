@@ -0,0 +1,225 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides when to unlock a lock automatically, based on its RSSI.
+ * <p>
+ * RSSI samples are smoothed with an exponential moving average. A lock triggers when the
+ * smoothed RSSI has stayed at or above the approach threshold for the dwell time. The dwell
+ * timer is reset only when the RSSI drops below the lower leave threshold, so short dips
+ * do not restart it. After a trigger, the lock must be left, i.e. drop below the leave
+ * threshold, and the cool down must pass before it can trigger again. A lock which has not
+ * been heard for the lost timeout is considered left, too.
+ * <p>
+ * The decider has no timers and takes the time with each sample, so recorded RSSI traces can
+ * be replayed using {@link #replay(Config, Iterable)}. This class does not depend on
+ * Android API and is not thread safe.
+ */
+public class ProximityDecider {
+
+    public static final class Config {
+        private int approachThreshold = -60;
+        private int leaveThreshold = -70;
+        private long dwellTime = 1500;
+        private long cooldown = 30000;
+        private long lostTimeout = 5000;
+        private float alpha = 0.3f;
+
+        /**
+         * Sets the RSSI above which the lock is considered approached, and the RSSI below
+         * which it is considered left, in dBm.
+         */
+        @NonNull
+        public Config setThresholds(final int approach, final int leave) {
+            if (leave > approach)
+                throw new IllegalArgumentException("Leave threshold above approach threshold");
+            approachThreshold = approach;
+            leaveThreshold = leave;
+            return this;
+        }
+
+        /**
+         * Sets the time for which the lock must stay approached before triggering, in ms.
+         */
+        @NonNull
+        public Config setDwellTime(final long dwellTime) {
+            this.dwellTime = dwellTime;
+            return this;
+        }
+
+        /**
+         * Sets the time after a completed unlock in which the lock may not trigger, in ms.
+         */
+        @NonNull
+        public Config setCooldown(final long cooldown) {
+            this.cooldown = cooldown;
+            return this;
+        }
+
+        /**
+         * Sets the time without samples after which the lock is considered left, in ms.
+         */
+        @NonNull
+        public Config setLostTimeout(final long lostTimeout) {
+            this.lostTimeout = lostTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the weight of a new sample in the moving average, from 0 to 1.
+         */
+        @NonNull
+        public Config setSmoothing(final float alpha) {
+            this.alpha = alpha;
+            return this;
+        }
+    }
+
+    /**
+     * An RSSI sample of a recorded trace.
+     */
+    public static final class Sample {
+        private final String address;
+        private final int rssi;
+        private final long time;
+
+        public Sample(@NonNull final String address, final int rssi, final long time) {
+            this.address = address;
+            this.rssi = rssi;
+            this.time = time;
+        }
+    }
+
+    /**
+     * A trigger found when replaying a trace.
+     */
+    public static final class Trigger {
+        public final String address;
+        public final long time;
+        /** The time the lock was approached, i.e. the start of the dwell time. */
+        public final long approachTime;
+
+        private Trigger(@NonNull final String address, final long time, final long approachTime) {
+            this.address = address;
+            this.time = time;
+            this.approachTime = approachTime;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return address + " at " + time + " ms (approached at " + approachTime + " ms)";
+        }
+    }
+
+    private static final class Track {
+        private float rssi;
+        private long lastTime;
+        private long approachTime = -1;
+        private long cooldownUntil;
+        private boolean triggered;
+    }
+
+    private final Config config;
+    private final Map<String, Track> tracks = new HashMap<>();
+
+    public ProximityDecider(@NonNull final Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Replays the trace and returns the triggers. Each unlock is assumed to complete at the
+     * time of its trigger.
+     */
+    @NonNull
+    public static List<Trigger> replay(@NonNull final Config config,
+                                       @NonNull final Iterable<Sample> trace) {
+        final ProximityDecider decider = new ProximityDecider(config);
+        final List<Trigger> triggers = new ArrayList<>();
+        for (final Sample sample : trace) {
+            if (decider.onSample(sample.address, sample.rssi, sample.time)) {
+                triggers.add(new Trigger(sample.address, sample.time,
+                        decider.getApproachTime(sample.address)));
+                decider.onCompleted(sample.address, sample.time);
+            }
+        }
+        return triggers;
+    }
+
+    /**
+     * Adds an RSSI sample.
+     *
+     * @param address the lock address.
+     * @param rssi    the received RSSI, in dBm.
+     * @param time    the time the sample was received, in ms.
+     * @return True if the lock should be unlocked now.
+     */
+    public boolean onSample(@NonNull final String address, final int rssi, final long time) {
+        Track track = tracks.get(address);
+        if (track == null) {
+            track = new Track();
+            track.rssi = rssi;
+            tracks.put(address, track);
+        } else if (time - track.lastTime > config.lostTimeout) {
+            // The lock has not been heard for a while, so it was left. The cool down is kept.
+            track.rssi = rssi;
+            track.approachTime = -1;
+            track.triggered = false;
+        } else {
+            track.rssi += config.alpha * (rssi - track.rssi);
+        }
+        track.lastTime = time;
+
+        if (track.rssi < config.leaveThreshold) {
+            // The lock was left. It may trigger again when approached after the cool down.
+            track.approachTime = -1;
+            track.triggered = false;
+            return false;
+        }
+        if (track.triggered || time < track.cooldownUntil)
+            return false;
+
+        if (track.rssi >= config.approachThreshold && track.approachTime < 0)
+            track.approachTime = time;
+        // Between the thresholds the dwell timer keeps running.
+        if (track.approachTime >= 0 && time - track.approachTime >= config.dwellTime) {
+            track.triggered = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts the cool down of the lock. Call it when the unlock triggered for the lock has
+     * completed, successfully or not.
+     *
+     * @param address the lock address.
+     * @param time    the current time, in ms.
+     */
+    public void onCompleted(@NonNull final String address, final long time) {
+        final Track track = tracks.get(address);
+        if (track != null)
+            track.cooldownUntil = time + config.cooldown;
+    }
+
+    /**
+     * Returns the time the lock was approached, or -1 if it is not approached.
+     */
+    public long getApproachTime(@NonNull final String address) {
+        final Track track = tracks.get(address);
+        return track != null ? track.approachTime : -1;
+    }
+
+    /**
+     * Forgets all locks.
+     */
+    public void reset() {
+        tracks.clear();
+    }
+}
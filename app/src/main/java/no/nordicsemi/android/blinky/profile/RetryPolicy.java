@@ -0,0 +1,209 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Retry and timeout policy for connecting to and unlocking a lock.
+ * <p>
+ * The policy defines a timeout for each stage, an exponential backoff with jitter between
+ * connection attempts, and a retry budget for each device. The budget depends on the failure
+ * rate observed for the device in the recent attempts: devices which keep failing get fewer
+ * retries, so that the user learns about the problem sooner, while devices which fail only
+ * occasionally get the full budget.
+ * <p>
+ * This class is thread safe and one instance may be shared by all connections.
+ */
+public class RetryPolicy {
+    /** Number of recent attempts used to calculate the failure rate. */
+    private static final int HISTORY_SIZE = 16;
+
+    public static final class Builder {
+        private long connectTimeout = 10000;
+        private long handshakeTimeout = 5000;
+        private long unlockTimeout = 3000;
+        private long initialBackoff = 100;
+        private long maxBackoff = 3000;
+        private int minRetries = 1;
+        private int maxRetries = 3;
+
+        /**
+         * Sets the timeout of a single connection attempt, including service discovery
+         * and initialization, in milliseconds.
+         */
+        @NonNull
+        public Builder setConnectTimeout(final long timeout) {
+            connectTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets the time in milliseconds in which A90D must be received after the device
+         * has been initialized.
+         */
+        @NonNull
+        public Builder setHandshakeTimeout(final long timeout) {
+            handshakeTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets the time in milliseconds in which A70D or A700 must be received after the
+         * unlock frame has been sent. Otherwise the unlock is considered failed.
+         */
+        @NonNull
+        public Builder setUnlockTimeout(final long timeout) {
+            unlockTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets the backoff before the first retry and the upper bound of the backoff,
+         * in milliseconds. The backoff doubles with each retry.
+         */
+        @NonNull
+        public Builder setBackoff(final long initial, final long max) {
+            initialBackoff = initial;
+            maxBackoff = Math.max(initial, max);
+            return this;
+        }
+
+        /**
+         * Sets the range of the retry budget. Devices that keep failing get the minimum,
+         * devices with no recent failures get the maximum.
+         */
+        @NonNull
+        public Builder setRetries(final int min, final int max) {
+            minRetries = Math.max(0, min);
+            maxRetries = Math.max(minRetries, max);
+            return this;
+        }
+
+        @NonNull
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+
+    /**
+     * The outcomes of the recent attempts, as a bit field, where 1 means a failure.
+     */
+    private static final class History {
+        private int failures;
+        private int size;
+        private int retries;
+    }
+
+    private final long connectTimeout;
+    private final long handshakeTimeout;
+    private final long unlockTimeout;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int minRetries;
+    private final int maxRetries;
+    private final Map<String, History> histories = new HashMap<>();
+    private final Random random = new Random();
+    private int totalRetries;
+
+    private RetryPolicy(@NonNull final Builder builder) {
+        connectTimeout = builder.connectTimeout;
+        handshakeTimeout = builder.handshakeTimeout;
+        unlockTimeout = builder.unlockTimeout;
+        initialBackoff = builder.initialBackoff;
+        maxBackoff = builder.maxBackoff;
+        minRetries = builder.minRetries;
+        maxRetries = builder.maxRetries;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public long getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    public long getUnlockTimeout() {
+        return unlockTimeout;
+    }
+
+    /**
+     * Returns the delay before the given retry. The delay grows exponentially and a random
+     * jitter of up to 50% is subtracted, so that multiple devices do not retry in sync.
+     *
+     * @param retry the retry number, starting from 1.
+     * @return The delay in milliseconds.
+     */
+    public long getBackoff(final int retry) {
+        final int shift = Math.min(Math.max(retry - 1, 0), 20);
+        final long backoff = Math.min(maxBackoff, initialBackoff << shift);
+        final double jitter;
+        synchronized (random) {
+            jitter = random.nextDouble();
+        }
+        return backoff - (long) (backoff * 0.5 * jitter);
+    }
+
+    /**
+     * Returns the number of retries allowed for the given device, based on its recent
+     * failure rate.
+     *
+     * @param address the device address.
+     */
+    public synchronized int getRetryBudget(@NonNull final String address) {
+        final History history = histories.get(address);
+        if (history == null || history.size == 0)
+            return maxRetries;
+        final float failureRate = (float) Integer.bitCount(history.failures) / history.size;
+        return minRetries + Math.round((maxRetries - minRetries) * (1 - failureRate));
+    }
+
+    /**
+     * Records the outcome of an attempt.
+     *
+     * @param address the device address.
+     * @param success whether the attempt succeeded.
+     */
+    public synchronized void onAttempt(@NonNull final String address, final boolean success) {
+        History history = histories.get(address);
+        if (history == null) {
+            history = new History();
+            histories.put(address, history);
+        }
+        history.failures = (history.failures << 1 | (success ? 0 : 1)) & ((1 << HISTORY_SIZE) - 1);
+        history.size = Math.min(history.size + 1, HISTORY_SIZE);
+    }
+
+    /**
+     * Records that a retry has been made.
+     *
+     * @param address the device address.
+     */
+    public synchronized void onRetry(@NonNull final String address) {
+        totalRetries++;
+        History history = histories.get(address);
+        if (history == null) {
+            history = new History();
+            histories.put(address, history);
+        }
+        history.retries++;
+    }
+
+    /**
+     * Returns the total number of retries made using this policy.
+     */
+    public synchronized int getRetryCount() {
+        return totalRetries;
+    }
+
+    /**
+     * Returns the number of retries made for the given device.
+     */
+    public synchronized int getRetryCount(@NonNull final String address) {
+        final History history = histories.get(address);
+        return history != null ? history.retries : 0;
+    }
+}
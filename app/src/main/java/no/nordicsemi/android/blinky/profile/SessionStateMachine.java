@@ -0,0 +1,191 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The state of a lock session:
+ * <pre>
+ * DISCONNECTED -> CONNECTING -> HANDSHAKING -> READY -> UNLOCKING -> UNLOCKED / FAILED
+ * </pre>
+ * After UNLOCKED or FAILED the lock may be unlocked again, and any state may go back to
+ * DISCONNECTED.
+ * <p>
+ * The state is an immutable {@link Snapshot}, replaced with compare-and-set, so transitions
+ * may be requested from any thread. A transition that is not allowed from the current state
+ * is rejected. Observers are notified once for each transition, in the order of transitions,
+ * on the thread that made the transition or on a thread making a concurrent one.
+ * <p>
+ * This class does not depend on Android API.
+ */
+public final class SessionStateMachine {
+    public enum State {
+        DISCONNECTED, CONNECTING, HANDSHAKING, READY, UNLOCKING, UNLOCKED, FAILED
+    }
+
+    /**
+     * An immutable state of the session.
+     */
+    public static final class Snapshot {
+        private final State state;
+        private final long version;
+        private final long time;
+
+        private Snapshot(@NonNull final State state, final long version) {
+            this.state = state;
+            this.version = version;
+            this.time = System.nanoTime();
+        }
+
+        @NonNull
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Returns the number of transitions made before this state.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the time of the transition to this state, from {@link System#nanoTime()}.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns whether the handshake has been completed in this session.
+         */
+        public boolean isHandshakeCompleted() {
+            return state.compareTo(State.READY) >= 0;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return state + " #" + version;
+        }
+    }
+
+    public interface Observer {
+        void onTransition(@NonNull Snapshot from, @NonNull Snapshot to);
+    }
+
+    private final AtomicReference<Snapshot> current =
+            new AtomicReference<>(new Snapshot(State.DISCONNECTED, 0));
+    private final CopyOnWriteArrayList<Observer> observers = new CopyOnWriteArrayList<>();
+    /** Transitions not yet delivered to observers, by version of the new state. */
+    private final ConcurrentHashMap<Long, Snapshot[]> undelivered = new ConcurrentHashMap<>();
+    private final AtomicBoolean delivering = new AtomicBoolean();
+    /** The version of the next transition to deliver, used only while delivering. */
+    private long nextDelivery = 1;
+
+    /**
+     * Returns whether a session may go from one state to the other.
+     */
+    public static boolean isAllowed(@NonNull final State from, @NonNull final State to) {
+        switch (to) {
+            case DISCONNECTED:
+                return from != State.DISCONNECTED;
+            case CONNECTING:
+                return from == State.DISCONNECTED;
+            case HANDSHAKING:
+                // Services may be discovered again without a new connection request,
+                // e.g. after Service Changed indication.
+                return from == State.CONNECTING || from == State.DISCONNECTED;
+            case READY:
+                return from == State.HANDSHAKING;
+            case UNLOCKING:
+                return from == State.READY || from == State.UNLOCKED || from == State.FAILED;
+            case UNLOCKED:
+            case FAILED:
+                return from == State.UNLOCKING;
+            default:
+                return false;
+        }
+    }
+
+    @NonNull
+    public Snapshot get() {
+        return current.get();
+    }
+
+    public void addObserver(@NonNull final Observer observer) {
+        observers.addIfAbsent(observer);
+    }
+
+    public void removeObserver(@NonNull final Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Moves to the given state, if allowed from the current one.
+     *
+     * @param state the new state.
+     * @return True if the transition was made.
+     */
+    public boolean moveTo(@NonNull final State state) {
+        while (true) {
+            final Snapshot from = current.get();
+            if (!isAllowed(from.state, state))
+                return false;
+            if (transition(from, state))
+                return true;
+            // Another thread has made a transition in the meantime. Check again.
+        }
+    }
+
+    /**
+     * Moves to the given state only if the current state is the expected one.
+     *
+     * @param expected the expected current state.
+     * @param state    the new state.
+     * @return True if the transition was made.
+     */
+    public boolean compareAndSet(@NonNull final State expected, @NonNull final State state) {
+        final Snapshot from = current.get();
+        return from.state == expected && isAllowed(expected, state) && transition(from, state);
+    }
+
+    private boolean transition(@NonNull final Snapshot from, @NonNull final State state) {
+        final Snapshot to = new Snapshot(state, from.version + 1);
+        if (!current.compareAndSet(from, to))
+            return false;
+        undelivered.put(to.version, new Snapshot[] { from, to });
+        deliver();
+        return true;
+    }
+
+    /**
+     * Delivers pending transitions in order. Only one thread delivers at a time. A thread that
+     * finds another one delivering leaves its transition to be delivered by that thread.
+     */
+    private void deliver() {
+        while (delivering.compareAndSet(false, true)) {
+            // Read while delivering. Once the flag is cleared, another thread may change it.
+            long next;
+            try {
+                Snapshot[] transition;
+                while ((transition = undelivered.remove(nextDelivery)) != null) {
+                    nextDelivery++;
+                    for (final Observer observer : observers)
+                        observer.onTransition(transition[0], transition[1]);
+                }
+            } finally {
+                next = nextDelivery;
+                delivering.set(false);
+            }
+            // A transition may have been added after the last check, but before the flag
+            // was cleared.
+            if (!undelivered.containsKey(next))
+                return;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package no.nordicsemi.android.blinky.profile;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Connects ahead of time to the lock the user is most likely to open, while the scanner
+ * is running.
+ * <p>
+ * The candidate is the lock with the highest score, which is the smoothed RSSI plus a bonus for
+ * each previous use of the lock. To avoid switching back and forth between two locks with
+ * similar signal, a new candidate must beat the current one by {@link #SWITCH_MARGIN} dB.
+ * Locks not seen for {@link #CANDIDATE_TIMEOUT} ms are no longer candidates, and a lock
+ * the speculative connection failed to is not retried for {@link #RETRY_DELAY} ms.
+ * <p>
+ * When the user opens a lock, the manager is handed over using {@link #claim(String)}. If the
+ * guess was wrong, the speculative connection is cancelled.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public class SpeculativeConnector {
+    private static final String TAG = "SpeculativeConnector";
+    /** Weight of a new RSSI sample in the exponential moving average. */
+    private static final float RSSI_ALPHA = 0.3f;
+    /** Score bonus for each previous use of the lock, in dB. */
+    private static final int USE_BONUS = 2;
+    /** Maximum number of uses counted in the score. */
+    private static final int MAX_USES = 5;
+    /** The margin by which a new candidate must beat the current one, in dB. */
+    private static final int SWITCH_MARGIN = 3;
+    /** Time after which a lock that has not been seen is no longer a candidate, in ms. */
+    private static final long CANDIDATE_TIMEOUT = 10000;
+    /** Time before connecting again to a lock the connection failed to, in ms. */
+    private static final long RETRY_DELAY = 2000;
+
+    private static SpeculativeConnector instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable cancelTask = this::cancel;
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    private final Map<String, Integer> uses = new HashMap<>();
+
+    @Nullable
+    private BlinkyManager manager;
+    @Nullable
+    private String target;
+    /** Whether the connection request to the target is in progress. */
+    private boolean pending;
+    @Nullable
+    private String failedAddress;
+    private long failedTime;
+
+    private int attempts;
+    private int hits;
+    private int misses;
+    private long savedMillis;
+
+    private static final class Candidate {
+        private final BluetoothDevice device;
+        private float smoothedRssi;
+        private long lastSeen;
+
+        private Candidate(@NonNull final BluetoothDevice device, final int rssi) {
+            this.device = device;
+            this.smoothedRssi = rssi;
+            this.lastSeen = SystemClock.elapsedRealtime();
+        }
+    }
+
+    @NonNull
+    public static synchronized SpeculativeConnector getInstance() {
+        if (instance == null)
+            instance = new SpeculativeConnector();
+        return instance;
+    }
+
+    /**
+     * Adds an RSSI sample for a lock.
+     *
+     * @param device the lock.
+     * @param rssi   the received RSSI.
+     */
+    @MainThread
+    public void onLockSeen(@NonNull final BluetoothDevice device, final int rssi) {
+        final Candidate candidate = candidates.get(device.getAddress());
+        if (candidate == null) {
+            candidates.put(device.getAddress(), new Candidate(device, rssi));
+        } else {
+            candidate.smoothedRssi += RSSI_ALPHA * (rssi - candidate.smoothedRssi);
+            candidate.lastSeen = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Picks the best candidate and connects to it, cancelling the previous speculative
+     * connection if the candidate has changed.
+     *
+     * @param context the context.
+     */
+    @MainThread
+    public void evaluate(@NonNull final Context context) {
+        handler.removeCallbacks(cancelTask);
+
+        final long now = SystemClock.elapsedRealtime();
+        final Iterator<Map.Entry<String, Candidate>> iterator = candidates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Candidate> entry = iterator.next();
+            if (now - entry.getValue().lastSeen > CANDIDATE_TIMEOUT) {
+                iterator.remove();
+                if (entry.getKey().equals(target)) {
+                    Log.d(TAG, "Candidate " + target + " is gone");
+                    cancelConnection();
+                }
+            }
+        }
+        if (target != null && !isAlive()) {
+            // The link to the target has been lost since it was connected.
+            cancelConnection();
+        }
+
+        Candidate best = null;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (final Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+            if (entry.getKey().equals(failedAddress) && now - failedTime < RETRY_DELAY)
+                continue;
+            final float score = score(entry.getKey(), entry.getValue());
+            if (score > bestScore) {
+                best = entry.getValue();
+                bestScore = score;
+            }
+        }
+        if (best == null)
+            return;
+
+        final String address = best.device.getAddress();
+        if (address.equals(target))
+            return;
+        if (target != null) {
+            final Candidate current = candidates.get(target);
+            if (current != null && bestScore < score(target, current) + SWITCH_MARGIN)
+                return;
+            Log.d(TAG, "Switching candidate from " + target + " to " + address);
+            cancelConnection();
+        }
+
+        target = address;
+        attempts++;
+        final BlinkyManager connecting = new BlinkyManager(context.getApplicationContext());
+        manager = connecting;
+        pending = true;
+        connecting.connectLock(best.device)
+                .useAutoConnect(false)
+                .done(d -> {
+                    if (manager == connecting)
+                        pending = false;
+                })
+                .fail((d, status) -> {
+                    if (manager != connecting)
+                        return;
+                    Log.d(TAG, "Speculative connection to " + address + " failed: " + status);
+                    failedAddress = address;
+                    failedTime = SystemClock.elapsedRealtime();
+                    cancelConnection();
+                })
+                .enqueue();
+    }
+
+    /**
+     * Hands over the speculative connection to the caller, if it is to the given device.
+     * Otherwise, the speculative connection is cancelled.
+     *
+     * @param address the address of the lock the user has opened.
+     * @return The manager, connected, connecting or handshaken, or null if the guess was wrong
+     * or the speculative connection has failed.
+     */
+    @MainThread
+    @Nullable
+    public BlinkyManager claim(@NonNull final String address) {
+        recordUse(address);
+        if (target == null)
+            return null;
+
+        if (!address.equals(target)) {
+            misses++;
+            cancelConnection();
+            return null;
+        }
+        if (!isAlive()) {
+            cancelConnection();
+            return null;
+        }
+        hits++;
+        final BlinkyManager claimed = manager;
+        // The time the connection has been going on is the time saved, up to the handshake.
+        final long handshake = claimed.getTimings().getTimeToHandshake();
+        final long saved = handshake >= 0 ? handshake : claimed.getTimings().getElapsedSinceConnect();
+        if (saved > 0)
+            savedMillis += saved;
+        handler.removeCallbacks(cancelTask);
+        manager = null;
+        target = null;
+        pending = false;
+        return claimed;
+    }
+
+    /**
+     * Cancels the speculative connection after the given delay, unless the connection
+     * is claimed or a new candidate is evaluated in the meantime.
+     *
+     * @param delay the delay in milliseconds.
+     */
+    @MainThread
+    public void cancelDelayed(final long delay) {
+        handler.removeCallbacks(cancelTask);
+        handler.postDelayed(cancelTask, delay);
+    }
+
+    /**
+     * Cancels the speculative connection and forgets the candidates.
+     */
+    @MainThread
+    public void cancel() {
+        handler.removeCallbacks(cancelTask);
+        cancelConnection();
+        candidates.clear();
+    }
+
+    /**
+     * Returns the number of speculative connections started.
+     */
+    public int getAttemptCount() {
+        return attempts;
+    }
+
+    /**
+     * Returns the number of times the user opened the lock that was pre-connected.
+     */
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of times the user opened a different lock than the pre-connected one.
+     */
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the ratio of hits to all claims.
+     */
+    public float getHitRate() {
+        final int total = hits + misses;
+        return total > 0 ? (float) hits / total : 0;
+    }
+
+    /**
+     * Returns the estimated time-to-unlock saved by pre-connecting, in milliseconds.
+     */
+    public long getSavedTime() {
+        return savedMillis;
+    }
+
+    private void cancelConnection() {
+        if (manager != null) {
+            // Closing the manager cancels the pending connection as well.
+            manager.close();
+            manager = null;
+        }
+        target = null;
+        pending = false;
+    }
+
+    /**
+     * Returns whether the manager of the target is connected or still connecting.
+     */
+    private boolean isAlive() {
+        return manager != null && (pending || manager.isConnected());
+    }
+
+    private float score(@NonNull final String address, @NonNull final Candidate candidate) {
+        final Integer count = uses.get(address);
+        final int bonus = count != null ? Math.min(count, MAX_USES) * USE_BONUS : 0;
+        return candidate.smoothedRssi + bonus;
+    }
+
+    private void recordUse(@NonNull final String address) {
+        final Integer count = uses.get(address);
+        uses.put(address, count != null ? count + 1 : 1);
+    }
+}
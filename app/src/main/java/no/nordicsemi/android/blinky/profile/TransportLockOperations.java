@@ -0,0 +1,254 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LockOperations} running a {@link LockSession} over a {@link LockTransport}.
+ * <p>
+ * The session is the same protocol logic as used by {@link BlinkyManager}, including the
+ * session state machine, the unlock timeout and the fast reconnect decision, but the link is
+ * a transport without Android dependencies, so connection and unlock flows may be run on
+ * the JVM against a simulated peripheral. Results are reported like
+ * {@link BlinkyLockOperations} does.
+ */
+public class TransportLockOperations implements LockOperations, LockTransport.Listener,
+        LockSession.Listener {
+
+    public interface TransportFactory {
+        @NonNull
+        LockTransport create(@NonNull String address);
+    }
+
+    private final String address;
+    private final LockTransport transport;
+    private final Map<Runnable, ScheduledFuture<?>> timers = new ConcurrentHashMap<>();
+    private final LockSession lockSession;
+    private volatile boolean connected;
+    @Nullable
+    private Callback connectCallback;
+    @Nullable
+    private Callback handshakeCallback;
+    @Nullable
+    private Callback unlockCallback;
+    private boolean released;
+
+    /**
+     * Creates the operations.
+     *
+     * @param address   the device address.
+     * @param transport the transport to the device.
+     * @param scheduler the executor used for the unlock timeout.
+     */
+    public TransportLockOperations(@NonNull final String address,
+                                   @NonNull final LockTransport transport,
+                                   @NonNull final ScheduledExecutorService scheduler) {
+        this.address = address;
+        this.transport = transport;
+        this.lockSession = new LockSession(new LockSession.Link() {
+            @Override
+            public boolean isWritable() {
+                return connected;
+            }
+
+            @Override
+            public void write(@NonNull final byte[] frame) {
+                transport.write(frame);
+            }
+        }, new LockSession.Timer() {
+            @Override
+            public void schedule(@NonNull final Runnable task, final long delayMillis) {
+                timers.put(task, scheduler.schedule(() -> {
+                    timers.remove(task);
+                    task.run();
+                }, delayMillis, TimeUnit.MILLISECONDS));
+            }
+
+            @Override
+            public void cancel(@NonNull final Runnable task) {
+                final ScheduledFuture<?> future = timers.remove(task);
+                if (future != null)
+                    future.cancel(false);
+            }
+        }, LockSession.Logger.NONE);
+        lockSession.addListener(this);
+    }
+
+    /**
+     * Returns a factory of operations using transports created by the given factory.
+     *
+     * @param transportFactory the factory of transports.
+     * @param scheduler        the executor used for the unlock timeout.
+     */
+    @NonNull
+    public static Factory factory(@NonNull final TransportFactory transportFactory,
+                                  @NonNull final ScheduledExecutorService scheduler) {
+        return address -> new TransportLockOperations(address,
+                transportFactory.create(address), scheduler);
+    }
+
+    /**
+     * Returns the lock session, e.g. to check the timings or the state of the session.
+     */
+    @NonNull
+    public LockSession getLockSession() {
+        return lockSession;
+    }
+
+    @Override
+    public void connect(@NonNull final Callback callback) {
+        final boolean cancelled;
+        synchronized (this) {
+            cancelled = released;
+            if (!cancelled)
+                connectCallback = callback;
+        }
+        if (cancelled) {
+            callback.onFailure(REASON_CANCELLED);
+            return;
+        }
+        lockSession.onConnecting(address);
+        transport.connect(this);
+    }
+
+    @Override
+    public void awaitHandshake(@NonNull final Callback callback) {
+        synchronized (this) {
+            handshakeCallback = callback;
+        }
+        // The callback is set before checking the state, so that the handshake cannot be missed.
+        if (lockSession.isHandshakeCompleted())
+            onHandshakeCompleted();
+    }
+
+    @Override
+    public void unlock(@NonNull final Callback callback) {
+        if (!lockSession.isHandshakeCompleted()) {
+            callback.onFailure(REASON_SESSION_LOST);
+            return;
+        }
+        synchronized (this) {
+            unlockCallback = callback;
+        }
+        lockSession.tryUnlock(null);
+    }
+
+    @Override
+    public void release() {
+        final Callback connect, handshake, unlock;
+        synchronized (this) {
+            released = true;
+            connect = connectCallback;
+            handshake = handshakeCallback;
+            unlock = unlockCallback;
+            connectCallback = handshakeCallback = unlockCallback = null;
+        }
+        lockSession.removeListener(this);
+        connected = false;
+        transport.disconnect();
+        lockSession.onLinkLost();
+        if (connect != null)
+            connect.onFailure(REASON_CANCELLED);
+        if (handshake != null)
+            handshake.onFailure(REASON_CANCELLED);
+        if (unlock != null)
+            unlock.onFailure(REASON_CANCELLED);
+    }
+
+    // LockTransport.Listener
+
+    @Override
+    public void onConnected() {
+        connected = true;
+        // The simulated lock always has the required service.
+        lockSession.onServicesReady(lockSession.onServicesValidated(address, true));
+        final Callback callback;
+        synchronized (this) {
+            callback = connectCallback;
+            connectCallback = null;
+        }
+        if (callback != null)
+            callback.onSuccess();
+    }
+
+    @Override
+    public void onDisconnected() {
+        connected = false;
+        final Callback callback;
+        synchronized (this) {
+            callback = connectCallback;
+            connectCallback = null;
+        }
+        if (callback != null) {
+            lockSession.onConnectFailed();
+            callback.onFailure(REASON_SESSION_LOST);
+        } else {
+            lockSession.onLinkLost();
+        }
+    }
+
+    @Override
+    public void onNotification(@NonNull final byte[] value) {
+        // Invalid notifications are ignored, as the real manager does.
+        lockSession.onNotification(value);
+    }
+
+    // LockSession.Listener
+
+    @Override
+    public void onHandshakeCompleted() {
+        final Callback callback;
+        synchronized (this) {
+            callback = handshakeCallback;
+            handshakeCallback = null;
+        }
+        if (callback != null)
+            callback.onSuccess();
+    }
+
+    @Override
+    public void onUnlockResult(final boolean success) {
+        final Callback callback;
+        synchronized (this) {
+            callback = unlockCallback;
+            unlockCallback = null;
+        }
+        if (callback != null) {
+            if (success)
+                callback.onSuccess();
+            else
+                callback.onFailure(REASON_UNLOCK_REJECTED);
+        }
+    }
+
+    @Override
+    public void onUnlockFailed(final int reason) {
+        final Callback callback;
+        synchronized (this) {
+            callback = unlockCallback;
+            unlockCallback = null;
+        }
+        if (callback != null)
+            callback.onFailure(reason);
+    }
+
+    @Override
+    public void onSessionLost() {
+        final Callback handshake, unlock;
+        synchronized (this) {
+            handshake = handshakeCallback;
+            unlock = unlockCallback;
+            handshakeCallback = unlockCallback = null;
+        }
+        if (handshake != null)
+            handshake.onFailure(REASON_SESSION_LOST);
+        if (unlock != null)
+            unlock.onFailure(REASON_SESSION_LOST);
+    }
+}
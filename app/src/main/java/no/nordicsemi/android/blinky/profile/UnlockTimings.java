@@ -0,0 +1,104 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Time-to-unlock instrumentation for a single connection.
+ * <p>
+ * All timestamps are taken from {@link System#nanoTime()}, so the class may be used on the JVM,
+ * and are relative to the moment the connection was requested. A value of -1 means that
+ * the stage has not been reached.
+ */
+public class UnlockTimings {
+    /** The origin of nanoTime is arbitrary, so a stage not reached can't be marked with -1. */
+    private static final long NONE = Long.MIN_VALUE;
+
+    private long connectStarted = NONE;
+    private long servicesReady = NONE;
+    private long handshakeDone = NONE;
+    private long unlockRequested = NONE;
+    private long unlockDone = NONE;
+    private boolean fastPath;
+
+    /* package */ synchronized void onConnectStarted() {
+        connectStarted = now();
+        servicesReady = handshakeDone = unlockRequested = unlockDone = NONE;
+        fastPath = false;
+    }
+
+    /* package */ synchronized void onServicesReady(final boolean fastPath) {
+        this.fastPath = fastPath;
+        servicesReady = now();
+    }
+
+    /* package */ synchronized void onHandshakeDone() {
+        handshakeDone = now();
+    }
+
+    /* package */ synchronized void onUnlockRequested() {
+        unlockRequested = now();
+        unlockDone = NONE;
+    }
+
+    /* package */ synchronized void onUnlockDone() {
+        unlockDone = now();
+    }
+
+    /**
+     * Returns whether the fast reconnect path was used for this connection.
+     */
+    public synchronized boolean isFastPath() {
+        return fastPath;
+    }
+
+    /**
+     * Returns the time from the connection request until the services were ready, in ms.
+     */
+    public synchronized long getConnectTime() {
+        return diff(connectStarted, servicesReady);
+    }
+
+    /**
+     * Returns the time from the connection request until A90D was received, in ms.
+     */
+    public synchronized long getTimeToHandshake() {
+        return diff(connectStarted, handshakeDone);
+    }
+
+    /**
+     * Returns the time from sending the unlock frame until A70D or A700 was received, in ms.
+     */
+    public synchronized long getUnlockTime() {
+        return diff(unlockRequested, unlockDone);
+    }
+
+    /**
+     * Returns the time from the connection request until the unlock result was received, in ms.
+     */
+    public synchronized long getTimeToUnlock() {
+        return diff(connectStarted, unlockDone);
+    }
+
+    /**
+     * Returns the time elapsed since the connection was requested, in ms.
+     */
+    public synchronized long getElapsedSinceConnect() {
+        return diff(connectStarted, now());
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static long diff(final long from, final long to) {
+        return from != NONE && to != NONE ? to - from : -1;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "connect: " + getConnectTime() + " ms, handshake: " + getTimeToHandshake()
+                + " ms, unlock: " + getUnlockTime() + " ms, total: " + getTimeToUnlock()
+                + " ms" + (fastPath ? " (fast path)" : "");
+    }
+}
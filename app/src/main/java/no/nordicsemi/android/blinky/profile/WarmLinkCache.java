@@ -0,0 +1,280 @@
+package no.nordicsemi.android.blinky.profile;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps handshaken connections open for some time after they are no longer used, so that
+ * the next unlock of the same lock does not have to connect and do the FCCF/A90D handshake
+ * again.
+ * <p>
+ * By default, links are kept for 30 seconds of idle time, up to 2 links.
+ * When the limit is reached, the least recently used link is disconnected.
+ * The cache does not keep the process alive by itself; its owner should do so while
+ * {@link #size()} is not 0, see {@link #setListener(Listener)}.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public class WarmLinkCache {
+    private static final String TAG = "WarmLinkCache";
+
+    private static WarmLinkCache instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /** Links in access order, the least recently used first. */
+    private final LinkedHashMap<String, Link> links = new LinkedHashMap<>(8, 0.75f, true);
+
+    @Nullable
+    private Listener listener;
+    /** Time for which an unused link is kept open, in milliseconds. */
+    private long idleTimeout = 30000;
+    /** Maximum number of links kept open. */
+    private int maxLinks = 2;
+    private int hits;
+    private int misses;
+    private long savedMillis;
+
+    public interface Listener {
+        /**
+         * Called when a link was added to or removed from the cache.
+         *
+         * @param count the number of links kept open.
+         */
+        void onLinkCountChanged(int count);
+    }
+
+    private final class Link implements BlinkyManager.LockListener, Runnable {
+        private final String address;
+        private final BlinkyManager manager;
+        private final long handshakeTime;
+
+        private Link(@NonNull final String address, @NonNull final BlinkyManager manager) {
+            this.address = address;
+            this.manager = manager;
+            this.handshakeTime = manager.getTimings().getTimeToHandshake();
+        }
+
+        @Override
+        public void onHandshakeCompleted() {
+            // Ignore
+        }
+
+        @Override
+        public void onUnlockResult(final boolean success) {
+            // Ignore
+        }
+
+        @Override
+        public void onUnlockFailed(final int reason) {
+            // Ignore
+        }
+
+        @Override
+        public void onSessionLost() {
+            // The link has been lost while idle, there's nothing to keep.
+            handler.post(() -> {
+                if (links.get(address) == this)
+                    evict(address);
+            });
+        }
+
+        /**
+         * Called when the idle time has elapsed.
+         */
+        @Override
+        public void run() {
+            if (links.get(address) == this)
+                evict(address);
+        }
+    }
+
+    @NonNull
+    public static synchronized WarmLinkCache getInstance() {
+        if (instance == null)
+            instance = new WarmLinkCache();
+        return instance;
+    }
+
+    /**
+     * Sets the listener notified when the number of links changes. The owner of the cache
+     * may use it to keep the process alive while links are open.
+     *
+     * @param listener the listener, or null to remove it.
+     */
+    @MainThread
+    public void setListener(@Nullable final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the time for which an unused link is kept open, in milliseconds.
+     * Setting 0 disables retention.
+     *
+     * @param timeout the idle timeout in milliseconds.
+     */
+    @MainThread
+    public void setIdleTimeout(final long timeout) {
+        idleTimeout = Math.max(0, timeout);
+        if (idleTimeout == 0)
+            clear();
+    }
+
+    /**
+     * Sets the maximum number of links kept open. Setting 0 disables retention.
+     *
+     * @param max the maximum number of links.
+     */
+    @MainThread
+    public void setMaxLinks(final int max) {
+        maxLinks = Math.max(0, max);
+        trim();
+    }
+
+    /**
+     * Returns the number of links kept open.
+     */
+    @MainThread
+    public int size() {
+        return links.size();
+    }
+
+    /**
+     * Returns a warm manager connected to the given device and removes it from the cache.
+     * The caller becomes the owner of the manager.
+     *
+     * @param address the device address.
+     * @return The manager, or null if there is no warm link to the device.
+     */
+    @MainThread
+    @Nullable
+    public BlinkyManager acquire(@NonNull final String address) {
+        final Link link = links.remove(address);
+        if (link != null) {
+            notifyLinkCountChanged();
+            handler.removeCallbacks(link);
+            link.manager.removeLockListener(link);
+            if (link.manager.isReady() && link.manager.isHandshakeCompleted()) {
+                hits++;
+                if (link.handshakeTime > 0)
+                    savedMillis += link.handshakeTime;
+                return link.manager;
+            }
+            // The link has gone stale.
+            link.manager.close();
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Hands over a manager that is no longer used. If the link is handshaken it will be kept
+     * open, otherwise it is disconnected and closed.
+     *
+     * @param address the device address.
+     * @param manager the manager that's no longer used.
+     */
+    @MainThread
+    public void release(@NonNull final String address, @NonNull final BlinkyManager manager) {
+        if (!manager.isReady() || !manager.isHandshakeCompleted()
+                || idleTimeout == 0 || maxLinks == 0) {
+            disconnectAndClose(manager);
+            return;
+        }
+        final Link previous = links.remove(address);
+        if (previous != null && previous.manager != manager)
+            close(previous);
+
+        final Link link = new Link(address, manager);
+        manager.addLockListener(link);
+        links.put(address, link);
+        handler.postDelayed(link, idleTimeout);
+        trim();
+        notifyLinkCountChanged();
+    }
+
+    /**
+     * Disconnects and closes all warm links.
+     */
+    @MainThread
+    public void clear() {
+        final Iterator<Link> iterator = links.values().iterator();
+        while (iterator.hasNext()) {
+            final Link link = iterator.next();
+            iterator.remove();
+            close(link);
+        }
+        notifyLinkCountChanged();
+    }
+
+    /**
+     * Returns the number of times a warm link was found for the requested device.
+     */
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of times there was no warm link for the requested device.
+     */
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the estimated time saved by using warm links, in milliseconds. This is the sum
+     * of times it took to connect and handshake the links that were reused.
+     */
+    public long getSavedTime() {
+        return savedMillis;
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, Link>> iterator = links.entrySet().iterator();
+        boolean trimmed = false;
+        while (links.size() > maxLinks && iterator.hasNext()) {
+            final Link link = iterator.next().getValue();
+            iterator.remove();
+            Log.d(TAG, "Evicting least recently used link to " + link.address);
+            close(link);
+            trimmed = true;
+        }
+        if (trimmed)
+            notifyLinkCountChanged();
+    }
+
+    private void evict(@NonNull final String address) {
+        final Link link = links.remove(address);
+        if (link != null) {
+            close(link);
+            notifyLinkCountChanged();
+        }
+    }
+
+    private void notifyLinkCountChanged() {
+        if (listener != null)
+            listener.onLinkCountChanged(links.size());
+    }
+
+    private void close(@NonNull final Link link) {
+        handler.removeCallbacks(link);
+        link.manager.removeLockListener(link);
+        disconnectAndClose(link.manager);
+    }
+
+    /**
+     * Disconnects the manager, cancelling a pending connection, and closes it afterwards,
+     * so that it does not keep the GATT client registered.
+     */
+    private static void disconnectAndClose(@NonNull final BlinkyManager manager) {
+        manager.disconnect().then(d -> manager.close()).enqueue();
+    }
+}
@@ -12,15 +12,20 @@ public abstract class BlinkyWriteDataCallback implements ProfileDataCallback, Da
 
     @Override
     public void onDataReceived(@NonNull final BluetoothDevice device, @NonNull final Data data) {
-        parse(device, data);
+        // The value of the write characteristic has no meaning when read.
+        onInvalidDataReceived(device, data);
     }
 
     @Override
     public void onDataSent(@NonNull final BluetoothDevice device, @NonNull final Data data) {
-        parse(device, data);
+        onFrameSent(device, data);
     }
 
-    private void parse(@NonNull final BluetoothDevice device, @NonNull final Data data) {
-        onInvalidDataReceived(device, data);
-    }
+    /**
+     * Called when a frame has been written to the device.
+     *
+     * @param device the target device.
+     * @param data   the frame sent.
+     */
+    public abstract void onFrameSent(@NonNull final BluetoothDevice device, @NonNull final Data data);
 }
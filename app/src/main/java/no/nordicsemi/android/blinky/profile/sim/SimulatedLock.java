@@ -0,0 +1,230 @@
+package no.nordicsemi.android.blinky.profile.sim;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.blinky.profile.LockProtocol;
+import no.nordicsemi.android.blinky.profile.LockTransport;
+
+/**
+ * A simulated lock implementing the FFB0 service, for running connection and unlock flows
+ * on the JVM.
+ * <p>
+ * The simulator follows the state machine of the real lock: after connection it sends FCCF,
+ * accepts A902FCCF and replies with A90D, then accepts the unlock frame and replies with
+ * A70D, or A700 if configured to reject. Frames not valid in the current state are ignored.
+ * <p>
+ * Connection delay, notification jitter, packet loss and random disconnections are
+ * configurable using {@link Config}. All events are delivered on the given scheduler.
+ */
+public class SimulatedLock implements LockTransport {
+
+    public static final class Config {
+        private long connectDelay = 300;
+        private long notificationDelay = 20;
+        private long notificationJitter = 10;
+        private float packetLoss;
+        private float disconnectProbability;
+        private boolean rejectUnlock;
+        private long seed = System.nanoTime();
+
+        /**
+         * Sets the time from the connection request until the lock is connected,
+         * in milliseconds.
+         */
+        @NonNull
+        public Config setConnectDelay(final long delay) {
+            connectDelay = delay;
+            return this;
+        }
+
+        /**
+         * Sets the delay of a notification after the frame it replies to, and the maximum
+         * random jitter added to it, in milliseconds.
+         */
+        @NonNull
+        public Config setNotificationDelay(final long delay, final long jitter) {
+            notificationDelay = delay;
+            notificationJitter = jitter;
+            return this;
+        }
+
+        /**
+         * Sets the probability, from 0 to 1, that a write or a notification is lost.
+         */
+        @NonNull
+        public Config setPacketLoss(final float probability) {
+            packetLoss = probability;
+            return this;
+        }
+
+        /**
+         * Sets the probability, from 0 to 1, that the link is lost when a frame is received,
+         * or that the connection attempt fails.
+         */
+        @NonNull
+        public Config setDisconnectProbability(final float probability) {
+            disconnectProbability = probability;
+            return this;
+        }
+
+        /**
+         * Makes the lock reply to the unlock frame with A700.
+         */
+        @NonNull
+        public Config setRejectUnlock(final boolean reject) {
+            rejectUnlock = reject;
+            return this;
+        }
+
+        /**
+         * Sets the seed of the random generator, for repeatable runs.
+         */
+        @NonNull
+        public Config setSeed(final long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    private enum State { DISCONNECTED, CONNECTING, PROMPTED, HANDSHAKEN }
+
+    private final Config config;
+    private final ScheduledExecutorService scheduler;
+    private final Random random;
+    @Nullable
+    private Listener listener;
+    private State state = State.DISCONNECTED;
+    /** Incremented on each connection, so that events of a previous link are dropped. */
+    private int generation;
+
+    private int framesReceived;
+    private int framesLost;
+
+    public SimulatedLock(@NonNull final Config config,
+                         @NonNull final ScheduledExecutorService scheduler) {
+        this.config = config;
+        this.scheduler = scheduler;
+        this.random = new Random(config.seed);
+    }
+
+    @Override
+    public synchronized void connect(@NonNull final Listener listener) {
+        this.listener = listener;
+        state = State.CONNECTING;
+        final int gen = ++generation;
+        final boolean fail = chance(config.disconnectProbability);
+        scheduler.schedule(() -> {
+            if (fail) {
+                dropLink(gen);
+                return;
+            }
+            final Listener l;
+            synchronized (this) {
+                if (gen != generation)
+                    return;
+                state = State.PROMPTED;
+                l = this.listener;
+            }
+            if (l != null)
+                l.onConnected();
+            notify(gen, LockProtocol.OPCODE_PREPARE_FOR_CONNECT);
+        }, config.connectDelay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void write(@NonNull final byte[] value) {
+        final int gen;
+        final State current;
+        synchronized (this) {
+            if (state == State.DISCONNECTED || state == State.CONNECTING)
+                return;
+            framesReceived++;
+            if (chance(config.packetLoss)) {
+                framesLost++;
+                return;
+            }
+            gen = generation;
+            current = state;
+        }
+        if (chance(config.disconnectProbability)) {
+            dropLink(gen);
+            return;
+        }
+        if (current == State.PROMPTED && LockProtocol.isConnectFrame(value)) {
+            synchronized (this) {
+                state = State.HANDSHAKEN;
+            }
+            notify(gen, LockProtocol.OPCODE_LONG_CONNECT_SUCCESS);
+        } else if (current == State.HANDSHAKEN && LockProtocol.isUnlockFrame(value)) {
+            notify(gen, config.rejectUnlock ?
+                    LockProtocol.OPCODE_UNLOCKED_FAIL : LockProtocol.OPCODE_UNLOCKED_SUCCESS);
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        generation++;
+        state = State.DISCONNECTED;
+        listener = null;
+    }
+
+    /**
+     * Returns the number of frames written to the lock, including lost ones.
+     */
+    public synchronized int getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * Returns the number of frames and notifications lost.
+     */
+    public synchronized int getFramesLost() {
+        return framesLost;
+    }
+
+    private void notify(final int gen, final int opcode) {
+        final long jitter = config.notificationJitter > 0 ?
+                (long) (nextDouble() * config.notificationJitter) : 0;
+        scheduler.schedule(() -> {
+            final Listener l;
+            synchronized (this) {
+                if (gen != generation)
+                    return;
+                if (chance(config.packetLoss)) {
+                    framesLost++;
+                    return;
+                }
+                l = listener;
+            }
+            if (l != null)
+                l.onNotification(LockProtocol.notification(opcode));
+        }, config.notificationDelay + jitter, TimeUnit.MILLISECONDS);
+    }
+
+    private void dropLink(final int gen) {
+        final Listener l;
+        synchronized (this) {
+            if (gen != generation)
+                return;
+            generation++;
+            state = State.DISCONNECTED;
+            l = listener;
+            listener = null;
+        }
+        if (l != null)
+            l.onDisconnected();
+    }
+
+    private synchronized boolean chance(final float probability) {
+        return probability > 0 && random.nextFloat() < probability;
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+}
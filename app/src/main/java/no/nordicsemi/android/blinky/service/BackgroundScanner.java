@@ -0,0 +1,178 @@
+package no.nordicsemi.android.blinky.service;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import no.nordicsemi.android.blinky.utils.Utils;
+import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * Low power scanning for known locks, which runs without the UI.
+ * <p>
+ * The scan is registered with a {@link PendingIntent}, so the system scans on behalf of the app
+ * and results are delivered to {@link ScanResultReceiver}, which starts the process if needed,
+ * but not the UI. Only known locks are matched, by address or by name, so that the filters may be
+ * offloaded to the controller. Platform filters match complete names only, so the names of
+ * known locks are used instead of the "YX_" prefix.
+ * <p>
+ * The number of wake-ups and the time spent processing them are kept, to measure the cost
+ * of background scanning.
+ */
+public final class BackgroundScanner {
+    private static final String TAG = "BackgroundScanner";
+    private static final String PREFS_NAME = "background_scanner";
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_WAKE_UPS = "wake_ups";
+    private static final String KEY_RESULTS = "results";
+    private static final String KEY_PROCESSING_TIME = "processing_time";
+    private static final int REQUEST_CODE = 1;
+    /** Results are batched, so that the app is woken up at most once in this time. */
+    private static final long REPORT_DELAY = 10000; // [ms]
+
+    private BackgroundScanner() {
+        // Utility class.
+    }
+
+    public static boolean isEnabled(@NonNull final Context context) {
+        return preferences(context).getBoolean(KEY_ENABLED, false);
+    }
+
+    /**
+     * Enables or disables background scanning. The setting is kept, but scanning starts
+     * only when at least one lock is known and Bluetooth may be used.
+     *
+     * @param context the context.
+     * @param enabled true to enable background scanning.
+     */
+    public static void setEnabled(@NonNull final Context context, final boolean enabled) {
+        preferences(context).edit().putBoolean(KEY_ENABLED, enabled).apply();
+        if (enabled)
+            refresh(context);
+        else
+            stop(context);
+    }
+
+    /**
+     * Registers the scan again with the current set of known locks, if background scanning
+     * is enabled. Call it when a lock has been added to the {@link LockRegistry}, or when
+     * Bluetooth has been enabled.
+     *
+     * @param context the context.
+     * @return True if the scan has been registered.
+     */
+    public static boolean refresh(@NonNull final Context context) {
+        if (!isEnabled(context))
+            return false;
+        if (!Utils.isBleEnabled() || !Utils.isBluetoothScanPermissionGranted(context))
+            return false;
+
+        final LockRegistry registry = LockRegistry.getInstance(context);
+        final List<ScanFilter> filters = new ArrayList<>();
+        for (final String address : registry.getAddresses())
+            filters.add(new ScanFilter.Builder().setDeviceAddress(address).build());
+        for (final String name : registry.getNames())
+            filters.add(new ScanFilter.Builder().setDeviceName(name).build());
+        if (filters.isEmpty()) {
+            // Without filters, the system would not deliver results with screen off.
+            Log.d(TAG, "No known locks to scan for");
+            return false;
+        }
+
+        final ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
+                .setReportDelay(REPORT_DELAY)
+                .setUseHardwareFilteringIfSupported(true)
+                .setUseHardwareBatchingIfSupported(true)
+                .build();
+
+        final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
+        final PendingIntent intent = createPendingIntent(context);
+        try {
+            // Registering again with the same intent replaces the previous scan.
+            scanner.stopScan(context, intent, REQUEST_CODE);
+            scanner.startScan(filters, settings, context, intent, REQUEST_CODE);
+        } catch (final SecurityException e) {
+            Log.w(TAG, "Starting background scan failed", e);
+            return false;
+        }
+        Log.i(TAG, "Background scan registered with " + filters.size() + " filters");
+        return true;
+    }
+
+    /* package */ static void stop(@NonNull final Context context) {
+        try {
+            BluetoothLeScannerCompat.getScanner()
+                    .stopScan(context, createPendingIntent(context), REQUEST_CODE);
+        } catch (final Exception e) {
+            // Bluetooth may be disabled or the permission revoked.
+            Log.w(TAG, "Stopping background scan failed", e);
+        }
+    }
+
+    /**
+     * Records a wake-up of the app by the background scan.
+     *
+     * @param results        the number of results delivered.
+     * @param processingTime the time spent processing the results, in ns.
+     */
+    /* package */ static void onWakeUp(@NonNull final Context context, final int results,
+                                       final long processingTime) {
+        final SharedPreferences preferences = preferences(context);
+        preferences.edit()
+                .putInt(KEY_WAKE_UPS, preferences.getInt(KEY_WAKE_UPS, 0) + 1)
+                .putLong(KEY_RESULTS, preferences.getLong(KEY_RESULTS, 0) + results)
+                .putLong(KEY_PROCESSING_TIME,
+                        preferences.getLong(KEY_PROCESSING_TIME, 0) + processingTime)
+                .apply();
+    }
+
+    /**
+     * Returns the number of times the app was woken up by the background scan.
+     */
+    public static int getWakeUpCount(@NonNull final Context context) {
+        return preferences(context).getInt(KEY_WAKE_UPS, 0);
+    }
+
+    /**
+     * Returns the number of scan results delivered by the background scan.
+     */
+    public static long getResultCount(@NonNull final Context context) {
+        return preferences(context).getLong(KEY_RESULTS, 0);
+    }
+
+    /**
+     * Returns the average time spent processing a wake-up, in microseconds.
+     */
+    public static long getAverageProcessingTime(@NonNull final Context context) {
+        final SharedPreferences preferences = preferences(context);
+        final int wakeUps = preferences.getInt(KEY_WAKE_UPS, 0);
+        return wakeUps > 0 ? preferences.getLong(KEY_PROCESSING_TIME, 0) / wakeUps / 1000 : 0;
+    }
+
+    @NonNull
+    private static PendingIntent createPendingIntent(@NonNull final Context context) {
+        final Intent intent = new Intent(context, ScanResultReceiver.class);
+        intent.setAction(ScanResultReceiver.ACTION_SCAN_RESULT);
+        // The intent must be mutable, so that the scanner can add the results.
+        final int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ?
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE :
+                PendingIntent.FLAG_UPDATE_CURRENT;
+        return PendingIntent.getBroadcast(context, REQUEST_CODE, intent, flags);
+    }
+
+    @NonNull
+    private static SharedPreferences preferences(@NonNull final Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
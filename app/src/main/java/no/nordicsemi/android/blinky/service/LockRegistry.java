@@ -0,0 +1,123 @@
+package no.nordicsemi.android.blinky.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persistent registry of locks known to this app, i.e. locks to which the user has connected.
+ * <p>
+ * For each lock the name and the time and RSSI of the last sighting are kept. Sightings are
+ * reported by {@link ScanResultReceiver} when background scanning is enabled, so the registry
+ * is kept up to date without the UI running.
+ */
+public class LockRegistry {
+    private static final String PREFS_NAME = "lock_registry";
+    private static final String KEY_ADDRESSES = "addresses";
+    private static final String KEY_NAME = "name_";
+    private static final String KEY_LAST_SEEN = "seen_";
+    private static final String KEY_LAST_RSSI = "rssi_";
+
+    private static LockRegistry instance;
+
+    private final SharedPreferences preferences;
+
+    @NonNull
+    public static synchronized LockRegistry getInstance(@NonNull final Context context) {
+        if (instance == null)
+            instance = new LockRegistry(context.getApplicationContext());
+        return instance;
+    }
+
+    private LockRegistry(@NonNull final Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds the lock to the registry.
+     *
+     * @param address the lock address.
+     * @param name    the advertised name, if known.
+     * @return True if the lock was added or its name has changed.
+     */
+    public synchronized boolean addLock(@NonNull final String address, @Nullable final String name) {
+        final Set<String> addresses = getAddresses();
+        final boolean added = addresses.add(address);
+        final String oldName = preferences.getString(KEY_NAME + address, null);
+        if (!added && (name == null || name.equals(oldName)))
+            return false;
+
+        final SharedPreferences.Editor editor = preferences.edit()
+                .putStringSet(KEY_ADDRESSES, addresses);
+        if (name != null)
+            editor.putString(KEY_NAME + address, name);
+        editor.apply();
+        return true;
+    }
+
+    /**
+     * Records a sighting of a known lock. Sightings of unknown devices are ignored.
+     *
+     * @param address the lock address.
+     * @param rssi    the received RSSI.
+     * @param time    the time of the sighting, from {@link System#currentTimeMillis()}.
+     * @return True if the lock is known.
+     */
+    public synchronized boolean onLockSeen(@NonNull final String address, final int rssi,
+                                           final long time) {
+        if (!isKnown(address))
+            return false;
+        preferences.edit()
+                .putLong(KEY_LAST_SEEN + address, time)
+                .putInt(KEY_LAST_RSSI + address, rssi)
+                .apply();
+        return true;
+    }
+
+    /**
+     * Returns a copy of the set of known lock addresses.
+     */
+    @NonNull
+    public synchronized Set<String> getAddresses() {
+        // The set returned by SharedPreferences must not be modified.
+        return new HashSet<>(preferences.getStringSet(KEY_ADDRESSES, new HashSet<>()));
+    }
+
+    /**
+     * Returns the names of the known locks, for those which have one.
+     */
+    @NonNull
+    public synchronized Set<String> getNames() {
+        final Set<String> names = new HashSet<>();
+        for (final String address : getAddresses()) {
+            final String name = preferences.getString(KEY_NAME + address, null);
+            if (name != null)
+                names.add(name);
+        }
+        return names;
+    }
+
+    public synchronized boolean isKnown(@NonNull final String address) {
+        return preferences.getStringSet(KEY_ADDRESSES, new HashSet<>()).contains(address);
+    }
+
+    /**
+     * Returns the time the lock was last seen, from {@link System#currentTimeMillis()},
+     * or 0 if never.
+     */
+    public synchronized long getLastSeen(@NonNull final String address) {
+        return preferences.getLong(KEY_LAST_SEEN + address, 0);
+    }
+
+    /**
+     * Returns the RSSI of the last sighting of the lock, or 0 if never seen.
+     */
+    public synchronized int getLastRssi(@NonNull final String address) {
+        return preferences.getInt(KEY_LAST_RSSI + address, 0);
+    }
+}
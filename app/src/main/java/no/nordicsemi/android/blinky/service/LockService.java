@@ -0,0 +1,265 @@
+package no.nordicsemi.android.blinky.service;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import no.nordicsemi.android.ble.ConnectRequest;
+import no.nordicsemi.android.blinky.R;
+import no.nordicsemi.android.blinky.ScannerActivity;
+import no.nordicsemi.android.blinky.profile.BlinkyManager;
+import no.nordicsemi.android.blinky.profile.RetryPolicy;
+import no.nordicsemi.android.blinky.profile.SpeculativeConnector;
+import no.nordicsemi.android.blinky.profile.WarmLinkCache;
+import no.nordicsemi.android.log.LogSession;
+import no.nordicsemi.android.log.Logger;
+
+/**
+ * A bound service that owns the {@link BlinkyManager}s and their connection state, so that
+ * connections are not tied to the activity back stack.
+ * <p>
+ * Clients attach to a device using {@link #attach(BluetoothDevice, String)} and observe the
+ * LiveData objects of the returned manager directly. While at least one device is attached,
+ * or the {@link WarmLinkCache} keeps a link open, the service runs in the foreground, so the
+ * process is kept alive. The service stops when the idle timeout closes the last warm link.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public class LockService extends Service {
+    private static final String CHANNEL_ID = "connections";
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * The policy is shared, so that the failure history of each device is kept
+     * between connections.
+     */
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy.Builder().build();
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Connection> connections = new HashMap<>();
+    /**
+     * Posted rather than run, as attach() takes a link from the cache before the connection
+     * is added.
+     */
+    private final Runnable foregroundUpdate = this::updateForeground;
+    private boolean foreground;
+
+    public class LocalBinder extends Binder {
+        @NonNull
+        public LockService getService() {
+            return LockService.this;
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final BluetoothDevice device;
+        private final BlinkyManager manager;
+        @Nullable
+        private ConnectRequest connectRequest;
+        private int clients;
+        private int retries;
+
+        private Connection(@NonNull final BluetoothDevice device,
+                           @NonNull final BlinkyManager manager) {
+            this.device = device;
+            this.manager = manager;
+        }
+
+        /**
+         * Makes a single connection attempt. On failure, the next attempt is scheduled with
+         * a backoff, as long as the retry budget of the device allows.
+         */
+        @Override
+        public void run() {
+            final String address = device.getAddress();
+            connectRequest = manager.connectLock(device)
+                    .timeout(RETRY_POLICY.getConnectTimeout())
+                    .useAutoConnect(false)
+                    .done(d -> RETRY_POLICY.onAttempt(address, true))
+                    .fail((d, status) -> {
+                        RETRY_POLICY.onAttempt(address, false);
+                        if (clients > 0 && retries < RETRY_POLICY.getRetryBudget(address)) {
+                            retries++;
+                            RETRY_POLICY.onRetry(address);
+                            handler.postDelayed(this, RETRY_POLICY.getBackoff(retries));
+                        }
+                    })
+                    .then(d -> connectRequest = null);
+            connectRequest.enqueue();
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        final WarmLinkCache cache = WarmLinkCache.getInstance();
+        cache.setIdleTimeout(getResources().getInteger(R.integer.warm_link_idle_timeout));
+        cache.setMaxLinks(getResources().getInteger(R.integer.warm_link_max_count));
+        cache.setListener(count -> {
+            handler.removeCallbacks(foregroundUpdate);
+            handler.post(foregroundUpdate);
+        });
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(final Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(final Intent intent, final int flags, final int startId) {
+        // The service is started only to be kept in the foreground.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        for (final Connection connection : connections.values()) {
+            handler.removeCallbacks(connection);
+            connection.manager.close();
+        }
+        connections.clear();
+        handler.removeCallbacks(foregroundUpdate);
+        // Warm links are left to the idle timeout.
+        WarmLinkCache.getInstance().setListener(null);
+    }
+
+    /**
+     * Attaches to the given device. If the device is already attached, its manager is returned.
+     * Otherwise, a warm link or a speculative connection is used, if available, or a new
+     * connection is started.
+     *
+     * @param device the lock.
+     * @param name   the device name, used for logging.
+     * @return The manager of the device.
+     */
+    @MainThread
+    @NonNull
+    public BlinkyManager attach(@NonNull final BluetoothDevice device, @Nullable final String name) {
+        final String address = device.getAddress();
+        Connection connection = connections.get(address);
+        if (connection == null) {
+            final LogSession logSession = Logger.newSession(this, null, address, name);
+            if (LockRegistry.getInstance(this).addLock(address, name))
+                BackgroundScanner.refresh(this);
+            BlinkyManager manager = WarmLinkCache.getInstance().acquire(address);
+            if (manager == null) {
+                // The scanner may have started connecting to this device already.
+                manager = SpeculativeConnector.getInstance().claim(address);
+            }
+            if (manager == null)
+                manager = new BlinkyManager(this);
+            // A claimed speculative connection may still be in progress, so it is connected
+            // again with the timeout and retry policy of the service.
+            final boolean connect = !manager.isConnected();
+            manager.setLogger(logSession);
+            manager.setUnlockTimeout(RETRY_POLICY.getUnlockTimeout());
+
+            connection = new Connection(device, manager);
+            connections.put(address, connection);
+            if (connect)
+                connection.run();
+        }
+        connection.clients++;
+        updateForeground();
+        return connection.manager;
+    }
+
+    /**
+     * Reconnects to the device. If this device was not supported, its services were cleared
+     * on disconnection, so reconnection may help.
+     *
+     * @param address the device address.
+     */
+    @MainThread
+    public void reconnect(@NonNull final String address) {
+        final Connection connection = connections.get(address);
+        if (connection != null) {
+            handler.removeCallbacks(connection);
+            connection.retries = 0;
+            connection.run();
+        }
+    }
+
+    /**
+     * Detaches from the given device. When the last client detaches, the connection is handed
+     * over to the {@link WarmLinkCache}, which decides whether to keep it open.
+     *
+     * @param address the device address.
+     */
+    @MainThread
+    public void detach(@NonNull final String address) {
+        final Connection connection = connections.get(address);
+        if (connection == null || --connection.clients > 0)
+            return;
+
+        connections.remove(address);
+        handler.removeCallbacks(connection);
+        if (connection.connectRequest != null) {
+            connection.connectRequest.cancelPendingConnection();
+        } else if (connection.manager.isConnected()) {
+            WarmLinkCache.getInstance().release(address, connection.manager);
+        } else {
+            // A claimed speculative connection may still be in progress.
+            connection.manager.close();
+        }
+        updateForeground();
+    }
+
+    private void updateForeground() {
+        if (!connections.isEmpty() || WarmLinkCache.getInstance().size() > 0) {
+            if (!foreground) {
+                // Being started allows the service to outlive its clients.
+                startService(new Intent(this, LockService.class));
+                foreground = true;
+            }
+            startForeground(NOTIFICATION_ID, createNotification());
+        } else if (foreground) {
+            foreground = false;
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    @NonNull
+    private Notification createNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            final NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager.getNotificationChannel(CHANNEL_ID) == null) {
+                manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                        getString(R.string.channel_connections), NotificationManager.IMPORTANCE_LOW));
+            }
+        }
+        final Intent intent = new Intent(this, ScannerActivity.class);
+        final int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+        final PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent, flags);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.notification_connections,
+                        connections.size() + WarmLinkCache.getInstance().size()))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+}
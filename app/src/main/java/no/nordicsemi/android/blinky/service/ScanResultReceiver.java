@@ -0,0 +1,59 @@
+package no.nordicsemi.android.blinky.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.List;
+
+import no.nordicsemi.android.blinky.utils.FlightRecorder;
+import no.nordicsemi.android.blinky.viewmodels.DevicesLiveData;
+import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * Receives results of the background scan, see {@link BackgroundScanner}, and updates the
+ * {@link LockRegistry}. The receiver does not start any UI.
+ */
+public class ScanResultReceiver extends BroadcastReceiver {
+    private static final String TAG = "ScanResultReceiver";
+    /* package */ static final String ACTION_SCAN_RESULT = "no.nordicsemi.android.blinky.ACTION_SCAN_RESULT";
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        final long start = System.nanoTime();
+        final FlightRecorder recorder = FlightRecorder.getInstance();
+
+        final int errorCode = intent.getIntExtra(BluetoothLeScannerCompat.EXTRA_ERROR_CODE, 0);
+        if (errorCode != 0) {
+            Log.w(TAG, "Background scan failed with code " + errorCode);
+            recorder.record(FlightRecorder.EVENT_SCAN_FAILED, 0, errorCode);
+            return;
+        }
+
+        final List<ScanResult> results =
+                intent.getParcelableArrayListExtra(BluetoothLeScannerCompat.EXTRA_LIST_SCAN_RESULT);
+        if (results == null)
+            return;
+
+        final LockRegistry registry = LockRegistry.getInstance(context);
+        final long now = System.currentTimeMillis();
+        boolean added = false;
+        for (final ScanResult result : results) {
+            final String address = result.getDevice().getAddress();
+            // A lock matched by its name may have a new address.
+            if (!registry.isKnown(address) && DevicesLiveData.isLock(result)) {
+                added |= registry.addLock(address, result.getScanRecord().getDeviceName());
+            }
+            registry.onLockSeen(address, result.getRssi(), now);
+        }
+        if (added)
+            BackgroundScanner.refresh(context);
+
+        final long processingTime = System.nanoTime() - start;
+        BackgroundScanner.onWakeUp(context, results.size(), processingTime);
+        recorder.record(FlightRecorder.EVENT_BACKGROUND_SCAN, 0, results.size());
+        Log.d(TAG, results.size() + " results processed in " + processingTime / 1000 + " us");
+    }
+}
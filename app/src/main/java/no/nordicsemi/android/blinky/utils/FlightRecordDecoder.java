@@ -0,0 +1,64 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Decodes a file written by {@link FlightRecorder.Snapshot} into text.
+ * <p>
+ * A command line tool running the decoder on a file pulled from the device,
+ * FlightRecordDecoderMain, is in the unit test sources, so it is not shipped with the app.
+ */
+public final class FlightRecordDecoder {
+    private static final String[] EVENT_NAMES = {
+            "?", "CONNECT_REQUESTED", "SERVICES_VALIDATED", "INITIALIZED",
+            "SERVICES_INVALIDATED", "NOTIFICATION", "WRITE", "UNLOCK_RESULT", "UNLOCK_TIMEOUT",
+            "SCAN_BATCH", "SCAN_STARTED", "SCAN_STOPPED", "SCAN_FAILED", "STATE_CHANGED",
+            "SESSION_STATE", "BACKGROUND_SCAN", "SCAN_RETRY", "SCAN_RECOVERED"
+    };
+
+    private FlightRecordDecoder() {
+        // Utility class.
+    }
+
+    /**
+     * Decodes the records and prints one line per record, with the time relative to the
+     * oldest record.
+     */
+    public static void decode(@NonNull final InputStream stream,
+                              @NonNull final PrintStream out) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != FlightRecorder.MAGIC)
+            throw new IOException("Not a flight recorder file");
+        final int version = in.readInt();
+        if (version != FlightRecorder.VERSION)
+            throw new IOException("Unsupported version: " + version);
+
+        final int count = in.readInt();
+        long start = 0;
+        for (int i = 0; i < count; i++) {
+            final long time = in.readLong();
+            final byte type = in.readByte();
+            final long device = in.readLong();
+            final int payload = in.readInt();
+            if (i == 0)
+                start = time;
+            final String name = type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : "?" + type;
+            out.println(String.format(Locale.US, "%12.3f ms  %-20s %s  0x%08X",
+                    (time - start) / 1e6, name, address(device), payload));
+        }
+    }
+
+    @NonNull
+    private static String address(final long key) {
+        if (key == 0)
+            return "-----------------";
+        return MacAddress.toString(key);
+    }
+}
@@ -0,0 +1,165 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size, in-memory recorder of BLE events.
+ * <p>
+ * Records are kept in preallocated parallel arrays of primitives, so recording an event
+ * does not allocate and takes a few nanoseconds. When the ring is full, the oldest records
+ * are overwritten. A {@link Snapshot} of the ring can be written to a file and decoded using
+ * {@link FlightRecordDecoder}.
+ * <p>
+ * Writers claim slots with an atomic counter and do not block each other. A snapshot taken
+ * while events are being recorded may contain a partially written newest record.
+ * <p>
+ * This class does not depend on Android API, so the decoder can run on any JVM.
+ */
+public final class FlightRecorder {
+    /* package */ static final int MAGIC = 0x424C4652; // "BLFR"
+    /* package */ static final int VERSION = 1;
+    private static final int CAPACITY = 4096; // must be a power of 2
+
+    // Event types
+    public static final byte EVENT_CONNECT_REQUESTED = 1;
+    public static final byte EVENT_SERVICES_VALIDATED = 2;
+    public static final byte EVENT_INITIALIZED = 3;
+    public static final byte EVENT_SERVICES_INVALIDATED = 4;
+    /** Payload: the 2-byte opcode received. */
+    public static final byte EVENT_NOTIFICATION = 5;
+    /** Payload: the first 4 bytes written. */
+    public static final byte EVENT_WRITE = 6;
+    /** Payload: 1 if unlocked, 0 otherwise. */
+    public static final byte EVENT_UNLOCK_RESULT = 7;
+    public static final byte EVENT_UNLOCK_TIMEOUT = 8;
+    /** Payload: number of results in the batch. */
+    public static final byte EVENT_SCAN_BATCH = 9;
+    /** Payload: the settings level, see ScanRecoveryPolicy. */
+    public static final byte EVENT_SCAN_STARTED = 10;
+    public static final byte EVENT_SCAN_STOPPED = 11;
+    /** Payload: the error code. */
+    public static final byte EVENT_SCAN_FAILED = 12;
+    /** Payload: the new state. */
+    public static final byte EVENT_STATE_CHANGED = 13;
+    /** Payload: the ordinal of the new session state. */
+    public static final byte EVENT_SESSION_STATE = 14;
+    /** Payload: number of results delivered. */
+    public static final byte EVENT_BACKGROUND_SCAN = 15;
+    /** Payload: the delay before the scan is restarted, in ms, or -1 if given up. */
+    public static final byte EVENT_SCAN_RETRY = 16;
+    /** Payload: the time from the first failure until a scan result, in ms. */
+    public static final byte EVENT_SCAN_RECOVERED = 17;
+
+    private static final FlightRecorder INSTANCE = new FlightRecorder();
+
+    private final long[] times = new long[CAPACITY];
+    private final byte[] types = new byte[CAPACITY];
+    private final long[] devices = new long[CAPACITY];
+    private final int[] payloads = new int[CAPACITY];
+    private final AtomicLong next = new AtomicLong();
+
+    @NonNull
+    public static FlightRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    private FlightRecorder() {
+        // Use getInstance().
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param type    one of the EVENT_* constants.
+     * @param device  the device key, see {@link #key(String)}, or 0.
+     * @param payload event specific payload.
+     */
+    public void record(final byte type, final long device, final int payload) {
+        final int index = (int) (next.getAndIncrement() & (CAPACITY - 1));
+        times[index] = System.nanoTime();
+        types[index] = type;
+        devices[index] = device;
+        payloads[index] = payload;
+    }
+
+    /**
+     * Returns the device key for the given MAC address, e.g. "AA:BB:CC:DD:EE:FF".
+     * The key is the address as a 48-bit number.
+     */
+    public static long key(@NonNull final String address) {
+        return MacAddress.toLong(address);
+    }
+
+    /**
+     * Returns up to 4 first bytes of the given value as a big-endian int.
+     */
+    public static int payload(@NonNull final byte[] value) {
+        int payload = 0;
+        for (int i = 0; i < 4 && i < value.length; i++)
+            payload = payload << 8 | (value[i] & 0xFF);
+        return payload;
+    }
+
+    /**
+     * Copies the current content of the ring, oldest record first.
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        final long end = next.get();
+        final int count = (int) Math.min(end, CAPACITY);
+        final Snapshot snapshot = new Snapshot(count);
+        for (int i = 0; i < count; i++) {
+            final int index = (int) ((end - count + i) & (CAPACITY - 1));
+            snapshot.times[i] = times[index];
+            snapshot.types[i] = types[index];
+            snapshot.devices[i] = devices[index];
+            snapshot.payloads[i] = payloads[index];
+        }
+        return snapshot;
+    }
+
+    public static final class Snapshot {
+        private final long[] times;
+        private final byte[] types;
+        private final long[] devices;
+        private final int[] payloads;
+
+        private Snapshot(final int count) {
+            times = new long[count];
+            types = new byte[count];
+            devices = new long[count];
+            payloads = new int[count];
+        }
+
+        /**
+         * Writes the snapshot in the binary format read by {@link FlightRecordDecoder}.
+         */
+        public void writeTo(@NonNull final OutputStream stream) throws IOException {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(times.length);
+            for (int i = 0; i < times.length; i++) {
+                out.writeLong(times[i]);
+                out.writeByte(types[i]);
+                out.writeLong(devices[i]);
+                out.writeInt(payloads[i]);
+            }
+            out.flush();
+        }
+
+        public void writeTo(@NonNull final File file) throws IOException {
+            try (final OutputStream stream = new FileOutputStream(file)) {
+                writeTo(stream);
+            }
+        }
+    }
+}
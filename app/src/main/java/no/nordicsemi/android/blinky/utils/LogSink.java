@@ -0,0 +1,220 @@
+package no.nordicsemi.android.blinky.utils;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import no.nordicsemi.android.log.ILogSession;
+import no.nordicsemi.android.log.LogContract;
+
+/**
+ * Asynchronous log sink for nRF Logger.
+ * <p>
+ * {@link #log(ILogSession, int, String)} puts the entry on a bounded, lock-free ring buffer and
+ * returns immediately. A background thread drains the buffer and writes the entries to the
+ * nRF Logger content provider using bulk inserts, so BLE callback threads never block on
+ * provider I/O. When the buffer is full, new entries are dropped and counted.
+ * <p>
+ * The ring buffer is a bounded multi-producer, single-consumer queue, where each slot has
+ * a sequence number telling whether it may be written or read. The background thread parks
+ * while the buffer is empty and is unparked by the producer of the next entry.
+ */
+public class LogSink {
+    private static final String TAG = "LogSink";
+    private static final int CAPACITY = 1024; // must be a power of 2
+    private static final int MAX_BATCH = 128;
+
+    private static LogSink instance;
+
+    private static final class Entry {
+        private final ILogSession session;
+        private final int level;
+        private final String message;
+        private final long time;
+
+        private Entry(@NonNull final ILogSession session, final int level,
+                      @NonNull final String message, final long time) {
+            this.session = session;
+            this.level = level;
+            this.message = message;
+            this.time = time;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    /** Whether the flusher thread is, or is about to be, parked. */
+    private final AtomicBoolean parked = new AtomicBoolean();
+    /** Read position, used only by the flusher thread. */
+    private long head;
+    private long reportedDrops;
+    private volatile int minPriority = Log.VERBOSE;
+    private final Thread flusher;
+
+    @NonNull
+    public static synchronized LogSink getInstance() {
+        if (instance == null)
+            instance = new LogSink();
+        return instance;
+    }
+
+    private LogSink() {
+        for (int i = 0; i < CAPACITY; i++)
+            sequences.set(i, i);
+        flusher = new Thread(this::flushLoop, TAG);
+        flusher.setDaemon(true);
+        flusher.setPriority(Thread.MIN_PRIORITY);
+        flusher.start();
+    }
+
+    /**
+     * Sets the minimum priority of entries written to nRF Logger.
+     *
+     * @param priority one of {@link Log} priority constants.
+     */
+    public void setMinPriority(final int priority) {
+        minPriority = priority;
+    }
+
+    /**
+     * Returns whether an entry with the given priority would be written. Call sites should
+     * check this before building the message.
+     */
+    public boolean isLoggable(final int priority) {
+        return priority >= minPriority;
+    }
+
+    /**
+     * Returns the number of entries dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of entries written to nRF Logger.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Enqueues the entry. This method never blocks.
+     *
+     * @param session  the log session, or null, if nRF Logger is not installed.
+     * @param priority the {@link Log} priority.
+     * @param message  the message.
+     */
+    public void log(@Nullable final ILogSession session, final int priority,
+                    @NonNull final String message) {
+        if (session == null || priority < minPriority)
+            return;
+
+        final Entry entry = new Entry(session,
+                LogContract.Log.Level.fromPriority(priority), message, System.currentTimeMillis());
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) (position & (CAPACITY - 1));
+            final long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, entry);
+                    sequences.set(index, position + 1);
+                    // Only the producer which finds the flusher parked wakes it up.
+                    if (parked.get() && parked.compareAndSet(true, false))
+                        LockSupport.unpark(flusher);
+                    return;
+                }
+            } else if (sequence < position) {
+                // The buffer is full. Drop rather than wait for the flusher.
+                dropped.incrementAndGet();
+                return;
+            }
+            // Another producer took this position, try the next one.
+        }
+    }
+
+    private void flushLoop() {
+        final List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            drain(batch);
+            if (batch.isEmpty()) {
+                parked.set(true);
+                // An entry published before the flag was set would not unpark the thread.
+                if (!hasPending())
+                    LockSupport.park(this);
+                parked.set(false);
+                continue;
+            }
+            write(batch);
+            batch.clear();
+
+            final long drops = dropped.get();
+            if (drops != reportedDrops) {
+                Log.w(TAG, (drops - reportedDrops) + " log entries dropped");
+                reportedDrops = drops;
+            }
+        }
+    }
+
+    private boolean hasPending() {
+        return sequences.get((int) (head & (CAPACITY - 1))) == head + 1;
+    }
+
+    private void drain(@NonNull final List<Entry> batch) {
+        while (batch.size() < MAX_BATCH) {
+            final int index = (int) (head & (CAPACITY - 1));
+            if (sequences.get(index) != head + 1)
+                return;
+            batch.add(slots.get(index));
+            slots.set(index, null);
+            sequences.set(index, head + CAPACITY);
+            head++;
+        }
+    }
+
+    /**
+     * Writes the batch, using one bulk insert for each run of entries with the same session.
+     */
+    private void write(@NonNull final List<Entry> batch) {
+        int start = 0;
+        while (start < batch.size()) {
+            final ILogSession session = batch.get(start).session;
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).session == session)
+                end++;
+
+            final ContentValues[] values = new ContentValues[end - start];
+            for (int i = start; i < end; i++) {
+                final Entry entry = batch.get(i);
+                final ContentValues value = new ContentValues(3);
+                value.put(LogContract.Log.TIME, entry.time);
+                value.put(LogContract.Log.LEVEL, entry.level);
+                value.put(LogContract.Log.DATA, entry.message);
+                values[i - start] = value;
+            }
+            try {
+                session.getContext().getContentResolver()
+                        .bulkInsert(session.getSessionEntriesUri(), values);
+                written.addAndGet(values.length);
+            } catch (final Exception e) {
+                Log.e(TAG, "Writing log entries failed", e);
+            }
+            start = end;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Conversions between MAC addresses, e.g. "AA:BB:CC:DD:EE:FF", and 48-bit numbers.
+ */
+public class MacAddress {
+
+    private MacAddress() {
+        // Utility class.
+    }
+
+    private final static char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Returns the address as a 48-bit number. Characters other than hex digits, e.g. colons,
+     * are skipped.
+     */
+    public static long toLong(@NonNull final String address) {
+        long value = 0;
+        for (int i = 0; i < address.length(); i++) {
+            final int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0)
+                value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the lower 48 bits of the value as an address in upper case, e.g. "AA:BB:CC:DD:EE:FF".
+     */
+    @NonNull
+    public static String toString(final long value) {
+        final char[] chars = new char[17];
+        for (int i = 0, shift = 40; shift >= 0; shift -= 8) {
+            final int v = (int) (value >> shift) & 0xFF;
+            chars[i++] = HEX_ARRAY[v >>> 4];
+            chars[i++] = HEX_ARRAY[v & 0x0F];
+            if (shift > 0)
+                chars[i++] = ':';
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,258 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Matches device names against a set of glob patterns in a single pass over the name.
+ * <p>
+ * A pattern may contain '*', matching any sequence of characters, and '?', matching any single
+ * character. All other characters match themselves, case sensitive. A prefix is written as
+ * "YX_*", a suffix as "*_LOCK" and an exact name as "Door 1". A name matches if it matches any
+ * of the patterns.
+ * <p>
+ * The patterns are compiled into one deterministic automaton, so the cost of a match depends
+ * on the length of the name, not on the number of patterns. Matching does not allocate and
+ * stops as soon as the result is known, e.g. after "YX_" for the pattern "YX_*".
+ * Instances are immutable and thread safe.
+ */
+public final class NamePatternMatcher {
+    /** Compiling fails if the automaton would have more states. */
+    private static final int MAX_STATES = 4096;
+    private static final char ANY_SEQUENCE = '*';
+    private static final char ANY_CHAR = '?';
+
+    /** State which does not match, whatever follows. */
+    private static final int REJECT = 0;
+    /** State which matches, whatever follows. */
+    private static final int ACCEPT = 1;
+
+    /** Character class by ASCII character. Class 0 is for characters not used in patterns. */
+    private final int[] asciiClasses = new int[128];
+    /** Non ASCII characters used in patterns, sorted, and their classes. */
+    private final char[] otherChars;
+    private final int[] otherClasses;
+    private final int classCount;
+    /** Next state by state and character class. */
+    private final int[] transitions;
+    private final boolean[] accepting;
+    /** States which match, whatever follows. */
+    private final boolean[] decided;
+    private final int initialState;
+    private final String[] patterns;
+
+    private NamePatternMatcher(@NonNull final String[] patterns) {
+        this.patterns = patterns;
+
+        // Group characters into classes, so that the table does not need a column per char.
+        final TreeSet<Character> chars = new TreeSet<>();
+        for (final String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                if (c != ANY_SEQUENCE && c != ANY_CHAR)
+                    chars.add(c);
+            }
+        }
+        final List<Character> other = new ArrayList<>();
+        int nextClass = 1;
+        for (final char c : chars) {
+            if (c < 128)
+                asciiClasses[c] = nextClass++;
+            else
+                other.add(c);
+        }
+        otherChars = new char[other.size()];
+        otherClasses = new int[other.size()];
+        for (int i = 0; i < other.size(); i++) {
+            otherChars[i] = other.get(i);
+            otherClasses[i] = nextClass++;
+        }
+        classCount = nextClass;
+
+        // NFA positions: position j of pattern p means that p[0..j) has been matched.
+        final int[] offsets = new int[patterns.length + 1];
+        for (int p = 0; p < patterns.length; p++)
+            offsets[p + 1] = offsets[p] + patterns[p].length() + 1;
+
+        // A position followed only by '*' tokens matches whatever follows. All sets containing
+        // such a position are replaced with the ACCEPT set, so that states are not multiplied
+        // by the positions of other patterns once a name has matched.
+        final int acceptPosition = offsets[patterns.length];
+        final BitSet sticky = new BitSet();
+        for (int p = 0; p < patterns.length; p++) {
+            final String pattern = patterns[p];
+            for (int i = pattern.length() - 1; i >= 0 && pattern.charAt(i) == ANY_SEQUENCE; i--)
+                sticky.set(offsets[p] + i);
+        }
+
+        // Subset construction. The DFA state 0 is the empty set, i.e. REJECT, and state 1 is
+        // the ACCEPT set.
+        final Map<BitSet, Integer> states = new HashMap<>();
+        final List<BitSet> queue = new ArrayList<>();
+        final BitSet empty = new BitSet();
+        final BitSet accept = new BitSet();
+        accept.set(acceptPosition);
+        states.put(empty, REJECT);
+        queue.add(empty);
+        states.put(accept, ACCEPT);
+        queue.add(accept);
+        final BitSet initial = new BitSet();
+        for (int p = 0; p < patterns.length; p++)
+            initial.set(offsets[p]);
+        closure(initial, offsets, sticky, acceptPosition);
+        initialState = state(initial, states, queue);
+
+        int[] table = new int[16 * classCount];
+        for (int s = 0; s < queue.size(); s++) {
+            final BitSet from = queue.get(s);
+            if ((s + 1) * classCount > table.length)
+                table = Arrays.copyOf(table, table.length * 2);
+            for (int cls = 0; cls < classCount; cls++) {
+                if (s == ACCEPT) {
+                    table[s * classCount + cls] = ACCEPT;
+                    continue;
+                }
+                final BitSet to = new BitSet();
+                for (int p = 0; p < patterns.length; p++) {
+                    final String pattern = patterns[p];
+                    for (int pos = from.nextSetBit(offsets[p]); pos >= 0 && pos < offsets[p + 1] - 1;
+                         pos = from.nextSetBit(pos + 1)) {
+                        final char c = pattern.charAt(pos - offsets[p]);
+                        if (c == ANY_SEQUENCE)
+                            to.set(pos);
+                        else if (c == ANY_CHAR || (cls != 0 && classOf(c) == cls))
+                            to.set(pos + 1);
+                    }
+                }
+                closure(to, offsets, sticky, acceptPosition);
+                table[s * classCount + cls] = state(to, states, queue);
+            }
+        }
+        final int count = queue.size();
+        transitions = Arrays.copyOf(table, count * classCount);
+
+        accepting = new boolean[count];
+        for (int s = 0; s < count; s++) {
+            final BitSet set = queue.get(s);
+            accepting[s] = s == ACCEPT;
+            for (int p = 0; p < patterns.length && !accepting[s]; p++)
+                accepting[s] = set.get(offsets[p + 1] - 1);
+        }
+
+        // A state is decided if it accepts and every transition leads to a decided state.
+        decided = accepting.clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int s = 0; s < count; s++) {
+                if (!decided[s])
+                    continue;
+                for (int cls = 0; cls < classCount; cls++) {
+                    if (!decided[transitions[s * classCount + cls]]) {
+                        decided[s] = false;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles the patterns.
+     *
+     * @param patterns the glob patterns.
+     * @return The matcher.
+     * @throws IllegalArgumentException if the patterns are too complex.
+     */
+    @NonNull
+    public static NamePatternMatcher compile(@NonNull final Collection<String> patterns) {
+        return new NamePatternMatcher(patterns.toArray(new String[0]));
+    }
+
+    @NonNull
+    public static NamePatternMatcher compile(@NonNull final String... patterns) {
+        return new NamePatternMatcher(patterns.clone());
+    }
+
+    /**
+     * Returns whether the name matches any of the patterns.
+     */
+    public boolean matches(@NonNull final CharSequence name) {
+        int state = initialState;
+        final int length = name.length();
+        for (int i = 0; i < length; i++) {
+            if (state == REJECT || decided[state])
+                break;
+            state = transitions[state * classCount + classOf(name.charAt(i))];
+        }
+        return accepting[state];
+    }
+
+    /**
+     * Returns the number of states of the compiled automaton.
+     */
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    @NonNull
+    public String[] getPatterns() {
+        return patterns.clone();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return Arrays.toString(patterns);
+    }
+
+    private int classOf(final char c) {
+        if (c < 128)
+            return asciiClasses[c];
+        final int i = Arrays.binarySearch(otherChars, c);
+        return i >= 0 ? otherClasses[i] : 0;
+    }
+
+    /**
+     * Adds the positions following '*' tokens, which may match an empty sequence.
+     * A set with a sticky position is replaced with the ACCEPT set.
+     */
+    private void closure(@NonNull final BitSet set, @NonNull final int[] offsets,
+                         @NonNull final BitSet sticky, final int acceptPosition) {
+        if (set.intersects(sticky)) {
+            set.clear();
+            set.set(acceptPosition);
+            return;
+        }
+        for (int p = 0; p < patterns.length; p++) {
+            final String pattern = patterns[p];
+            for (int pos = set.nextSetBit(offsets[p]); pos >= 0 && pos < offsets[p + 1] - 1;
+                 pos = set.nextSetBit(pos + 1)) {
+                if (pattern.charAt(pos - offsets[p]) == ANY_SEQUENCE)
+                    set.set(pos + 1);
+            }
+        }
+    }
+
+    private static int state(@NonNull final BitSet set, @NonNull final Map<BitSet, Integer> states,
+                             @NonNull final List<BitSet> queue) {
+        Integer state = states.get(set);
+        if (state == null) {
+            if (queue.size() == MAX_STATES)
+                throw new IllegalArgumentException("Patterns too complex");
+            state = queue.size();
+            states.put(set, state);
+            queue.add(set);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,91 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RSSI history of devices, e.g. for site surveys.
+ * <p>
+ * Each device has an {@link RssiSeries} with bounded memory, under 50 kB when full. The number
+ * of devices is limited as well, and the device not updated for the longest time is removed
+ * when a new one is added.
+ */
+public final class RssiHistory {
+    private static final int MAX_DEVICES = 64;
+
+    private static final RssiHistory INSTANCE = new RssiHistory();
+
+    private final LinkedHashMap<String, RssiSeries> series =
+            new LinkedHashMap<String, RssiSeries>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, RssiSeries> eldest) {
+                    return size() > MAX_DEVICES;
+                }
+            };
+
+    @NonNull
+    public static RssiHistory getInstance() {
+        return INSTANCE;
+    }
+
+    private RssiHistory() {
+        // Use getInstance().
+    }
+
+    /**
+     * Adds a sample of the device.
+     *
+     * @param address the device address.
+     * @param time    the time of the sample, in ms, e.g. from the scan result timestamp.
+     * @param rssi    the RSSI, in dBm.
+     */
+    public void add(@NonNull final String address, final long time, final int rssi) {
+        RssiSeries deviceSeries;
+        synchronized (series) {
+            deviceSeries = series.get(address);
+            if (deviceSeries == null) {
+                deviceSeries = new RssiSeries();
+                series.put(address, deviceSeries);
+            }
+        }
+        deviceSeries.add(time, rssi);
+    }
+
+    /**
+     * Returns the history of the device, or null if there are no samples.
+     */
+    @Nullable
+    public RssiSeries get(@NonNull final String address) {
+        synchronized (series) {
+            return series.get(address);
+        }
+    }
+
+    public void clear() {
+        synchronized (series) {
+            series.clear();
+        }
+    }
+
+    /**
+     * Returns the history of all devices as CSV, with a header line.
+     *
+     * @param tier one of the TIER_* constants in {@link RssiSeries}.
+     */
+    @NonNull
+    public String exportCsv(final int tier) {
+        final List<Map.Entry<String, RssiSeries>> entries;
+        synchronized (series) {
+            entries = new ArrayList<>(series.entrySet());
+        }
+        final StringBuilder builder = new StringBuilder("address,time,rssi,min,max\n");
+        for (final Map.Entry<String, RssiSeries> entry : entries)
+            entry.getValue().exportCsv(entry.getKey(), tier, builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,245 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * RSSI history of a single device.
+ * <p>
+ * Samples are kept in three tiers: raw samples, and averages over 1 second and 1 minute,
+ * with the minimum and maximum in each interval. Each tier keeps its samples in fixed-size
+ * segments of primitive arrays, allocated when needed, up to a limit. When a tier is full,
+ * its oldest segment is reused, so the memory used by a device is bounded and, once the
+ * limit has been reached, adding a sample does not allocate.
+ * <p>
+ * Samples must be added in order of time. This class is thread safe.
+ */
+public final class RssiSeries {
+    public static final int TIER_RAW = 0;
+    public static final int TIER_SECOND = 1;
+    public static final int TIER_MINUTE = 2;
+
+    private static final int SEGMENT_SIZE = 128;
+    /** Segments by tier: ~1000 raw samples, 32 minutes of seconds and 25 hours of minutes. */
+    private static final int[] MAX_SEGMENTS = { 8, 15, 12 };
+    private static final long[] INTERVALS = { 0, 1000, 60000 }; // [ms]
+
+    private static final class Segment {
+        private final long[] times = new long[SEGMENT_SIZE];
+        private final byte[] values = new byte[SEGMENT_SIZE];
+        /** Minimum and maximum, null in the raw tier. */
+        private final byte[] mins;
+        private final byte[] maxs;
+        private int size;
+
+        private Segment(final boolean aggregated) {
+            mins = aggregated ? new byte[SEGMENT_SIZE] : null;
+            maxs = aggregated ? new byte[SEGMENT_SIZE] : null;
+        }
+    }
+
+    private static final class Tier {
+        private final Segment[] segments;
+        private final boolean aggregated;
+        /** Index of the oldest segment and number of segments in use. */
+        private int first;
+        private int count;
+
+        private Tier(final int maxSegments, final boolean aggregated) {
+            this.segments = new Segment[maxSegments];
+            this.aggregated = aggregated;
+        }
+
+        private void add(final long time, final int value, final int min, final int max) {
+            Segment segment = count > 0 ? segments[(first + count - 1) % segments.length] : null;
+            if (segment == null || segment.size == SEGMENT_SIZE) {
+                if (count == segments.length) {
+                    // Reuse the oldest segment.
+                    segment = segments[first];
+                    first = (first + 1) % segments.length;
+                } else {
+                    final int index = (first + count++) % segments.length;
+                    if (segments[index] == null)
+                        segments[index] = new Segment(aggregated);
+                    segment = segments[index];
+                }
+                segment.size = 0;
+            }
+            final int i = segment.size++;
+            segment.times[i] = time;
+            segment.values[i] = (byte) value;
+            if (aggregated) {
+                segment.mins[i] = (byte) min;
+                segment.maxs[i] = (byte) max;
+            }
+        }
+    }
+
+    /** Samples of the current interval of an aggregated tier. */
+    private static final class Bucket {
+        private long start = -1;
+        private int sum;
+        private int count;
+        private int min;
+        private int max;
+    }
+
+    private final Tier[] tiers = new Tier[3];
+    private final Bucket[] buckets = { null, new Bucket(), new Bucket() };
+    private long lastTime = Long.MIN_VALUE;
+
+    public RssiSeries() {
+        for (int t = 0; t < tiers.length; t++)
+            tiers[t] = new Tier(MAX_SEGMENTS[t], t != TIER_RAW);
+    }
+
+    /**
+     * Adds a sample. A sample older than the last one is ignored.
+     *
+     * @param time the time of the sample, in ms.
+     * @param rssi the RSSI, in dBm.
+     */
+    public synchronized void add(final long time, final int rssi) {
+        if (time < lastTime)
+            return;
+        lastTime = time;
+        tiers[TIER_RAW].add(time, rssi, rssi, rssi);
+        for (int t = TIER_SECOND; t <= TIER_MINUTE; t++) {
+            final Bucket bucket = buckets[t];
+            final long start = time - time % INTERVALS[t];
+            if (bucket.start != start) {
+                flush(t);
+                bucket.start = start;
+                bucket.min = rssi;
+                bucket.max = rssi;
+            }
+            bucket.sum += rssi;
+            bucket.count++;
+            bucket.min = Math.min(bucket.min, rssi);
+            bucket.max = Math.max(bucket.max, rssi);
+        }
+    }
+
+    /**
+     * Returns the number of samples in the tier in the given time range, including the
+     * interval in progress.
+     *
+     * @param tier one of the TIER_* constants.
+     * @param from the start of the range, inclusive, in ms.
+     * @param to   the end of the range, exclusive, in ms.
+     */
+    public synchronized int count(final int tier, final long from, final long to) {
+        return query(tier, from, to, null, null, null, null);
+    }
+
+    /**
+     * Copies samples of the tier in the given time range to the given arrays, oldest first.
+     * The arrays may be null, and at most as many samples as fit are copied. In the raw tier,
+     * the minimum and maximum are the value itself. The interval in progress is included.
+     *
+     * @param tier   one of the TIER_* constants.
+     * @param from   the start of the range, inclusive, in ms.
+     * @param to     the end of the range, exclusive, in ms.
+     * @param times  the times of samples, or the start of intervals, in ms.
+     * @param values the RSSI, or the average RSSI in the interval, in dBm.
+     * @param mins   the minimum RSSI in the interval, in dBm.
+     * @param maxs   the maximum RSSI in the interval, in dBm.
+     * @return The number of samples copied, or found if all arrays are null.
+     */
+    public synchronized int query(final int tier, final long from, final long to,
+                                  final long[] times, final byte[] values,
+                                  final byte[] mins, final byte[] maxs) {
+        final int limit = limit(times, values, mins, maxs);
+        final Tier source = tiers[tier];
+        int n = 0;
+        for (int s = 0; s < source.count && n < limit; s++) {
+            final Segment segment = source.segments[(source.first + s) % source.segments.length];
+            if (segment.size == 0 || segment.times[segment.size - 1] < from)
+                continue;
+            if (segment.times[0] >= to)
+                break;
+            for (int i = lowerBound(segment, from); i < segment.size && n < limit; i++) {
+                final long time = segment.times[i];
+                if (time >= to)
+                    break;
+                final byte value = segment.values[i];
+                copy(n++, time, value, source.aggregated ? segment.mins[i] : value,
+                        source.aggregated ? segment.maxs[i] : value, times, values, mins, maxs);
+            }
+        }
+        final Bucket bucket = buckets[tier];
+        if (bucket != null && bucket.count > 0 && bucket.start >= from && bucket.start < to && n < limit) {
+            copy(n++, bucket.start, (byte) Math.round((float) bucket.sum / bucket.count),
+                    (byte) bucket.min, (byte) bucket.max, times, values, mins, maxs);
+        }
+        return n;
+    }
+
+    /**
+     * Writes the samples of the tier as CSV lines: address, time, RSSI, minimum, maximum.
+     */
+    public synchronized void exportCsv(@NonNull final String address, final int tier,
+                                       @NonNull final StringBuilder out) {
+        final int count = query(tier, Long.MIN_VALUE, Long.MAX_VALUE, null, null, null, null);
+        final long[] times = new long[count];
+        final byte[] values = new byte[count];
+        final byte[] mins = new byte[count];
+        final byte[] maxs = new byte[count];
+        query(tier, Long.MIN_VALUE, Long.MAX_VALUE, times, values, mins, maxs);
+        for (int i = 0; i < count; i++) {
+            out.append(address).append(',').append(times[i]).append(',').append(values[i])
+                    .append(',').append(mins[i]).append(',').append(maxs[i]).append('\n');
+        }
+    }
+
+    private void flush(final int tier) {
+        final Bucket bucket = buckets[tier];
+        if (bucket.count > 0)
+            tiers[tier].add(bucket.start, Math.round((float) bucket.sum / bucket.count),
+                    bucket.min, bucket.max);
+        bucket.sum = 0;
+        bucket.count = 0;
+    }
+
+    private static int limit(final long[] times, final byte[] values,
+                             final byte[] mins, final byte[] maxs) {
+        int limit = Integer.MAX_VALUE;
+        if (times != null)
+            limit = Math.min(limit, times.length);
+        if (values != null)
+            limit = Math.min(limit, values.length);
+        if (mins != null)
+            limit = Math.min(limit, mins.length);
+        if (maxs != null)
+            limit = Math.min(limit, maxs.length);
+        return limit;
+    }
+
+    private static void copy(final int n, final long time, final byte value,
+                             final byte min, final byte max, final long[] times,
+                             final byte[] values, final byte[] mins, final byte[] maxs) {
+        if (times != null)
+            times[n] = time;
+        if (values != null)
+            values[n] = value;
+        if (mins != null)
+            mins[n] = min;
+        if (maxs != null)
+            maxs[n] = max;
+    }
+
+    /**
+     * Returns the index of the first sample in the segment not older than the given time.
+     */
+    private static int lowerBound(@NonNull final Segment segment, final long time) {
+        int low = 0;
+        int high = segment.size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (segment.times[mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,93 @@
+package no.nordicsemi.android.blinky.utils;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.core.os.TraceCompat;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Traces the phases of a cold start, until the first frame is drawn.
+ * <p>
+ * Each phase is a trace section visible in system traces, and its duration is kept, so that
+ * it can be logged and compared between builds. Phases are timed with {@link System#nanoTime()},
+ * which is not simulated in Robolectric tests, unlike {@link SystemClock}. The first frame is
+ * timed from the process start. After the first frame, tracing is disabled, so e.g. recreating
+ * the activity does not add phases.
+ * <p>
+ * Sections must be nested and all methods must be called from the main thread.
+ */
+public final class StartupTracer {
+    private static final String TAG = "StartupTracer";
+    public static final String PHASE_FIRST_FRAME = "First frame";
+
+    private static final Map<String, Long> starts = new HashMap<>();
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+    private static long startTime = -1;
+    private static boolean done;
+
+    private StartupTracer() {
+        // Utility class.
+    }
+
+    @MainThread
+    public static void begin(@NonNull final String phase) {
+        if (done)
+            return;
+        if (startTime < 0)
+            startTime = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ?
+                    Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
+        TraceCompat.beginSection(phase);
+        starts.put(phase, System.nanoTime());
+    }
+
+    @MainThread
+    public static void end(@NonNull final String phase) {
+        final Long start = starts.remove(phase);
+        if (start == null)
+            return;
+        TraceCompat.endSection();
+        phases.put(phase, (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Records the time from the process start until the given view is drawn for the first
+     * time, and logs all phases.
+     */
+    @MainThread
+    public static void reportFirstFrame(@NonNull final View view) {
+        if (done)
+            return;
+        final ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (!done) {
+                    done = true;
+                    phases.put(PHASE_FIRST_FRAME, SystemClock.uptimeMillis() - startTime);
+                    Log.i(TAG, "Startup phases [ms]: " + phases);
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Returns the duration of each completed phase in ms, in the order of completion.
+     */
+    @NonNull
+    @MainThread
+    public static Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+}
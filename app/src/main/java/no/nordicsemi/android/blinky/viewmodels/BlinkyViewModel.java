@@ -1,57 +1,128 @@
 package no.nordicsemi.android.blinky.viewmodels;
 
 import android.app.Application;
-import android.bluetooth.BluetoothDevice;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.io.File;
+import java.io.IOException;
 
-import no.nordicsemi.android.ble.ConnectRequest;
 import no.nordicsemi.android.ble.livedata.state.ConnectionState;
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
 import no.nordicsemi.android.blinky.profile.BlinkyManager;
-import no.nordicsemi.android.log.LogSession;
-import no.nordicsemi.android.log.Logger;
+import no.nordicsemi.android.blinky.service.LockService;
+import no.nordicsemi.android.blinky.utils.FlightRecorder;
 
+/**
+ * The view model attaches to the device using {@link LockService}, which owns the connection.
+ * The LiveData objects of the manager are forwarded synchronously, once the service is bound.
+ */
 public class BlinkyViewModel extends AndroidViewModel {
-	private final BlinkyManager blinkyManager;
-	private BluetoothDevice device;
+	private static final String TAG = "BlinkyViewModel";
+	/**
+	 * Name of the file in the app files directory, to which the flight recorder is dumped
+	 * when unlocking fails.
+	 */
+	private static final String FLIGHT_RECORD_FILE = "flight-recorder.bin";
+
+	private final MediatorLiveData<ConnectionState> connectionState = new MediatorLiveData<>();
+	private final MediatorLiveData<Boolean> connectState = new MediatorLiveData<>();
+	private final SingleLiveEvent<Boolean> unlockSuccess = new SingleLiveEvent<>();
+
+	private DiscoveredBluetoothDevice device;
 	@Nullable
-	private ConnectRequest connectRequest;
+	private LockService service;
+	@Nullable
+	private BlinkyManager blinkyManager;
+	private boolean bound;
+
+	private final BlinkyManager.LockListener lockListener = new BlinkyManager.LockListener() {
+		@Override
+		public void onHandshakeCompleted() {
+			// Handled by connectState.
+		}
+
+		@Override
+		public void onUnlockResult(final boolean success) {
+			setValue(unlockSuccess, success);
+			if (!success)
+				dumpFlightRecorder();
+		}
+
+		@Override
+		public void onUnlockFailed(final int reason) {
+			setValue(unlockSuccess, false);
+			dumpFlightRecorder();
+		}
+
+		@Override
+		public void onSessionLost() {
+			// Handled by connectionState.
+		}
+	};
+
+	private final ServiceConnection serviceConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(final ComponentName name, final IBinder binder) {
+			if (device == null)
+				return;
+			service = ((LockService.LocalBinder) binder).getService();
+			final BlinkyManager manager = service.attach(device.getDevice(), device.getName());
+			blinkyManager = manager;
+			connectionState.addSource(manager.state, connectionState::setValue);
+			connectState.addSource(manager.getConnectState(), connectState::setValue);
+			manager.addLockListener(lockListener);
+		}
+
+		@Override
+		public void onServiceDisconnected(final ComponentName name) {
+			// The service runs in the same process, so this may only happen when
+			// the process is killed.
+			detach();
+		}
+	};
 
 	public BlinkyViewModel(@NonNull final Application application) {
 		super(application);
-		// Initialize the manager.
-		blinkyManager = new BlinkyManager(getApplication());
 	}
 
 	public LiveData<ConnectionState> getConnectionState() {
-		return blinkyManager.state;
+		return connectionState;
 	}
 
 	public LiveData<Boolean> getConnectState() {
-		return blinkyManager.getConnectState();
+		return connectState;
 	}
 
 	public LiveData<Boolean> getUnlockSuccess() {
-		return blinkyManager.getUnlockSuccess();
+		return unlockSuccess;
 	}
 
 	/**
-	 * Connect to the given peripheral.
+	 * Connect to the given peripheral. If a warm link, or a speculative connection, to the
+	 * device is available, it is used instead.
 	 *
 	 * @param target the target device.
 	 */
 	public void connect(@NonNull final DiscoveredBluetoothDevice target) {
 		// Prevent from calling again when called again (screen orientation changed).
 		if (device == null) {
-			device = target.getDevice();
-			final LogSession logSession = Logger
-					.newSession(getApplication(), null, target.getAddress(), target.getName());
-			blinkyManager.setLogger(logSession);
-			reconnect();
+			device = target;
+			final Context context = getApplication();
+			bound = context.bindService(new Intent(context, LockService.class),
+					serviceConnection, Context.BIND_AUTO_CREATE);
 		}
 	}
 
@@ -61,37 +132,72 @@ public class BlinkyViewModel extends AndroidViewModel {
 	 * reconnection may help.
 	 */
 	public void reconnect() {
-		if (device != null) {
-			connectRequest = blinkyManager.connect(device)
-					.retry(3, 100)
-					.useAutoConnect(false)
-					.then(d -> connectRequest = null);
-			connectRequest.enqueue();
+		if (service != null && device != null) {
+			service.reconnect(device.getAddress());
 		}
 	}
 
 	/**
-	 * Disconnect from peripheral.
+	 * Sends a command to unlock.
 	 */
-	private void disconnect() {
-		device = null;
-		if (connectRequest != null) {
-			connectRequest.cancelPendingConnection();
-		} else if (blinkyManager.isConnected()) {
-			blinkyManager.disconnect().enqueue();
+	public void tryUnlock() {
+		if (blinkyManager != null) {
+			blinkyManager.tryUnlock();
 		}
 	}
 
 	/**
-	 * Sends a command to unlock.
+	 * Detaches from the device. The service decides whether to keep the connection open.
 	 */
-	public void tryUnlock() {
-		blinkyManager.tryUnlock();
+	private void detach() {
+		final BlinkyManager manager = blinkyManager;
+		if (manager != null) {
+			manager.removeLockListener(lockListener);
+			connectionState.removeSource(manager.state);
+			connectState.removeSource(manager.getConnectState());
+			blinkyManager = null;
+		}
+		if (service != null && device != null) {
+			service.detach(device.getAddress());
+		}
+		service = null;
+	}
+
+	/**
+	 * Saves the recent BLE events, so that a failed unlock can be analyzed later.
+	 */
+	private void dumpFlightRecorder() {
+		// Copy the records now, before they are overwritten, and write them in the background.
+		final FlightRecorder.Snapshot snapshot = FlightRecorder.getInstance().snapshot();
+		final File file = new File(getApplication().getFilesDir(), FLIGHT_RECORD_FILE);
+		new Thread(() -> {
+			try {
+				snapshot.writeTo(file);
+			} catch (final IOException e) {
+				Log.e(TAG, "Saving flight recorder failed", e);
+			}
+		}, "FlightRecorderDump").start();
 	}
 
 	@Override
 	protected void onCleared() {
 		super.onCleared();
-		disconnect();
+		detach();
+		device = null;
+		if (bound) {
+			getApplication().unbindService(serviceConnection);
+			bound = false;
+		}
+	}
+
+	/**
+	 * Sets the value directly on the main thread, so that the result is not delayed, and posts
+	 * it otherwise. Lock callbacks may be delivered on the BLE callback thread.
+	 */
+	private static <T> void setValue(@NonNull final MutableLiveData<T> liveData, final T value) {
+		if (Looper.myLooper() == Looper.getMainLooper())
+			liveData.setValue(value);
+		else
+			liveData.postValue(value);
 	}
 }
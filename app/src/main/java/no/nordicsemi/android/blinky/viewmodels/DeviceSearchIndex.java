@@ -0,0 +1,197 @@
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of device names and addresses for search as you type.
+ * <p>
+ * Each device is indexed by its lower case name and by its address without colons, e.g.
+ * "a1b2c3d4e5f6". All suffixes of the keys, up to {@link #MAX_DEPTH} characters long, are
+ * stored in a trie, and each node keeps the set of devices having a substring ending at it.
+ * A lookup walks the trie once, so it takes time proportional to the query length, not to
+ * the number of devices. Longer queries are looked up by their first characters and the
+ * candidates are verified.
+ * <p>
+ * This class does not depend on Android API and is not thread safe.
+ */
+/* package */ final class DeviceSearchIndex {
+	/* package */ static final int MAX_DEPTH = 16;
+
+	private static final class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		/** Devices with a substring of a key ending at this node. */
+		private final Set<String> ids = new HashSet<>();
+
+		@Nullable
+		private Node child(final char c) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c)
+					return children[i];
+			}
+			return null;
+		}
+
+		@NonNull
+		private Node addChild(final char c) {
+			Node node = child(c);
+			if (node == null) {
+				final int size = keys.length;
+				final char[] newKeys = new char[size + 1];
+				final Node[] newChildren = new Node[size + 1];
+				System.arraycopy(keys, 0, newKeys, 0, size);
+				System.arraycopy(children, 0, newChildren, 0, size);
+				newKeys[size] = c;
+				newChildren[size] = node = new Node();
+				keys = newKeys;
+				children = newChildren;
+			}
+			return node;
+		}
+
+		private void removeChild(final char c) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c) {
+					final int size = keys.length - 1;
+					final char[] newKeys = new char[size];
+					final Node[] newChildren = new Node[size];
+					System.arraycopy(keys, 0, newKeys, 0, i);
+					System.arraycopy(keys, i + 1, newKeys, i, size - i);
+					System.arraycopy(children, 0, newChildren, 0, i);
+					System.arraycopy(children, i + 1, newChildren, i, size - i);
+					keys = newKeys;
+					children = newChildren;
+					return;
+				}
+			}
+		}
+	}
+
+	private final Node root = new Node();
+	/** Indexed keys by address. */
+	private final Map<String, String[]> keys = new HashMap<>();
+
+	/**
+	 * Adds the device to the index, or updates its name.
+	 *
+	 * @param address the device address, used as its id.
+	 * @param name    the device name, if known.
+	 */
+	/* package */ void put(@NonNull final String address, @Nullable final String name) {
+		remove(address);
+		final String[] deviceKeys = name != null && !name.isEmpty() ?
+				new String[] { normalize(address), normalize(name) } :
+				new String[] { normalize(address) };
+		keys.put(address, deviceKeys);
+		for (final String key : deviceKeys) {
+			for (int start = 0; start < key.length(); start++) {
+				Node node = root;
+				final int end = Math.min(key.length(), start + MAX_DEPTH);
+				for (int i = start; i < end; i++) {
+					node = node.addChild(key.charAt(i));
+					node.ids.add(address);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the device from the index.
+	 */
+	/* package */ void remove(@NonNull final String address) {
+		final String[] deviceKeys = keys.remove(address);
+		if (deviceKeys == null)
+			return;
+		for (final String key : deviceKeys) {
+			for (int start = 0; start < key.length(); start++)
+				remove(root, key, start, Math.min(key.length(), start + MAX_DEPTH), address);
+		}
+	}
+
+	private static void remove(@NonNull final Node parent, @NonNull final String key,
+							   final int i, final int end, @NonNull final String address) {
+		if (i == end)
+			return;
+		final char c = key.charAt(i);
+		final Node node = parent.child(c);
+		if (node == null)
+			return;
+		node.ids.remove(address);
+		remove(node, key, i + 1, end, address);
+		if (node.ids.isEmpty())
+			parent.removeChild(c);
+	}
+
+	/* package */ void clear() {
+		root.keys = new char[0];
+		root.children = new Node[0];
+		keys.clear();
+	}
+
+	/* package */ int size() {
+		return keys.size();
+	}
+
+	/**
+	 * Returns the addresses of devices which name or address contains the query.
+	 * Colons in the query are ignored and the case does not matter.
+	 * <p>
+	 * The returned set may be a view of the index and must not be used after the index
+	 * has been modified.
+	 */
+	@NonNull
+	/* package */ Set<String> findBySubstring(@NonNull final String query) {
+		final String normalized = normalize(query);
+		if (normalized.isEmpty())
+			return Collections.unmodifiableSet(keys.keySet());
+
+		Node node = root;
+		final int end = Math.min(normalized.length(), MAX_DEPTH);
+		for (int i = 0; i < end && node != null; i++)
+			node = node.child(normalized.charAt(i));
+		if (node == null)
+			return Collections.emptySet();
+
+		if (normalized.length() <= MAX_DEPTH)
+			return Collections.unmodifiableSet(node.ids);
+
+		final Set<String> result = new HashSet<>();
+		for (final String address : node.ids) {
+			for (final String key : keys.get(address)) {
+				if (key.contains(normalized)) {
+					result.add(address);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether the name or address of the device contains the query.
+	 */
+	/* package */ boolean matches(@NonNull final String address, @NonNull final String query) {
+		final String[] deviceKeys = keys.get(address);
+		if (deviceKeys == null)
+			return false;
+		final String normalized = normalize(query);
+		for (final String key : deviceKeys) {
+			if (key.contains(normalized))
+				return true;
+		}
+		return false;
+	}
+
+	@NonNull
+	private static String normalize(@NonNull final String text) {
+		return text.replace(":", "").toLowerCase(Locale.US);
+	}
+}
@@ -4,12 +4,20 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 import android.os.ParcelUuid;
+import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
 import no.nordicsemi.android.blinky.profile.BlinkyManager;
+import no.nordicsemi.android.blinky.utils.NamePatternMatcher;
 import no.nordicsemi.android.support.v18.scanner.ScanRecord;
 import no.nordicsemi.android.support.v18.scanner.ScanResult;
 
@@ -20,15 +28,29 @@ import no.nordicsemi.android.support.v18.scanner.ScanResult;
  */
 @SuppressWarnings("unused")
 public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
-	private static final String FILTER_DEVICE_NAME = "YX_";
+	private static final String FILTER_DEVICE_NAME_PATTERN = "YX_*";
 	private static final int FILTER_RSSI = -50; // [dBm]
 
+	@NonNull
+	private static List<String> lockNamePatterns =
+			Collections.singletonList(FILTER_DEVICE_NAME_PATTERN);
+	/** The matcher of {@link #lockNamePatterns}, compiled on first use. */
+	@Nullable
+	private static volatile NamePatternMatcher lockNameMatcher;
+
 	@NonNull
 	private final List<DiscoveredBluetoothDevice> devices = new ArrayList<>();
+	/** Positions of the devices on the {@link #devices} list by address. */
+	@NonNull
+	private final Map<String, Integer> positions = new HashMap<>();
 	@Nullable
 	private List<DiscoveredBluetoothDevice> filteredDevices = null;
 	private boolean filterDeviceNameRequired;
 	private boolean filterNearbyOnly;
+	@NonNull
+	private final DeviceSearchIndex searchIndex = new DeviceSearchIndex();
+	@NonNull
+	private String query = "";
 
 	/* package */ DevicesLiveData(final boolean filterDeviceNameRequired, final boolean filterNearbyOnly) {
 		this.filterDeviceNameRequired = filterDeviceNameRequired;
@@ -37,10 +59,31 @@ public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
 
 	/* package */ synchronized void bluetoothDisabled() {
 		devices.clear();
+		positions.clear();
+		searchIndex.clear();
 		filteredDevices = null;
 		postValue(null);
 	}
 
+	/**
+	 * Sets both filters. The filtered list is refreshed only if any device has been found.
+	 */
+	/* package */ synchronized void setFilters(final boolean uuidRequired, final boolean nearbyOnly) {
+		filterDeviceNameRequired = uuidRequired;
+		filterNearbyOnly = nearbyOnly;
+		if (!devices.isEmpty())
+			applyFilter();
+	}
+
+	/**
+	 * Sets the search query. Only devices which name or address contains the query are shown.
+	 * An empty query shows all devices.
+	 */
+	/* package */ synchronized boolean search(@NonNull final String query) {
+		this.query = query;
+		return applyFilter();
+	}
+
 	/* package */  boolean filterByUuid(final boolean uuidRequired) {
 		filterDeviceNameRequired = uuidRequired;
 		return applyFilter();
@@ -58,17 +101,22 @@ public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
 		final int index = indexOf(result);
 		if (index == -1) {
 			device = new DiscoveredBluetoothDevice(result);
+			positions.put(device.getAddress(), devices.size());
 			devices.add(device);
 		} else {
 			device = devices.get(index);
 		}
 
 		// Update RSSI and name.
+		final String oldName = device.getName();
 		device.update(result);
+		if (index == -1 || !TextUtils.equals(oldName, device.getName()))
+			searchIndex.put(device.getAddress(), device.getName());
 
 		// Return true if the device was on the filtered list or is to be added.
 		return (filteredDevices != null && filteredDevices.contains(device))
-				|| (matchesUuidFilter(result) && matchesNearbyFilter(device.getHighestRssi()));
+				|| (matchesUuidFilter(result) && matchesNearbyFilter(device.getHighestRssi())
+					&& (query.isEmpty() || searchIndex.matches(device.getAddress(), query)));
     }
 
 	/**
@@ -76,6 +124,8 @@ public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
 	 */
 	/* package */ synchronized void clear() {
 		devices.clear();
+		positions.clear();
+		searchIndex.clear();
 		filteredDevices = null;
 		postValue(null);
 	}
@@ -85,10 +135,26 @@ public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
 	 */
 	/* package */ synchronized boolean applyFilter() {
 		final List<DiscoveredBluetoothDevice> tmp = new ArrayList<>();
-		for (final DiscoveredBluetoothDevice device : devices) {
-			final ScanResult result = device.getScanResult();
-			if (matchesUuidFilter(result) && matchesNearbyFilter(device.getHighestRssi())) {
-				tmp.add(device);
+		if (query.isEmpty()) {
+			for (final DiscoveredBluetoothDevice device : devices) {
+				if (matchesFilters(device))
+					tmp.add(device);
+			}
+		} else {
+			// Only the devices found in the index are checked, in the order of discovery.
+			final Set<String> matches = searchIndex.findBySubstring(query);
+			final int[] found = new int[matches.size()];
+			int count = 0;
+			for (final String address : matches) {
+				final Integer position = positions.get(address);
+				if (position != null)
+					found[count++] = position;
+			}
+			Arrays.sort(found, 0, count);
+			for (int i = 0; i < count; i++) {
+				final DiscoveredBluetoothDevice device = devices.get(found[i]);
+				if (matchesFilters(device))
+					tmp.add(device);
 			}
 		}
 		filteredDevices = tmp;
@@ -103,13 +169,13 @@ public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
 	 * @return Index of -1 if not found.
 	 */
 	private int indexOf(@NonNull final ScanResult result) {
-		int i = 0;
-		for (final DiscoveredBluetoothDevice device : devices) {
-			if (device.matches(result))
-				return i;
-			i++;
-		}
-		return -1;
+		final Integer position = positions.get(result.getDevice().getAddress());
+		return position != null ? position : -1;
+	}
+
+	private boolean matchesFilters(@NonNull final DiscoveredBluetoothDevice device) {
+		return matchesUuidFilter(device.getScanResult())
+				&& matchesNearbyFilter(device.getHighestRssi());
 	}
 
 	@SuppressWarnings("SimplifiableIfStatement")
@@ -117,6 +183,54 @@ public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
 		if (!filterDeviceNameRequired)
 			return true;
 
+		return isLock(result);
+	}
+
+	/**
+	 * Sets the naming schemes of locks, as glob patterns, e.g. "YX_*" or "*_LOCK".
+	 * By default only names starting with "YX_" are recognized.
+	 * <p>
+	 * The patterns are compiled when a name is matched for the first time, so setting them
+	 * is cheap, but an {@link IllegalArgumentException} is thrown then if the patterns are
+	 * too complex.
+	 *
+	 * @param patterns the name patterns.
+	 * @see NamePatternMatcher
+	 */
+	public static synchronized void setLockNamePatterns(@NonNull final Collection<String> patterns) {
+		lockNamePatterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+		lockNameMatcher = null;
+	}
+
+	/**
+	 * Returns the naming schemes of locks.
+	 */
+	@NonNull
+	public static synchronized List<String> getLockNamePatterns() {
+		return lockNamePatterns;
+	}
+
+	@NonNull
+	private static NamePatternMatcher getLockNameMatcher() {
+		NamePatternMatcher matcher = lockNameMatcher;
+		if (matcher == null) {
+			synchronized (DevicesLiveData.class) {
+				matcher = lockNameMatcher;
+				if (matcher == null)
+					lockNameMatcher = matcher = NamePatternMatcher.compile(lockNamePatterns);
+			}
+		}
+		return matcher;
+	}
+
+	/**
+	 * Returns whether the advertised device name matches the lock naming scheme,
+	 * regardless of the filter settings.
+	 *
+	 * @param result scan result.
+	 * @return True if the device looks like a lock.
+	 */
+	public static boolean isLock(@NonNull final ScanResult result) {
 		final ScanRecord record = result.getScanRecord();
 		if (record == null)
 			return false;
@@ -125,7 +239,7 @@ public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
 		if (deviceName == null)
 			return false;
 
-		return deviceName.startsWith(FILTER_DEVICE_NAME);
+		return getLockNameMatcher().matches(deviceName);
 	}
 
 	@SuppressWarnings("SimplifiableIfStatement")
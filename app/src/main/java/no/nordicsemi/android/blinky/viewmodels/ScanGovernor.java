@@ -0,0 +1,260 @@
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * Starts and stops the scanner so that the OS does not throttle it.
+ * <p>
+ * Android throttles apps which start more than 5 scans in 30 seconds, and scans running
+ * longer than 30 minutes are demoted to opportunistic mode. The governor keeps a sliding
+ * window of scan starts and:
+ * <ul>
+ * <li>delays the actual stop, so that a stop followed shortly by a start, e.g. when the
+ * Activity is recreated, does not restart the scan,</li>
+ * <li>defers a start while the window is full, instead of letting the OS ignore it,</li>
+ * <li>restarts a long running scan before it is demoted.</li>
+ * </ul>
+ * The governor has no timers. After each call, it returns the time at which {@link #update()}
+ * should be called next, or {@link #NONE}. This class does not depend on Android API and is
+ * not thread safe.
+ */
+public final class ScanGovernor {
+	public static final long NONE = -1;
+
+	public interface Clock {
+		/** Returns the current time, in ms. */
+		long now();
+	}
+
+	/**
+	 * The scanner controlled by the governor.
+	 */
+	public interface Scanner {
+		void startScan();
+
+		void stopScan();
+	}
+
+	public static final class Config {
+		private int maxStarts = 5;
+		private long window = 31000;
+		private long stopDelay = 1000;
+		private long rotationPeriod = 25 * 60 * 1000;
+
+		/**
+		 * Sets the number of scans which may be started in the window, in ms. The window
+		 * should be a bit longer than the one used by the OS.
+		 */
+		@NonNull
+		public Config setStartLimit(final int maxStarts, final long window) {
+			this.maxStarts = maxStarts;
+			this.window = window;
+			return this;
+		}
+
+		/**
+		 * Sets the time for which a stop is delayed, in ms.
+		 */
+		@NonNull
+		public Config setStopDelay(final long stopDelay) {
+			this.stopDelay = stopDelay;
+			return this;
+		}
+
+		/**
+		 * Sets the time after which a running scan is restarted, in ms.
+		 */
+		@NonNull
+		public Config setRotationPeriod(final long rotationPeriod) {
+			this.rotationPeriod = rotationPeriod;
+			return this;
+		}
+	}
+
+	private final Config config;
+	private final Clock clock;
+	private final Scanner scanner;
+	/** Times of the scan starts in the window, oldest first. */
+	private final ArrayDeque<Long> starts = new ArrayDeque<>();
+
+	private boolean requested;
+	private boolean running;
+	private long startTime;
+	private long stopRequestTime;
+	private boolean deferred;
+
+	private int startCount;
+	private int mergedCount;
+	private int deferredCount;
+	private int rotationCount;
+
+	public ScanGovernor(@NonNull final Config config, @NonNull final Clock clock,
+						@NonNull final Scanner scanner) {
+		this.config = config;
+		this.clock = clock;
+		this.scanner = scanner;
+	}
+
+	/**
+	 * Requests scanning. If a stop is pending, it is cancelled and the scan continues.
+	 *
+	 * @return The time of the next update, or {@link #NONE}.
+	 */
+	public long start() {
+		if (!requested) {
+			requested = true;
+			if (running)
+				mergedCount++;
+		}
+		return update();
+	}
+
+	/**
+	 * Requests the scan to be stopped. The scan is stopped after the stop delay,
+	 * unless started again before.
+	 *
+	 * @return The time of the next update, or {@link #NONE}.
+	 */
+	public long stop() {
+		if (requested) {
+			requested = false;
+			deferred = false;
+			stopRequestTime = clock.now();
+		}
+		return update();
+	}
+
+	/**
+	 * Stops the scan immediately, e.g. when the owner is destroyed.
+	 */
+	public void stopNow() {
+		requested = false;
+		deferred = false;
+		if (running) {
+			running = false;
+			scanner.stopScan();
+		}
+	}
+
+	/**
+	 * Stops the running scan and starts it again as soon as allowed, e.g. when the scanner
+	 * reported a failure.
+	 *
+	 * @return The time of the next update, or {@link #NONE}.
+	 */
+	public long restart() {
+		if (running) {
+			running = false;
+			scanner.stopScan();
+		}
+		requested = true;
+		return update();
+	}
+
+	/**
+	 * Performs the actions which are due.
+	 *
+	 * @return The time of the next update, or {@link #NONE}.
+	 */
+	public long update() {
+		final long now = clock.now();
+		while (!starts.isEmpty() && starts.peekFirst() <= now - config.window)
+			starts.pollFirst();
+
+		if (running && !requested) {
+			final long stopTime = stopRequestTime + config.stopDelay;
+			if (now < stopTime)
+				return stopTime;
+			running = false;
+			scanner.stopScan();
+			return NONE;
+		}
+		if (!requested)
+			return NONE;
+
+		if (running) {
+			final long rotationTime = startTime + config.rotationPeriod;
+			if (now < rotationTime)
+				return rotationTime;
+			if (starts.size() >= config.maxStarts)
+				return nextSlot();
+			scanner.stopScan();
+			scanner.startScan();
+			onStarted(now);
+			rotationCount++;
+			return startTime + config.rotationPeriod;
+		}
+
+		if (starts.size() >= config.maxStarts) {
+			if (!deferred) {
+				deferred = true;
+				deferredCount++;
+			}
+			return nextSlot();
+		}
+		deferred = false;
+		running = true;
+		scanner.startScan();
+		onStarted(now);
+		startCount++;
+		return startTime + config.rotationPeriod;
+	}
+
+	/**
+	 * Returns whether a scan is running, including one with a pending stop.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the number of scans started, not counting rotations.
+	 */
+	public int getStartCount() {
+		return startCount;
+	}
+
+	/**
+	 * Returns the number of stop and start cycles merged into a running scan.
+	 */
+	public int getMergedCount() {
+		return mergedCount;
+	}
+
+	/**
+	 * Returns the number of starts deferred because the limit was reached.
+	 */
+	public int getDeferredCount() {
+		return deferredCount;
+	}
+
+	public int getRotationCount() {
+		return rotationCount;
+	}
+
+	/**
+	 * Returns the number of scan starts which would have been throttled by the OS, or would
+	 * have counted towards the limit, without the governor.
+	 */
+	public int getAvoidedThrottleCount() {
+		return mergedCount + deferredCount;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "ScanGovernor{starts=" + startCount + ", merged=" + mergedCount
+				+ ", deferred=" + deferredCount + ", rotations=" + rotationCount + "}";
+	}
+
+	private void onStarted(final long now) {
+		startTime = now;
+		starts.addLast(now);
+	}
+
+	private long nextSlot() {
+		return starts.peekFirst() + config.window;
+	}
+}
@@ -0,0 +1,177 @@
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+
+import no.nordicsemi.android.support.v18.scanner.ScanCallback;
+
+/**
+ * Decides how to recover from a scan failure.
+ * <p>
+ * Each failure returns the delay after which the scan should be restarted. The delay grows
+ * exponentially with each failure, up to a maximum, and after a number of failures without
+ * any result in between, recovery is given up. Failures caused by the scan settings step
+ * down the settings level: first the report delay, i.e. batching, is dropped, then the scan
+ * mode is lowered. The level is kept after recovery.
+ * <p>
+ * A failure episode ends with the first scan result, and its duration is counted as the
+ * recovery time. The policy takes the time with each call, so it can be tested with any clock.
+ * This class is not thread safe.
+ */
+public final class ScanRecoveryPolicy {
+	/** Recovery is given up. */
+	public static final long GIVE_UP = -1;
+	/** The failure does not require any action. */
+	public static final long IGNORE = -2;
+
+	/** Low latency scan with results reported in batches. */
+	public static final int SETTINGS_DEFAULT = 0;
+	/** Low latency scan with each result reported immediately. */
+	public static final int SETTINGS_NO_BATCHING = 1;
+	/** Balanced scan with each result reported immediately. */
+	public static final int SETTINGS_BALANCED = 2;
+
+	private static final long BASE_DELAY = 1000; // [ms]
+	private static final long MAX_DELAY = 30000; // [ms]
+	/** The OS allows 5 scan starts in 30 seconds. */
+	private static final long THROTTLE_DELAY = 30000; // [ms]
+	private static final int MAX_ATTEMPTS = 5;
+	/** Reported by the platform when throttled, not defined in the compat ScanCallback. */
+	private static final int SCAN_FAILED_SCANNING_TOO_FREQUENTLY = 6;
+	private static final int MAX_ERROR_CODE = 6;
+
+	private int settingsLevel = SETTINGS_DEFAULT;
+	private int attempts;
+	private long episodeStart = -1;
+	private boolean gaveUp;
+
+	private final int[] failures = new int[MAX_ERROR_CODE + 1];
+	private int recoveries;
+	private int givenUp;
+	private long totalRecoveryTime;
+	private long maxRecoveryTime;
+
+	/**
+	 * Records the failure and returns the delay after which the scan should be restarted.
+	 *
+	 * @param errorCode the error code from {@link ScanCallback#onScanFailed(int)}.
+	 * @param now       the current time, in ms.
+	 * @return The delay in ms, {@link #GIVE_UP} or {@link #IGNORE}.
+	 */
+	public long onFailure(final int errorCode, final long now) {
+		failures[errorCode > 0 && errorCode <= MAX_ERROR_CODE ? errorCode : 0]++;
+		if (errorCode == ScanCallback.SCAN_FAILED_ALREADY_STARTED)
+			return IGNORE;
+
+		if (episodeStart < 0)
+			episodeStart = now;
+		if (gaveUp || attempts >= MAX_ATTEMPTS)
+			return giveUp();
+
+		switch (errorCode) {
+			case ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED:
+				// The stack does not support the settings, e.g. batching. Try simpler ones.
+				if (settingsLevel == SETTINGS_BALANCED)
+					return giveUp();
+				settingsLevel++;
+				attempts++;
+				return BASE_DELAY;
+			case ScanCallback.SCAN_FAILED_OUT_OF_HARDWARE_RESOURCES:
+				// Batching takes hardware resources.
+				settingsLevel = Math.max(settingsLevel, SETTINGS_NO_BATCHING);
+				return backoff();
+			case SCAN_FAILED_SCANNING_TOO_FREQUENTLY:
+				attempts++;
+				return THROTTLE_DELAY;
+			default:
+				return backoff();
+		}
+	}
+
+	/**
+	 * Ends the failure episode, if any. Call it when a scan result has been received.
+	 *
+	 * @param now the current time, in ms.
+	 * @return The recovery time in ms, or -1 if there were no failures.
+	 */
+	public long onScanResult(final long now) {
+		if (episodeStart < 0)
+			return -1;
+		final long time = now - episodeStart;
+		recoveries++;
+		totalRecoveryTime += time;
+		maxRecoveryTime = Math.max(maxRecoveryTime, time);
+		reset();
+		return time;
+	}
+
+	/**
+	 * Forgets the current failure episode, e.g. when the scan is requested again by the user.
+	 * The settings level is kept.
+	 */
+	public void reset() {
+		episodeStart = -1;
+		attempts = 0;
+		gaveUp = false;
+	}
+
+	/**
+	 * Returns the settings level, one of the SETTINGS_* constants.
+	 */
+	public int getSettingsLevel() {
+		return settingsLevel;
+	}
+
+	/**
+	 * Returns the number of failures with the given error code.
+	 */
+	public int getFailureCount(final int errorCode) {
+		return errorCode > 0 && errorCode <= MAX_ERROR_CODE ? failures[errorCode] : failures[0];
+	}
+
+	public int getRecoveryCount() {
+		return recoveries;
+	}
+
+	public int getGivenUpCount() {
+		return givenUp;
+	}
+
+	/**
+	 * Returns the average time from the first failure until a scan result, in ms.
+	 */
+	public long getAverageRecoveryTime() {
+		return recoveries > 0 ? totalRecoveryTime / recoveries : 0;
+	}
+
+	public long getMaxRecoveryTime() {
+		return maxRecoveryTime;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("ScanRecoveryPolicy{failures=[");
+		for (int i = 1; i <= MAX_ERROR_CODE; i++)
+			builder.append(i > 1 ? ", " : "").append(failures[i]);
+		return builder.append("], other=").append(failures[0])
+				.append(", recoveries=").append(recoveries)
+				.append(", given up=").append(givenUp)
+				.append(", average recovery=").append(getAverageRecoveryTime())
+				.append(" ms, max recovery=").append(maxRecoveryTime)
+				.append(" ms, settings=").append(settingsLevel).append('}').toString();
+	}
+
+	private long giveUp() {
+		if (!gaveUp) {
+			gaveUp = true;
+			givenUp++;
+		}
+		return GIVE_UP;
+	}
+
+	private long backoff() {
+		final long delay = Math.min(MAX_DELAY, BASE_DELAY << attempts);
+		attempts++;
+		return delay;
+	}
+}
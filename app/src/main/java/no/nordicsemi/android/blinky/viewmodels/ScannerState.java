@@ -0,0 +1,116 @@
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An immutable state of the scanner. Each change creates a new instance.
+ */
+public final class ScannerState {
+	private final boolean scanning;
+	private final boolean hasRecords;
+	private final boolean bluetoothEnabled;
+	private final boolean locationEnabled;
+	private final boolean scanFailed;
+
+	/* package */ ScannerState(final boolean scanning, final boolean hasRecords,
+							   final boolean bluetoothEnabled, final boolean locationEnabled) {
+		this(scanning, hasRecords, bluetoothEnabled, locationEnabled, false);
+	}
+
+	private ScannerState(final boolean scanning, final boolean hasRecords,
+						 final boolean bluetoothEnabled, final boolean locationEnabled,
+						 final boolean scanFailed) {
+		this.scanning = scanning;
+		this.hasRecords = hasRecords;
+		this.bluetoothEnabled = bluetoothEnabled;
+		this.locationEnabled = locationEnabled;
+		this.scanFailed = scanFailed;
+	}
+
+	/**
+	 * Returns whether scanning is in progress.
+	 */
+	public boolean isScanning() {
+		return scanning;
+	}
+
+	/**
+	 * Returns whether any records matching filter criteria has been found.
+	 */
+	public boolean hasRecords() {
+		return hasRecords;
+	}
+
+	/**
+	 * Returns whether Bluetooth adapter is enabled.
+	 */
+	public boolean isBluetoothEnabled() {
+		return bluetoothEnabled;
+	}
+
+	/**
+	 * Returns whether Location is enabled.
+	 */
+	public boolean isLocationEnabled() {
+		return locationEnabled;
+	}
+
+	/**
+	 * Returns whether scanning has been given up after repeated failures. Scanning is not
+	 * started again until the user retries.
+	 */
+	public boolean isScanFailed() {
+		return scanFailed;
+	}
+
+	@NonNull
+	/* package */ ScannerState withScanning(final boolean scanning) {
+		return new ScannerState(scanning, hasRecords, bluetoothEnabled, locationEnabled, scanFailed);
+	}
+
+	@NonNull
+	/* package */ ScannerState withRecords(final boolean hasRecords) {
+		return new ScannerState(scanning, hasRecords, bluetoothEnabled, locationEnabled, scanFailed);
+	}
+
+	@NonNull
+	/* package */ ScannerState withBluetoothEnabled(final boolean bluetoothEnabled) {
+		return new ScannerState(scanning, hasRecords, bluetoothEnabled, locationEnabled, scanFailed);
+	}
+
+	@NonNull
+	/* package */ ScannerState withLocationEnabled(final boolean locationEnabled) {
+		return new ScannerState(scanning, hasRecords, bluetoothEnabled, locationEnabled, scanFailed);
+	}
+
+	@NonNull
+	/* package */ ScannerState withScanFailed(final boolean scanFailed) {
+		return new ScannerState(scanning, hasRecords, bluetoothEnabled, locationEnabled, scanFailed);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof ScannerState))
+			return false;
+		final ScannerState that = (ScannerState) o;
+		return scanning == that.scanning && hasRecords == that.hasRecords
+				&& bluetoothEnabled == that.bluetoothEnabled && locationEnabled == that.locationEnabled
+				&& scanFailed == that.scanFailed;
+	}
+
+	@Override
+	public int hashCode() {
+		return (scanning ? 1 : 0) | (hasRecords ? 2 : 0)
+				| (bluetoothEnabled ? 4 : 0) | (locationEnabled ? 8 : 0) | (scanFailed ? 16 : 0);
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "ScannerState{scanning=" + scanning + ", hasRecords=" + hasRecords
+				+ ", bluetoothEnabled=" + bluetoothEnabled + ", locationEnabled=" + locationEnabled
+				+ ", scanFailed=" + scanFailed + "}";
+	}
+}
@@ -1,99 +1,113 @@
 package no.nordicsemi.android.blinky.viewmodels;
 
+import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * This class keeps the current state of the scanner.
+ * <p>
+ * The state is an immutable {@link ScannerState}, updated atomically, as the scanner is
+ * updated from several threads. Observers are notified only when the state has changed,
+ * or when {@link #refresh()} is called.
  */
 @SuppressWarnings("unused")
-public class ScannerStateLiveData extends LiveData<ScannerStateLiveData> {
-	private boolean scanningStarted;
-	private boolean hasRecords;
-	private boolean bluetoothEnabled;
-	private boolean locationEnabled;
+public class ScannerStateLiveData extends LiveData<ScannerState> {
+
+	private interface Update {
+		@NonNull
+		ScannerState apply(@NonNull ScannerState state);
+	}
+
+	private final AtomicReference<ScannerState> state;
 
 	/* package */ ScannerStateLiveData(final boolean bluetoothEnabled,
 									   final boolean locationEnabled) {
-		this.scanningStarted = false;
-		this.bluetoothEnabled = bluetoothEnabled;
-		this.locationEnabled = locationEnabled;
+		state = new AtomicReference<>(new ScannerState(false, false, bluetoothEnabled, locationEnabled));
 	}
 
 	/* package */ void refresh() {
-		postValue(this);
+		postValue(state.get());
 	}
 
 	/* package */ void scanningStarted() {
-		scanningStarted = true;
-		postValue(this);
+		update(s -> s.withScanning(true).withScanFailed(false));
 	}
 
 	/* package */ void scanningStopped() {
-		scanningStarted = false;
-		postValue(this);
+		update(s -> s.withScanning(false));
+	}
+
+	/**
+	 * Marks scanning as stopped after repeated failures. Both flags are changed in a single
+	 * update, so that observers never see a stopped scan without the failure.
+	 */
+	/* package */ void scanningFailed() {
+		update(s -> s.withScanning(false).withScanFailed(true));
 	}
 
 	/* package */ void bluetoothEnabled() {
-		bluetoothEnabled = true;
-		postValue(this);
+		update(s -> s.withBluetoothEnabled(true));
 	}
 
-	/* package */ synchronized void bluetoothDisabled() {
-		bluetoothEnabled = false;
-		hasRecords = false;
-		postValue(this);
+	/* package */ void bluetoothDisabled() {
+		// The scanner is reset when Bluetooth is turned off, so the failure may be gone.
+		update(s -> s.withBluetoothEnabled(false).withRecords(false).withScanFailed(false));
 	}
 
 	/* package */ void setLocationEnabled(final boolean enabled) {
-		locationEnabled = enabled;
-		postValue(this);
+		update(s -> s.withLocationEnabled(enabled));
 	}
 
 	/**
 	 * Notifies observers that a record has been found.
 	 */
 	/* package */ void recordFound() {
-		if (!hasRecords) {
-			hasRecords = true;
-			postValue(this);
-		}
+		update(s -> s.withRecords(true));
 	}
 
 	/**
 	 * Notifies observers that scanner has no records to show.
 	 */
 	/* package */ void clearRecords() {
-		if (hasRecords) {
-			hasRecords = false;
-			postValue(this);
-		}
+		update(s -> s.withRecords(false));
 	}
 
 	/**
-	 * Returns whether scanning is in progress.
+	 * Returns the current state. It may not have been delivered to observers yet.
 	 */
-	/* package */ boolean isScanning() {
-		return scanningStarted;
+	@NonNull
+	public ScannerState getState() {
+		return state.get();
 	}
 
 	/**
-	 * Returns whether any records matching filter criteria has been found.
+	 * Returns whether scanning is in progress.
 	 */
-	public boolean hasRecords() {
-		return hasRecords;
+	/* package */ boolean isScanning() {
+		return state.get().isScanning();
 	}
 
 	/**
 	 * Returns whether Bluetooth adapter is enabled.
 	 */
-	public boolean isBluetoothEnabled() {
-		return bluetoothEnabled;
+	/* package */ boolean isBluetoothEnabled() {
+		return state.get().isBluetoothEnabled();
 	}
 
-	/**
-	 * Returns whether Location is enabled.
-	 */
-	public boolean isLocationEnabled() {
-		return locationEnabled;
+	private void update(@NonNull final Update update) {
+		while (true) {
+			final ScannerState current = state.get();
+			final ScannerState next = update.apply(current);
+			if (next.equals(current))
+				return;
+			if (state.compareAndSet(current, next)) {
+				// Post the latest state, not the one set here. Posts from concurrent updates
+				// may be reordered, but the last one always carries the latest state.
+				postValue(state.get());
+				return;
+			}
+		}
 	}
 }
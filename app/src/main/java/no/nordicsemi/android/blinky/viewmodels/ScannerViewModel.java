@@ -8,14 +8,27 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import java.util.List;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import no.nordicsemi.android.blinky.profile.AutoUnlockEngine;
+import no.nordicsemi.android.blinky.profile.ProximityDecider;
+import no.nordicsemi.android.blinky.profile.SpeculativeConnector;
+import no.nordicsemi.android.blinky.service.BackgroundScanner;
+import no.nordicsemi.android.blinky.service.LockRegistry;
 import no.nordicsemi.android.blinky.utils.FilterUtils;
+import no.nordicsemi.android.blinky.utils.FlightRecorder;
+import no.nordicsemi.android.blinky.utils.RssiHistory;
 import no.nordicsemi.android.blinky.utils.Utils;
 import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
 import no.nordicsemi.android.support.v18.scanner.ScanCallback;
@@ -23,8 +36,21 @@ import no.nordicsemi.android.support.v18.scanner.ScanResult;
 import no.nordicsemi.android.support.v18.scanner.ScanSettings;
 
 public class ScannerViewModel extends AndroidViewModel {
+	private static final String TAG = "ScannerViewModel";
 	private static final String PREFS_FILTER_UUID_REQUIRED = "filter_uuid";
 	private static final String PREFS_FILTER_NEARBY_ONLY = "filter_nearby";
+	private static final String PREFS_PRECONNECT = "preconnect";
+	private static final String PREFS_AUTO_UNLOCK = "auto_unlock";
+	/**
+	 * Time after the scan has stopped for which the speculative connection is kept, so that it
+	 * can be claimed by the lock screen.
+	 */
+	private static final long PRECONNECT_GRACE_PERIOD = 5000; // [ms]
+	/**
+	 * Minimum time between evaluations of the speculative connection candidates. Without
+	 * report delay, each scan result would trigger one.
+	 */
+	private static final long PRECONNECT_EVALUATION_INTERVAL = 500; // [ms]
 
 	/**
 	 * MutableLiveData containing the list of devices.
@@ -36,6 +62,19 @@ public class ScannerViewModel extends AndroidViewModel {
 	private final ScannerStateLiveData scannerStateLiveData;
 
 	private final SharedPreferences preferences;
+	private final AutoUnlockEngine autoUnlockEngine;
+	private final ScanGovernor scanGovernor;
+	private final ScanRecoveryPolicy scanRecovery = new ScanRecoveryPolicy();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	/**
+	 * Whether pre-connecting is enabled. Null until the preference has been loaded,
+	 * or the user has changed it.
+	 */
+	private final MutableLiveData<Boolean> preconnectEnabled = new MutableLiveData<>();
+	private boolean receiversRegistered;
+	private boolean cleared;
+	@NonNull
+	private String searchQuery = "";
 
 	public DevicesLiveData getDevices() {
 		return devicesLiveData;
@@ -49,19 +88,63 @@ public class ScannerViewModel extends AndroidViewModel {
 		super(application);
 		preferences = PreferenceManager.getDefaultSharedPreferences(application);
 
-		final boolean filterDeviceNameRequired = isDeviceNameFilterEnabled();
-		final boolean filerNearbyOnly = isNearbyFilterEnabled();
-
 		scannerStateLiveData = new ScannerStateLiveData(Utils.isBleEnabled(),
 				Utils.isLocationEnabled(application));
-		devicesLiveData = new DevicesLiveData(filterDeviceNameRequired, filerNearbyOnly);
-		registerBroadcastReceivers(application);
+		// Default filters are used until the preferences are loaded. Scan results arrive
+		// later than that, so the list is not affected.
+		devicesLiveData = new DevicesLiveData(false, true);
+		autoUnlockEngine = new AutoUnlockEngine(application, new ProximityDecider.Config());
+		// Uptime is the time base of the Handler. It stops in deep sleep, which only makes
+		// the start window longer.
+		scanGovernor = new ScanGovernor(new ScanGovernor.Config(),
+				SystemClock::uptimeMillis, governedScanner);
+
+		// Nothing below is needed for the first frame. Preferences and the lock registry are
+		// read in the background, as the first read waits for the file to be loaded, and the
+		// receivers are registered when the main thread becomes idle.
+		new Thread(this::loadPreferences, "ScannerPreferences").start();
+		Looper.myQueue().addIdleHandler(() -> {
+			if (!cleared) {
+				registerBroadcastReceivers(application);
+				receiversRegistered = true;
+			}
+			return false;
+		});
+	}
+
+	private void loadPreferences() {
+		final boolean filterDeviceNameRequired = isDeviceNameFilterEnabled();
+		final boolean filterNearbyOnly = isNearbyFilterEnabled();
+		final boolean preconnect = preferences.getBoolean(PREFS_PRECONNECT, false);
+		final Set<String> authorized = isAutoUnlockEnabled() ?
+				LockRegistry.getInstance(getApplication()).getAddresses() : null;
+
+		handler.post(() -> {
+			if (cleared)
+				return;
+			// The user may have changed the setting while it was being loaded.
+			if (preconnectEnabled.getValue() == null)
+				preconnectEnabled.setValue(preconnect);
+			devicesLiveData.setFilters(filterDeviceNameRequired, filterNearbyOnly);
+			if (authorized != null) {
+				autoUnlockEngine.setAuthorizedAddresses(authorized);
+				autoUnlockEngine.start();
+			}
+		});
 	}
 
 	@Override
 	protected void onCleared() {
 		super.onCleared();
-		unregisterBroadcastReceivers(getApplication());
+		cleared = true;
+		handler.removeCallbacks(governorUpdate);
+		handler.removeCallbacks(scanRetry);
+		scanGovernor.stopNow();
+		if (receiversRegistered)
+			unregisterBroadcastReceivers(getApplication());
+		autoUnlockEngine.stop();
+		if (isPreconnectEnabled())
+			SpeculativeConnector.getInstance().cancelDelayed(PRECONNECT_GRACE_PERIOD);
 	}
 
 	public boolean isDeviceNameFilterEnabled() {
@@ -72,6 +155,68 @@ public class ScannerViewModel extends AndroidViewModel {
 		return preferences.getBoolean(PREFS_FILTER_NEARBY_ONLY, true);
 	}
 
+	public boolean isPreconnectEnabled() {
+		return Boolean.TRUE.equals(preconnectEnabled.getValue());
+	}
+
+	/**
+	 * Returns whether pre-connecting is enabled. The preference is loaded in the background,
+	 * so the value is set after the options menu may have been created.
+	 */
+	public LiveData<Boolean> getPreconnectEnabled() {
+		return preconnectEnabled;
+	}
+
+	/**
+	 * Enables or disables connecting ahead of time to the lock that is most likely to be
+	 * opened, based on the smoothed RSSI and the use history.
+	 *
+	 * @param enabled true to enable pre-connecting.
+	 */
+	public void setPreconnectEnabled(final boolean enabled) {
+		preferences.edit().putBoolean(PREFS_PRECONNECT, enabled).apply();
+		preconnectEnabled.setValue(enabled);
+		if (!enabled)
+			SpeculativeConnector.getInstance().cancel();
+	}
+
+	public boolean isAutoUnlockEnabled() {
+		return preferences.getBoolean(PREFS_AUTO_UNLOCK, false);
+	}
+
+	/**
+	 * Enables or disables unlocking known locks automatically when the phone stays close
+	 * to them while scanning.
+	 *
+	 * @param enabled true to enable auto-unlock.
+	 */
+	public void setAutoUnlockEnabled(final boolean enabled) {
+		preferences.edit().putBoolean(PREFS_AUTO_UNLOCK, enabled).apply();
+		if (enabled)
+			startAutoUnlock();
+		else
+			autoUnlockEngine.stop();
+	}
+
+	private void startAutoUnlock() {
+		// Only locks the user has connected to before are unlocked automatically.
+		autoUnlockEngine.setAuthorizedAddresses(LockRegistry.getInstance(getApplication()).getAddresses());
+		autoUnlockEngine.start();
+	}
+
+	public boolean isBackgroundScanEnabled() {
+		return BackgroundScanner.isEnabled(getApplication());
+	}
+
+	/**
+	 * Enables or disables low power scanning for known locks while the app is not running.
+	 *
+	 * @param enabled true to enable background scanning.
+	 */
+	public void setBackgroundScanEnabled(final boolean enabled) {
+		BackgroundScanner.setEnabled(getApplication(), enabled);
+	}
+
 	/**
 	 * Forces the observers to be notified. This method is used to refresh the screen after the
 	 * location permission has been granted. In result, the observer in
@@ -120,55 +265,130 @@ public class ScannerViewModel extends AndroidViewModel {
 			scannerStateLiveData.clearRecords();
 	}
 
+	@NonNull
+	public String getSearchQuery() {
+		return searchQuery;
+	}
+
+	/**
+	 * Shows only devices which name or address contains the query, in addition to the
+	 * other filters. The query is not persisted.
+	 *
+	 * @param query the search query, or empty text to show all devices.
+	 */
+	public void search(@NonNull final String query) {
+		searchQuery = query;
+		if (devicesLiveData.search(query.trim()))
+			scannerStateLiveData.recordFound();
+		else
+			scannerStateLiveData.clearRecords();
+	}
+
 	/**
-	 * Start scanning for Bluetooth devices.
+	 * Start scanning for Bluetooth devices. The scan is started by the {@link ScanGovernor},
+	 * which may defer it to avoid being throttled by the OS.
 	 */
 	public void startScan() {
 		if (scannerStateLiveData.isScanning()) {
 			return;
 		}
 
-		// Scanning settings
-		final ScanSettings settings = new ScanSettings.Builder()
-				.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-				.setReportDelay(500)
-				.setUseHardwareBatchingIfSupported(false)
-				.build();
-
-		final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
-		scanner.startScan(null, settings, scanCallback);
 		scannerStateLiveData.scanningStarted();
+		scanRecovery.reset();
+		scheduleGovernor(scanGovernor.start());
+	}
+
+	/**
+	 * Starts scanning again after it has been given up due to repeated failures.
+	 */
+	public void retryScan() {
+		if (scannerStateLiveData.getState().isScanFailed())
+			startScan();
 	}
 
 	/**
-	 * Stop scanning for bluetooth devices.
+	 * Stop scanning for bluetooth devices. The scan is stopped by the {@link ScanGovernor},
+	 * after a short delay, unless started again before.
 	 */
 	public void stopScan() {
 		if (scannerStateLiveData.isScanning() && scannerStateLiveData.isBluetoothEnabled()) {
-			final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
-			scanner.stopScan(scanCallback);
 			scannerStateLiveData.scanningStopped();
+			handler.removeCallbacks(scanRetry);
+			scheduleGovernor(scanGovernor.stop());
+			if (isPreconnectEnabled())
+				SpeculativeConnector.getInstance().cancelDelayed(PRECONNECT_GRACE_PERIOD);
 		}
 	}
 
+	private void scheduleGovernor(final long time) {
+		handler.removeCallbacks(governorUpdate);
+		if (time != ScanGovernor.NONE)
+			handler.postAtTime(governorUpdate, time);
+	}
+
+	private final Runnable governorUpdate = () -> scheduleGovernor(scanGovernor.update());
+
+	private final Runnable scanRetry = () -> {
+		if (scannerStateLiveData.isScanning())
+			scheduleGovernor(scanGovernor.restart());
+	};
+
+	private final ScanGovernor.Scanner governedScanner = new ScanGovernor.Scanner() {
+		@Override
+		public void startScan() {
+			// Scanning settings. Simpler settings are used if the stack has rejected these.
+			final int level = scanRecovery.getSettingsLevel();
+			final ScanSettings settings = new ScanSettings.Builder()
+					.setScanMode(level < ScanRecoveryPolicy.SETTINGS_BALANCED ?
+							ScanSettings.SCAN_MODE_LOW_LATENCY : ScanSettings.SCAN_MODE_BALANCED)
+					.setReportDelay(level == ScanRecoveryPolicy.SETTINGS_DEFAULT ? 500 : 0)
+					.setUseHardwareBatchingIfSupported(false)
+					.build();
+
+			final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
+			scanner.startScan(null, settings, scanCallback);
+			FlightRecorder.getInstance().record(FlightRecorder.EVENT_SCAN_STARTED, 0, level);
+		}
+
+		@Override
+		public void stopScan() {
+			final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
+			scanner.stopScan(scanCallback);
+			FlightRecorder.getInstance().record(FlightRecorder.EVENT_SCAN_STOPPED, 0, 0);
+			Log.d(TAG, scanGovernor + ", throttling avoided "
+					+ scanGovernor.getAvoidedThrottleCount() + " times");
+		}
+	};
+
 	private final ScanCallback scanCallback = new ScanCallback() {
+		private long lastEvaluation;
+
 		@Override
 		public void onScanResult(final int callbackType, @NonNull final ScanResult result) {
 			// This callback will be called only if the scan report delay is not set or is set to 0.
+			onScanWorking();
 
 			// If the packet has been obtained while Location was disabled, mark Location as not required
 			if (Utils.isLocationRequired(getApplication()) && !Utils.isLocationEnabled(getApplication()))
 				Utils.markLocationNotRequired(getApplication());
 
-			if (!isNoise(result) && devicesLiveData.deviceDiscovered(result)) {
+			recordRssi(result);
+			onAutoUnlockSample(result);
+			if (isNoise(result))
+				return;
+			if (devicesLiveData.deviceDiscovered(result)) {
 				devicesLiveData.applyFilter();
 				scannerStateLiveData.recordFound();
 			}
+			onLockSeen(result);
+			evaluateCandidates();
 		}
 
 		@Override
 		public void onBatchScanResults(@NonNull final List<ScanResult> results) {
 			// This callback will be called only if the report delay set above is greater then 0.
+			FlightRecorder.getInstance().record(FlightRecorder.EVENT_SCAN_BATCH, 0, results.size());
+			onScanWorking();
 			if (results.isEmpty())
 				return;
 
@@ -177,24 +397,96 @@ public class ScannerViewModel extends AndroidViewModel {
 				Utils.markLocationNotRequired(getApplication());
 
 			boolean atLeastOneMatchedFilter = false;
-			for (final ScanResult result : results)
-				atLeastOneMatchedFilter =
-						(!isNoise(result) && devicesLiveData.deviceDiscovered(result))
-								|| atLeastOneMatchedFilter;
+			for (final ScanResult result : results) {
+				recordRssi(result);
+				onAutoUnlockSample(result);
+				if (isNoise(result))
+					continue;
+				atLeastOneMatchedFilter = devicesLiveData.deviceDiscovered(result)
+						|| atLeastOneMatchedFilter;
+				onLockSeen(result);
+			}
 			if (atLeastOneMatchedFilter) {
 				devicesLiveData.applyFilter();
 				scannerStateLiveData.recordFound();
 			}
+			evaluateCandidates();
 		}
 
 		@Override
 		public void onScanFailed(final int errorCode) {
-			Log.w("ScannerViewModel", "Scanning failed with code " + errorCode);
+			Log.w(TAG, "Scanning failed with code " + errorCode);
+			FlightRecorder.getInstance().record(FlightRecorder.EVENT_SCAN_FAILED, 0, errorCode);
 
-			if (errorCode == ScanCallback.SCAN_FAILED_APPLICATION_REGISTRATION_FAILED) {
-				stopScan();
-				startScan();
+			final long delay = scanRecovery.onFailure(errorCode, SystemClock.uptimeMillis());
+			if (delay == ScanRecoveryPolicy.IGNORE || !scannerStateLiveData.isScanning())
+				return;
+			FlightRecorder.getInstance().record(FlightRecorder.EVENT_SCAN_RETRY, 0, (int) delay);
+			handler.removeCallbacks(scanRetry);
+			if (delay == ScanRecoveryPolicy.GIVE_UP) {
+				// Scanning will be started again when the user retries.
+				Log.e(TAG, "Scanning given up: " + scanRecovery);
+				handler.removeCallbacks(governorUpdate);
+				scanGovernor.stopNow();
+				// The list would not be updated anymore, the failure is shown instead.
+				clear();
+				scannerStateLiveData.scanningFailed();
+				return;
 			}
+			handler.postDelayed(scanRetry, delay);
+		}
+
+		/**
+		 * Ends the recovery from a scan failure, if any.
+		 */
+		private void onScanWorking() {
+			final long time = scanRecovery.onScanResult(SystemClock.uptimeMillis());
+			if (time >= 0) {
+				FlightRecorder.getInstance().record(FlightRecorder.EVENT_SCAN_RECOVERED, 0, (int) time);
+				Log.i(TAG, "Scanning recovered in " + time + " ms: " + scanRecovery);
+			}
+		}
+
+		/**
+		 * Adds the RSSI of a lock to the candidates for the speculative connection.
+		 */
+		private void onLockSeen(@NonNull final ScanResult result) {
+			if (isPreconnectEnabled() && DevicesLiveData.isLock(result))
+				SpeculativeConnector.getInstance().onLockSeen(result.getDevice(), result.getRssi());
+		}
+
+		/**
+		 * Picks the speculative connection candidate, at most once per
+		 * {@link #PRECONNECT_EVALUATION_INTERVAL}.
+		 */
+		private void evaluateCandidates() {
+			if (!isPreconnectEnabled())
+				return;
+			final long now = SystemClock.uptimeMillis();
+			if (now - lastEvaluation < PRECONNECT_EVALUATION_INTERVAL)
+				return;
+			lastEvaluation = now;
+			SpeculativeConnector.getInstance().evaluate(getApplication());
+		}
+
+		/**
+		 * Passes the RSSI to the auto-unlock engine, which picks the authorised locks by
+		 * address. Filtered out devices are included, so that the search and the display
+		 * filters do not affect auto-unlock.
+		 */
+		private void onAutoUnlockSample(@NonNull final ScanResult result) {
+			autoUnlockEngine.onLockSeen(result.getDevice(), result.getRssi(),
+					result.getTimestampNanos() / 1000000);
+		}
+
+		/**
+		 * Adds the RSSI of a lock to its history. Distant locks are included, as weak signal
+		 * is what a site survey looks for.
+		 */
+		private void recordRssi(@NonNull final ScanResult result) {
+			if (DevicesLiveData.isLock(result))
+				RssiHistory.getInstance().add(result.getDevice().getAddress(),
+						result.getTimestampNanos() / 1000000, result.getRssi());
 		}
 	};
 
@@ -238,15 +530,23 @@ public class ScannerViewModel extends AndroidViewModel {
 		public void onReceive(final Context context, final Intent intent) {
 			final int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_OFF);
 			final int previousState = intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_STATE, BluetoothAdapter.STATE_OFF);
+			FlightRecorder.getInstance().record(FlightRecorder.EVENT_STATE_CHANGED, 0, state);
 
 			switch (state) {
 				case BluetoothAdapter.STATE_ON:
 					scannerStateLiveData.bluetoothEnabled();
+					// Scans registered with a PendingIntent do not survive Bluetooth restarts.
+					BackgroundScanner.refresh(context);
 					break;
 				case BluetoothAdapter.STATE_TURNING_OFF:
 				case BluetoothAdapter.STATE_OFF:
 					if (previousState != BluetoothAdapter.STATE_TURNING_OFF && previousState != BluetoothAdapter.STATE_OFF) {
 						stopScan();
+						// Do not wait for the stop delay, the adapter is being turned off.
+						handler.removeCallbacks(governorUpdate);
+						handler.removeCallbacks(scanRetry);
+						scanGovernor.stopNow();
+						SpeculativeConnector.getInstance().cancel();
 						scannerStateLiveData.bluetoothDisabled();
 					}
 					break;
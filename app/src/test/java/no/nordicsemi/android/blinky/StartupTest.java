@@ -0,0 +1,206 @@
+package no.nordicsemi.android.blinky;
+
+import android.content.BroadcastReceiver;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import no.nordicsemi.android.blinky.utils.StartupTracer;
+import no.nordicsemi.android.blinky.viewmodels.ScannerViewModel;
+
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Starts the app and checks the phases traced by {@link StartupTracer}, so that work added
+ * to the start up path fails the build. Robolectric is much slower than a device, so the
+ * budget catches blocking I/O and similar regressions, not small ones.
+ * <p>
+ * The tracer keeps its state until the process ends, so there is a single test.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = StartupTest.TracingApplication.class)
+public class StartupTest {
+    private static final long PHASE_BUDGET = 2000; // [ms]
+    private static final long LOAD_TIMEOUT = 5000; // [ms]
+    private static final List<String> PHASES = Arrays.asList(
+            "Application.onCreate", "ScannerActivity.onCreate", "Inflate", "ScannerViewModel");
+
+    private static final String ACCESS_PREFERENCES = "preferences";
+    private static final String ACCESS_RECEIVER = "receiver";
+
+    /**
+     * Records reading preferences and registering receivers on the main thread.
+     */
+    public static class TracingApplication extends BlinkyApplication {
+        /** Accesses made on the main thread, in order. */
+        private final List<String> accesses = new ArrayList<>();
+        /** Accesses made on the main thread before the first frame. */
+        private final List<String> earlyAccesses = new ArrayList<>();
+
+        @Override
+        public SharedPreferences getSharedPreferences(final String name, final int mode) {
+            return new TracingPreferences(super.getSharedPreferences(name, mode), this);
+        }
+
+        @Override
+        public Intent registerReceiver(@Nullable final BroadcastReceiver receiver,
+                                       final IntentFilter filter) {
+            onAccess(ACCESS_RECEIVER);
+            return super.registerReceiver(receiver, filter);
+        }
+
+        private void onAccess(@NonNull final String access) {
+            if (Looper.myLooper() != Looper.getMainLooper())
+                return;
+            accesses.add(access);
+            if (!StartupTracer.getPhases().containsKey(StartupTracer.PHASE_FIRST_FRAME))
+                earlyAccesses.add(access);
+        }
+    }
+
+    @Test
+    public void startupIsWithinBudget() {
+        final ActivityController<ScannerActivity> controller =
+                Robolectric.buildActivity(ScannerActivity.class).create().start().resume();
+        // The main looper is paused, so nothing posted or deferred to an idle main thread
+        // has run yet. Draw the first frame now, as it would be drawn after onResume().
+        final ViewGroup content = controller.get().findViewById(android.R.id.content);
+        final View root = content.getChildAt(0);
+        root.getViewTreeObserver().dispatchOnPreDraw();
+
+        controller.visible();
+        awaitLoaded(controller.get());
+
+        final Map<String, Long> phases = StartupTracer.getPhases();
+        for (final String phase : PHASES) {
+            final Long time = phases.get(phase);
+            assertTrue(phase + " not traced: " + phases, time != null);
+            assertTrue(phase + " took " + time + " ms: " + phases, time <= PHASE_BUDGET);
+        }
+        // The first frame is timed from the process start, which is simulated.
+        assertTrue(phases.containsKey(StartupTracer.PHASE_FIRST_FRAME));
+
+        final TracingApplication application = ApplicationProvider.getApplicationContext();
+        assertTrue("Before the first frame: " + application.earlyAccesses,
+                application.earlyAccesses.isEmpty());
+        // Check that the accesses are traced at all.
+        assertTrue("Receivers not registered", application.accesses.contains(ACCESS_RECEIVER));
+    }
+
+    /**
+     * Waits until the preferences are loaded in the background and applied on the main thread.
+     */
+    private static void awaitLoaded(@NonNull final ScannerActivity activity) {
+        final ScannerViewModel viewModel = new ViewModelProvider(activity).get(ScannerViewModel.class);
+        final long deadline = System.nanoTime() + LOAD_TIMEOUT * 1000000;
+        while (viewModel.getPreconnectEnabled().getValue() == null) {
+            if (System.nanoTime() > deadline)
+                throw new AssertionError("Preferences not loaded");
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Reports reads to the application and delegates everything to the real preferences.
+     */
+    private static class TracingPreferences implements SharedPreferences {
+        private final SharedPreferences preferences;
+        private final TracingApplication application;
+
+        private TracingPreferences(@NonNull final SharedPreferences preferences,
+                                   @NonNull final TracingApplication application) {
+            this.preferences = preferences;
+            this.application = application;
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.getAll();
+        }
+
+        @Nullable
+        @Override
+        public String getString(final String key, @Nullable final String defValue) {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.getString(key, defValue);
+        }
+
+        @Nullable
+        @Override
+        public Set<String> getStringSet(final String key, @Nullable final Set<String> defValues) {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.getStringSet(key, defValues);
+        }
+
+        @Override
+        public int getInt(final String key, final int defValue) {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.getInt(key, defValue);
+        }
+
+        @Override
+        public long getLong(final String key, final long defValue) {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.getLong(key, defValue);
+        }
+
+        @Override
+        public float getFloat(final String key, final float defValue) {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.getFloat(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(final String key, final boolean defValue) {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.getBoolean(key, defValue);
+        }
+
+        @Override
+        public boolean contains(final String key) {
+            application.onAccess(ACCESS_PREFERENCES);
+            return preferences.contains(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return preferences.edit();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                final OnSharedPreferenceChangeListener listener) {
+            preferences.registerOnSharedPreferenceChangeListener(listener);
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                final OnSharedPreferenceChangeListener listener) {
+            preferences.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+}
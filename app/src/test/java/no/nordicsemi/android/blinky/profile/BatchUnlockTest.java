@@ -0,0 +1,208 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import no.nordicsemi.android.blinky.profile.sim.SimulatedLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchUnlockTest {
+    private static final List<String> ADDRESSES =
+            Arrays.asList("00:00:00:00:00:01", "00:00:00:00:00:02");
+    /** A GATT error status, as reported by the BLE library for a cancelled connection. */
+    private static final int GATT_ERROR = 133;
+
+    private ScheduledExecutorService scheduler;
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(2);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void cancelReportsCancelled() throws InterruptedException {
+        final RetryPolicy policy = new RetryPolicy.Builder().build();
+        final BatchUnlock batch = new BatchUnlock(address -> new PendingOperations(),
+                ADDRESSES.size(), policy, scheduler);
+        batch.start(ADDRESSES, listener);
+        batch.cancel();
+
+        assertTrue(listener.await());
+        assertEquals(1, listener.completions.get());
+        assertTrue(listener.report.cancelled);
+        assertTrue(listener.results.isEmpty());
+    }
+
+    @Test
+    public void connectionCancelledWithStatusIsNotRetried() throws InterruptedException {
+        final RetryPolicy policy = new RetryPolicy.Builder().setBackoff(1, 1).build();
+        final BatchUnlock batch = new BatchUnlock(address -> new PendingOperations(),
+                ADDRESSES.size(), policy, scheduler);
+        batch.start(ADDRESSES, listener);
+        batch.cancel();
+
+        assertTrue(listener.await());
+        // Give a retry, if scheduled, the time to run.
+        Thread.sleep(50);
+        assertEquals(0, policy.getRetryCount());
+        for (final String address : ADDRESSES)
+            assertEquals(3, policy.getRetryBudget(address));
+    }
+
+    @Test
+    public void timedOutConnectionIsRetriedWithNewOperations() throws InterruptedException {
+        final RetryPolicy policy = new RetryPolicy.Builder()
+                .setConnectTimeout(100)
+                .setBackoff(1, 1)
+                .build();
+        final AtomicInteger created = new AtomicInteger();
+        final LockOperations.Factory factory = TransportLockOperations.factory(address -> {
+            // The first attempt takes longer than the connection timeout.
+            final long delay = created.getAndIncrement() == 0 ? 1000 : 10;
+            return new SimulatedLock(new SimulatedLock.Config()
+                    .setConnectDelay(delay)
+                    .setNotificationDelay(5, 0)
+                    .setSeed(delay), scheduler);
+        }, scheduler);
+        final BatchUnlock batch = new BatchUnlock(factory, 1, policy, scheduler);
+        batch.start(ADDRESSES.subList(0, 1), listener);
+
+        assertTrue(listener.await());
+        assertEquals(1, listener.results.size());
+        final BatchUnlock.DeviceResult result = listener.results.get(0);
+        assertTrue(result.toString(), result.success);
+        assertEquals(1, result.retries);
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void everyLockIsReportedOnceOverLossyLinks() throws InterruptedException {
+        final int locks = 20;
+        final RetryPolicy policy = new RetryPolicy.Builder()
+                .setConnectTimeout(500)
+                .setHandshakeTimeout(300)
+                .setUnlockTimeout(300)
+                .setBackoff(10, 50)
+                .build();
+        final AtomicInteger seed = new AtomicInteger();
+        final LockOperations.Factory factory = TransportLockOperations.factory(address ->
+                new SimulatedLock(new SimulatedLock.Config()
+                        .setConnectDelay(20)
+                        .setNotificationDelay(5, 10)
+                        .setPacketLoss(0.1f)
+                        .setDisconnectProbability(0.05f)
+                        .setSeed(seed.incrementAndGet()), scheduler), scheduler);
+        final List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < locks; i++)
+            addresses.add(String.format(Locale.US, "00:00:00:00:01:%02X", i));
+
+        new BatchUnlock(factory, 4, policy, scheduler).start(addresses, listener);
+
+        assertTrue(listener.await());
+        // Give late callbacks, if any, the time to arrive.
+        Thread.sleep(100);
+        assertEquals(1, listener.completions.get());
+        assertEquals(false, listener.report.cancelled);
+        assertEquals(locks, listener.results.size());
+        // Results are streamed from several threads, so the order may differ.
+        assertEquals(new HashSet<>(listener.results), new HashSet<>(listener.report.results));
+        final Set<String> reported = new HashSet<>();
+        for (final BatchUnlock.DeviceResult result : listener.results) {
+            assertTrue("Reported twice: " + result, reported.add(result.address));
+            assertTrue(result.toString(), result.retries <= 3);
+            if (result.success) {
+                assertNull(result.failedStage);
+                for (final BatchUnlock.Stage stage : BatchUnlock.Stage.values())
+                    assertTrue(result.toString(), result.getStageTime(stage) >= 0);
+            } else {
+                assertNotNull(result.failedStage);
+            }
+        }
+        assertTrue("No lock unlocked", listener.report.getSuccessCount() > 0);
+    }
+
+    /**
+     * Operations which never connect. On release, the pending connection fails with a GATT
+     * status, as a connection cancelled with the BLE library does.
+     */
+    private static final class PendingOperations implements LockOperations {
+        @Nullable
+        private Callback connectCallback;
+
+        @Override
+        public synchronized void connect(@NonNull final Callback callback) {
+            connectCallback = callback;
+        }
+
+        @Override
+        public void awaitHandshake(@NonNull final Callback callback) {
+            callback.onFailure(REASON_SESSION_LOST);
+        }
+
+        @Override
+        public void unlock(@NonNull final Callback callback) {
+            callback.onFailure(REASON_SESSION_LOST);
+        }
+
+        @Override
+        public void release() {
+            final Callback callback;
+            synchronized (this) {
+                callback = connectCallback;
+                connectCallback = null;
+            }
+            if (callback != null)
+                callback.onFailure(GATT_ERROR);
+        }
+    }
+
+    private static final class RecordingListener implements BatchUnlock.Listener {
+        private final List<BatchUnlock.DeviceResult> results = new CopyOnWriteArrayList<>();
+        private final AtomicInteger completions = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile BatchUnlock.Report report;
+
+        @Override
+        public void onDeviceResult(@NonNull final BatchUnlock.DeviceResult result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onCompleted(@NonNull final BatchUnlock.Report report) {
+            this.report = report;
+            completions.incrementAndGet();
+            done.countDown();
+        }
+
+        private boolean await() throws InterruptedException {
+            return done.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.blinky.profile.sim.SimulatedLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how many locks per minute are unlocked depending on the number of concurrent
+ * connections, using simulated locks with a fixed connection delay.
+ */
+public class BatchUnlockThroughputTest {
+    private static final int LOCKS = 12;
+    private static final long CONNECT_DELAY = 100; // [ms]
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void concurrentConnectionsIncreaseThroughput() throws InterruptedException {
+        final BatchUnlock.Report sequential = run(1);
+        final BatchUnlock.Report concurrent = run(6);
+
+        assertEquals(LOCKS, sequential.getSuccessCount());
+        assertEquals(LOCKS, concurrent.getSuccessCount());
+        // With 6 connections at a time, the batch takes 2 rounds instead of 12.
+        assertTrue("Concurrent: " + concurrent.totalTime + " ms, sequential: "
+                        + sequential.totalTime + " ms",
+                concurrent.totalTime * 3 < sequential.totalTime);
+    }
+
+    @NonNull
+    private BatchUnlock.Report run(final int parallelism) throws InterruptedException {
+        final SimulatedLock.Config config = new SimulatedLock.Config()
+                .setConnectDelay(CONNECT_DELAY)
+                .setNotificationDelay(5, 5)
+                .setSeed(parallelism);
+        final LockOperations.Factory factory = TransportLockOperations.factory(
+                address -> new SimulatedLock(config, scheduler), scheduler);
+        final BatchUnlock batch = new BatchUnlock(factory, parallelism,
+                new RetryPolicy.Builder().build(), scheduler);
+
+        final List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < LOCKS; i++)
+            addresses.add(String.format(Locale.US, "00:00:00:00:00:%02X", i));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final BatchUnlock.Report[] report = new BatchUnlock.Report[1];
+        batch.start(addresses, new BatchUnlock.Listener() {
+            @Override
+            public void onDeviceResult(@NonNull final BatchUnlock.DeviceResult result) {
+                // Only the report is checked.
+            }
+
+            @Override
+            public void onCompleted(@NonNull final BatchUnlock.Report r) {
+                report[0] = r;
+                done.countDown();
+            }
+        });
+        assertTrue("Batch did not complete", done.await(30, TimeUnit.SECONDS));
+        System.out.println(String.format(Locale.US,
+                "Parallelism %d: %d locks in %d ms, %.0f unlocks/min", parallelism,
+                report[0].getSuccessCount(), report[0].totalTime,
+                report[0].getSuccessCount() * 60000f / Math.max(1, report[0].totalTime)));
+        return report[0];
+    }
+}
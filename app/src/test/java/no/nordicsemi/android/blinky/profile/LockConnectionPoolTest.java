@@ -0,0 +1,224 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import no.nordicsemi.android.blinky.profile.sim.SimulatedLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockConnectionPoolTest {
+    private static final int LOCKS = 12;
+    private static final long CONNECT_DELAY = 100; // [ms]
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void concurrentConnectionsIncreaseThroughput() throws InterruptedException {
+        final long sequential = run(1);
+        final long concurrent = run(6);
+
+        // With 6 connections at a time, the locks are connected in 2 rounds instead of 12.
+        assertTrue("Concurrent: " + concurrent + " ms, sequential: " + sequential + " ms",
+                concurrent * 3 < sequential);
+    }
+
+    @Test
+    public void failedConnectionsAreRetriedWithinBudget() throws InterruptedException {
+        final RetryPolicy policy = new RetryPolicy.Builder()
+                .setRetries(2, 2)
+                .setBackoff(1, 1)
+                .build();
+        final AtomicInteger attempts = new AtomicInteger();
+        final LockConnectionPool pool = new LockConnectionPool(address -> new FakeOperations() {
+            @Override
+            public void connect(@NonNull final Callback callback) {
+                attempts.incrementAndGet();
+                callback.onFailure(133);
+            }
+        }, 1, policy, scheduler);
+        final CountDownLatch failed = new CountDownLatch(1);
+        pool.addListener((address, status) -> {
+            if (status == LockConnectionPool.Status.FAILED)
+                failed.countDown();
+        });
+
+        pool.connect("00:00:00:00:03:01");
+        assertTrue("Device did not fail", failed.await(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+        assertEquals(2, policy.getRetryCount("00:00:00:00:03:01"));
+        assertEquals(0, pool.getInFlightCount());
+        pool.close();
+    }
+
+    @Test
+    public void inFlightAttemptsAreBoundedAndSurviveClose() {
+        final List<FakeOperations> created = new ArrayList<>();
+        final LockConnectionPool pool = new LockConnectionPool(address -> {
+            final FakeOperations ops = new FakeOperations();
+            synchronized (created) {
+                created.add(ops);
+            }
+            return ops;
+        }, 2, new RetryPolicy.Builder().setConnectTimeout(0).build(), scheduler);
+
+        pool.connect("00:00:00:00:04:01");
+        pool.connect("00:00:00:00:04:02");
+        pool.connect("00:00:00:00:04:03");
+        assertEquals(2, pool.getInFlightCount());
+        assertEquals(LockConnectionPool.Status.QUEUED, pool.getStatus("00:00:00:00:04:03"));
+
+        // Removing a device which is connecting lets the next one in.
+        pool.remove("00:00:00:00:04:01");
+        assertTrue(created.get(0).released);
+        assertEquals(2, pool.getInFlightCount());
+        assertEquals(LockConnectionPool.Status.CONNECTING, pool.getStatus("00:00:00:00:04:03"));
+
+        // Attempts completing after close must not change the counter.
+        pool.close();
+        for (final FakeOperations ops : created)
+            if (ops.connectCallback != null)
+                ops.connectCallback.onSuccess();
+        assertEquals(0, pool.getInFlightCount());
+        assertTrue(pool.getStatuses().isEmpty());
+        assertFalse(pool.unlock("00:00:00:00:04:02"));
+    }
+
+    /**
+     * Connects to and unlocks all locks, and returns the time it took.
+     */
+    private long run(final int maxInFlight) throws InterruptedException {
+        final SimulatedLock.Config config = new SimulatedLock.Config()
+                .setConnectDelay(CONNECT_DELAY)
+                .setNotificationDelay(5, 5)
+                .setSeed(maxInFlight);
+        final LockOperations.Factory simulated = TransportLockOperations.factory(
+                address -> new SimulatedLock(config, scheduler), scheduler);
+        // Counts the connection attempts in progress.
+        final AtomicInteger connecting = new AtomicInteger();
+        final AtomicInteger maxConnecting = new AtomicInteger();
+        final LockOperations.Factory factory = address -> new Wrapper(simulated.create(address)) {
+            @Override
+            public void connect(@NonNull final Callback callback) {
+                final int count = connecting.incrementAndGet();
+                maxConnecting.accumulateAndGet(count, Math::max);
+                super.connect(new Callback() {
+                    @Override
+                    public void onSuccess() {
+                        connecting.decrementAndGet();
+                        callback.onSuccess();
+                    }
+
+                    @Override
+                    public void onFailure(final int reason) {
+                        connecting.decrementAndGet();
+                        callback.onFailure(reason);
+                    }
+                });
+            }
+        };
+        final LockConnectionPool pool = new LockConnectionPool(factory, maxInFlight,
+                new RetryPolicy.Builder().build(), scheduler);
+
+        final CountDownLatch done = new CountDownLatch(LOCKS);
+        pool.addListener((address, status) -> {
+            if (status == LockConnectionPool.Status.READY)
+                scheduler.execute(() -> pool.unlock(address));
+            else if (status == LockConnectionPool.Status.UNLOCKED)
+                done.countDown();
+        });
+        final long start = System.nanoTime();
+        for (int i = 0; i < LOCKS; i++)
+            pool.connect(String.format(Locale.US, "00:00:00:00:05:%02X", i));
+        assertTrue("Locks not unlocked", done.await(30, TimeUnit.SECONDS));
+        final long time = (System.nanoTime() - start) / 1000000;
+        System.out.println(String.format(Locale.US,
+                "Max in flight %d: %d locks in %d ms, %.0f unlocks/min", maxInFlight,
+                pool.getUnlockCount(), time, pool.getUnlocksPerMinute()));
+
+        assertEquals(LOCKS, pool.getUnlockCount());
+        assertTrue("Connecting: " + maxConnecting.get(), maxConnecting.get() <= maxInFlight);
+        pool.close();
+        return time;
+    }
+
+    /**
+     * Operations which complete only when the test completes them.
+     */
+    private static class FakeOperations implements LockOperations {
+        volatile Callback connectCallback;
+        volatile boolean released;
+
+        @Override
+        public void connect(@NonNull final Callback callback) {
+            connectCallback = callback;
+        }
+
+        @Override
+        public void awaitHandshake(@NonNull final Callback callback) {
+            // Never completes.
+        }
+
+        @Override
+        public void unlock(@NonNull final Callback callback) {
+            // Never completes.
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    private static class Wrapper implements LockOperations {
+        private final LockOperations ops;
+
+        private Wrapper(@NonNull final LockOperations ops) {
+            this.ops = ops;
+        }
+
+        @Override
+        public void connect(@NonNull final Callback callback) {
+            ops.connect(callback);
+        }
+
+        @Override
+        public void awaitHandshake(@NonNull final Callback callback) {
+            ops.awaitHandshake(callback);
+        }
+
+        @Override
+        public void unlock(@NonNull final Callback callback) {
+            ops.unlock(callback);
+        }
+
+        @Override
+        public void release() {
+            ops.release();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package no.nordicsemi.android.blinky.profile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProximityDeciderTest {
+    private static final String LOCK = "00:00:00:00:06:01";
+    private static final long DWELL_TIME = 1500;
+    private static final long COOLDOWN = 10000;
+    private static final long LOST_TIMEOUT = 3000;
+    private static final long INTERVAL = 100;
+
+    private final ProximityDecider decider = new ProximityDecider(new ProximityDecider.Config()
+            .setThresholds(-60, -70)
+            .setDwellTime(DWELL_TIME)
+            .setCooldown(COOLDOWN)
+            .setLostTimeout(LOST_TIMEOUT));
+
+    @Test
+    public void triggersAfterDwellTime() {
+        assertEquals(DWELL_TIME, approach(0, DWELL_TIME * 2));
+    }
+
+    @Test
+    public void lockNotHeardDoesNotCompleteDwell() {
+        assertFalse(decider.onSample(LOCK, -50, 0));
+        // The user walks away before the dwell time. The next packet, heard when the user
+        // is back, starts the dwell time again.
+        final long back = DWELL_TIME + LOST_TIMEOUT;
+        assertFalse(decider.onSample(LOCK, -50, back));
+        assertEquals(back, decider.getApproachTime(LOCK));
+        assertEquals(back + DWELL_TIME, approach(back, back + DWELL_TIME * 2));
+    }
+
+    @Test
+    public void lockNotHeardIsLeftAndTriggersAgain() {
+        final long trigger = approach(0, DWELL_TIME * 2);
+        decider.onCompleted(LOCK, trigger);
+        // Staying at the lock does not trigger again.
+        assertEquals(-1, approach(trigger + INTERVAL, trigger + COOLDOWN * 2));
+
+        // The lock is not heard after the user has left, and is approached again.
+        final long back = trigger + COOLDOWN * 2 + LOST_TIMEOUT + INTERVAL;
+        assertTrue(approach(back, back + DWELL_TIME * 2) >= back + DWELL_TIME);
+    }
+
+    @Test
+    public void cooldownIsKeptWhenLost() {
+        final long trigger = approach(0, DWELL_TIME * 2);
+        decider.onCompleted(LOCK, trigger);
+        final long back = trigger + LOST_TIMEOUT + INTERVAL;
+        // The dwell time starts when the cool down has passed.
+        assertEquals(trigger + COOLDOWN + DWELL_TIME, approach(back, trigger + COOLDOWN * 2));
+    }
+
+    /**
+     * Adds strong samples from the start time until the end time, and returns the time of
+     * the trigger, or -1.
+     */
+    private long approach(final long start, final long end) {
+        for (long time = start; time <= end; time += INTERVAL) {
+            if (decider.onSample(LOCK, -50, time))
+                return time;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,101 @@
+package no.nordicsemi.android.blinky.profile;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStateMachineTest {
+    private static final SessionStateMachine.State[] STATES = SessionStateMachine.State.values();
+    private static final int THREADS = 8;
+    private static final int STEPS = 2000;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void rejectsIllegalTransitions() {
+        final SessionStateMachine session = new SessionStateMachine();
+        assertFalse(session.moveTo(SessionStateMachine.State.READY));
+        assertFalse(session.moveTo(SessionStateMachine.State.UNLOCKING));
+        assertTrue(session.moveTo(SessionStateMachine.State.CONNECTING));
+        assertTrue(session.moveTo(SessionStateMachine.State.HANDSHAKING));
+        assertFalse(session.compareAndSet(SessionStateMachine.State.CONNECTING,
+                SessionStateMachine.State.DISCONNECTED));
+        assertTrue(session.moveTo(SessionStateMachine.State.READY));
+        assertTrue(session.get().isHandshakeCompleted());
+        assertEquals(3, session.get().getVersion());
+    }
+
+    @Test
+    public void concurrentTransitionsAreLegalAndDeliveredInOrder() throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++)
+            runRandomTransitions(round);
+    }
+
+    private void runRandomTransitions(final long seed) throws InterruptedException {
+        final SessionStateMachine session = new SessionStateMachine();
+        final List<SessionStateMachine.Snapshot[]> delivered = new ArrayList<>();
+        final AtomicInteger delivering = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        session.addObserver((from, to) -> {
+            if (delivering.incrementAndGet() > 1)
+                overlaps.incrementAndGet();
+            synchronized (delivered) {
+                delivered.add(new SessionStateMachine.Snapshot[] { from, to });
+            }
+            delivering.decrementAndGet();
+        });
+
+        final AtomicInteger made = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(seed * THREADS + t);
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < STEPS; i++) {
+                        final SessionStateMachine.State state = STATES[random.nextInt(STATES.length)];
+                        final boolean moved = random.nextBoolean() ?
+                                session.moveTo(state) :
+                                session.compareAndSet(STATES[random.nextInt(STATES.length)], state);
+                        if (moved)
+                            made.incrementAndGet();
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        assertEquals("Observers called concurrently", 0, overlaps.get());
+        synchronized (delivered) {
+            assertEquals(made.get(), delivered.size());
+            SessionStateMachine.Snapshot previous = null;
+            for (int i = 0; i < delivered.size(); i++) {
+                final SessionStateMachine.Snapshot from = delivered.get(i)[0];
+                final SessionStateMachine.Snapshot to = delivered.get(i)[1];
+                assertTrue(from.getState() + " -> " + to.getState(),
+                        SessionStateMachine.isAllowed(from.getState(), to.getState()));
+                assertEquals(i, from.getVersion());
+                assertEquals(i + 1, to.getVersion());
+                if (previous != null)
+                    assertSame(previous, from);
+                previous = to;
+            }
+            if (previous != null)
+                assertSame(previous, session.get());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package no.nordicsemi.android.blinky.profile;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.blinky.profile.sim.SimulatedLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link LockSession}, as used by {@link BlinkyManager}, against simulated locks.
+ */
+public class TransportLockOperationsTest {
+    private static final int SUCCESS = 0;
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(2);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void unlocks() throws InterruptedException {
+        final TransportLockOperations ops = create("00:00:00:00:02:01", new SimulatedLock.Config());
+
+        assertEquals(SUCCESS, await(ops::connect));
+        assertEquals(SUCCESS, await(ops::awaitHandshake));
+        assertEquals(SUCCESS, await(ops::unlock));
+        assertEquals(SessionStateMachine.State.UNLOCKED,
+                ops.getLockSession().getStateMachine().get().getState());
+        assertTrue(ops.getLockSession().getTimings().getTimeToUnlock() >= 0);
+        ops.release();
+    }
+
+    @Test
+    public void reportsRejectedUnlock() throws InterruptedException {
+        final TransportLockOperations ops = create("00:00:00:00:02:02",
+                new SimulatedLock.Config().setRejectUnlock(true));
+
+        assertEquals(SUCCESS, await(ops::connect));
+        assertEquals(SUCCESS, await(ops::awaitHandshake));
+        assertEquals(LockOperations.REASON_UNLOCK_REJECTED, await(ops::unlock));
+        assertEquals(SessionStateMachine.State.FAILED,
+                ops.getLockSession().getStateMachine().get().getState());
+        ops.release();
+    }
+
+    @Test
+    public void unlockTimesOutWhenFrameIsLost() throws InterruptedException {
+        final SimulatedLock lock = new SimulatedLock(new SimulatedLock.Config()
+                .setConnectDelay(10)
+                .setNotificationDelay(5, 0), scheduler);
+        // Drops the unlock frame, so the lock never replies.
+        final LockTransport lossy = new LockTransport() {
+            @Override
+            public void connect(@NonNull final Listener listener) {
+                lock.connect(listener);
+            }
+
+            @Override
+            public void write(@NonNull final byte[] value) {
+                if (!LockProtocol.isUnlockFrame(value))
+                    lock.write(value);
+            }
+
+            @Override
+            public void disconnect() {
+                lock.disconnect();
+            }
+        };
+        final TransportLockOperations ops =
+                new TransportLockOperations("00:00:00:00:02:03", lossy, scheduler);
+        ops.getLockSession().setUnlockTimeout(100);
+
+        assertEquals(SUCCESS, await(ops::connect));
+        assertEquals(SUCCESS, await(ops::awaitHandshake));
+        assertEquals(LockOperations.REASON_TIMEOUT, await(ops::unlock));
+        assertEquals(SessionStateMachine.State.FAILED,
+                ops.getLockSession().getStateMachine().get().getState());
+        ops.release();
+    }
+
+    @Test
+    public void unlockWithoutSessionIsNotReportedAsRejected() {
+        final LockSession session = new LockSession(new LockSession.Link() {
+            @Override
+            public boolean isWritable() {
+                return false;
+            }
+
+            @Override
+            public void write(@NonNull final byte[] frame) {
+                throw new AssertionError("Frame written without a link");
+            }
+        }, new LockSession.Timer() {
+            @Override
+            public void schedule(@NonNull final Runnable task, final long delayMillis) {
+                // Not used.
+            }
+
+            @Override
+            public void cancel(@NonNull final Runnable task) {
+                // Not used.
+            }
+        }, LockSession.Logger.NONE);
+        final int[] reason = { SUCCESS };
+        session.addListener(new LockSession.Listener() {
+            @Override
+            public void onHandshakeCompleted() {
+                // Ignore
+            }
+
+            @Override
+            public void onUnlockResult(final boolean success) {
+                throw new AssertionError("Unexpected unlock result");
+            }
+
+            @Override
+            public void onUnlockFailed(final int r) {
+                reason[0] = r;
+            }
+
+            @Override
+            public void onSessionLost() {
+                // Ignore
+            }
+        });
+
+        session.tryUnlock(null);
+        assertEquals(LockOperations.REASON_SESSION_LOST, reason[0]);
+    }
+
+    @Test
+    public void usesFastPathOnReconnection() throws InterruptedException {
+        final String address = "00:00:00:00:02:04";
+        final TransportLockOperations first = create(address, new SimulatedLock.Config());
+        assertEquals(SUCCESS, await(first::connect));
+        assertFalse(first.getLockSession().getTimings().isFastPath());
+        first.release();
+
+        final TransportLockOperations second = create(address, new SimulatedLock.Config());
+        assertEquals(SUCCESS, await(second::connect));
+        assertTrue(second.getLockSession().getTimings().isFastPath());
+        assertEquals(SUCCESS, await(second::awaitHandshake));
+        second.release();
+    }
+
+    @Test
+    public void releaseIsTerminal() throws InterruptedException {
+        final TransportLockOperations ops = create("00:00:00:00:02:05", new SimulatedLock.Config());
+        ops.release();
+        assertEquals(LockOperations.REASON_CANCELLED, await(ops::connect));
+    }
+
+    @NonNull
+    private TransportLockOperations create(@NonNull final String address,
+                                           @NonNull final SimulatedLock.Config config) {
+        config.setConnectDelay(10).setNotificationDelay(5, 0);
+        return new TransportLockOperations(address, new SimulatedLock(config, scheduler), scheduler);
+    }
+
+    private interface Operation {
+        void run(@NonNull LockOperations.Callback callback);
+    }
+
+    /**
+     * Runs the operation and returns {@link #SUCCESS} or the failure reason.
+     */
+    private static int await(@NonNull final Operation operation) throws InterruptedException {
+        final BlockingQueue<Integer> result = new ArrayBlockingQueue<>(2);
+        operation.run(new LockOperations.Callback() {
+            @Override
+            public void onSuccess() {
+                result.add(SUCCESS);
+            }
+
+            @Override
+            public void onFailure(final int reason) {
+                result.add(reason);
+            }
+        });
+        final Integer reason = result.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Operation did not complete", reason);
+        return reason;
+    }
+}
@@ -0,0 +1,31 @@
+package no.nordicsemi.android.blinky.utils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Command line tool decoding a flight recorder file pulled from the device.
+ * <p>
+ * Usage, after running <code>./gradlew :app:compileDebugUnitTestJava</code>, with the app
+ * and unit test classes on the class path:
+ * <pre>
+ * java no.nordicsemi.android.blinky.utils.FlightRecordDecoderMain flight-recorder.bin
+ * </pre>
+ */
+public final class FlightRecordDecoderMain {
+
+    private FlightRecordDecoderMain() {
+        // Command line tool.
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: FlightRecordDecoderMain <file>");
+            System.exit(1);
+        }
+        try (final InputStream stream = new FileInputStream(args[0])) {
+            FlightRecordDecoder.decode(stream, System.out);
+        }
+    }
+}
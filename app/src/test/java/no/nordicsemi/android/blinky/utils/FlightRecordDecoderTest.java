@@ -0,0 +1,38 @@
+package no.nordicsemi.android.blinky.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecordDecoderTest {
+
+    @Test
+    public void decodesSnapshot() throws IOException {
+        final FlightRecorder recorder = FlightRecorder.getInstance();
+        recorder.record(FlightRecorder.EVENT_CONNECT_REQUESTED,
+                FlightRecorder.key("AA:BB:CC:DD:EE:0F"), 0);
+        recorder.record(FlightRecorder.EVENT_UNLOCK_RESULT,
+                FlightRecorder.key("AA:BB:CC:DD:EE:0F"), 1);
+
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        recorder.snapshot().writeTo(file);
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        FlightRecordDecoder.decode(new ByteArrayInputStream(file.toByteArray()),
+                new PrintStream(text, true, "UTF-8"));
+
+        final String output = text.toString("UTF-8");
+        assertTrue(output, output.contains("CONNECT_REQUESTED    AA:BB:CC:DD:EE:0F  0x00000000"));
+        assertTrue(output, output.contains("UNLOCK_RESULT        AA:BB:CC:DD:EE:0F  0x00000001"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        FlightRecordDecoder.decode(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }),
+                new PrintStream(new ByteArrayOutputStream()));
+    }
+}
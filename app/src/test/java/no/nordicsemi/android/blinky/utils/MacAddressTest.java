@@ -0,0 +1,16 @@
+package no.nordicsemi.android.blinky.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MacAddressTest {
+
+    @Test
+    public void convertsBothWays() {
+        assertEquals(0xAABBCCDDEE0FL, MacAddress.toLong("AA:BB:CC:DD:EE:0F"));
+        assertEquals(0xAABBCCDDEE0FL, MacAddress.toLong("aa:bb:cc:dd:ee:0f"));
+        assertEquals("AA:BB:CC:DD:EE:0F", MacAddress.toString(0xAABBCCDDEE0FL));
+        assertEquals("00:00:00:00:00:01", MacAddress.toString(1));
+    }
+}
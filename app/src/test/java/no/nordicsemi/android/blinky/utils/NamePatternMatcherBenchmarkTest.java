@@ -0,0 +1,93 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the time of matching device names against 1 to 100 prefix patterns using
+ * {@link NamePatternMatcher}, chained {@link String#startsWith(String)} calls and a single
+ * regular expression. A scan reports names of all nearby devices, most of which don't match.
+ */
+public class NamePatternMatcherBenchmarkTest {
+    private static final int NAMES = 2000;
+    private static final int ROUNDS = 50;
+
+    @Test
+    public void matcherIsFasterThanRegex() {
+        for (final int count : new int[] { 1, 10, 100 }) {
+            final Random random = new Random(count);
+            final List<String> prefixes = new ArrayList<>();
+            final StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                final String prefix = String.format(Locale.US, "L%02d%c_", i,
+                        (char) ('A' + random.nextInt(26)));
+                prefixes.add(prefix);
+                regex.append(i > 0 ? "|" : "").append(NamePatternMatcherTest.toRegex(prefix + "*"));
+            }
+            final List<String> patterns = new ArrayList<>();
+            for (final String prefix : prefixes)
+                patterns.add(prefix + "*");
+            final NamePatternMatcher matcher = NamePatternMatcher.compile(patterns);
+            final Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+
+            // Every 10th name is a lock.
+            final String[] names = new String[NAMES];
+            for (int i = 0; i < NAMES; i++) {
+                names[i] = i % 10 == 0 ?
+                        prefixes.get(random.nextInt(count)) + i :
+                        String.format(Locale.US, "Device %04X", random.nextInt(0x10000));
+            }
+
+            final int expected = NAMES / 10;
+            final long matcherTime = time(names, name -> matcher.matches(name), expected);
+            final long startsWithTime = time(names, name -> {
+                for (final String prefix : prefixes) {
+                    if (name.startsWith(prefix))
+                        return true;
+                }
+                return false;
+            }, expected);
+            final long regexTime = time(names, name -> pattern.matcher(name).matches(), expected);
+            System.out.println(String.format(Locale.US,
+                    "%d patterns: matcher %d ns, startsWith %d ns, regex %d ns per name",
+                    count, matcherTime, startsWithTime, regexTime));
+            if (count == 100)
+                assertTrue("Matcher: " + matcherTime + " ns, regex: " + regexTime + " ns",
+                        matcherTime < regexTime);
+        }
+    }
+
+    private interface Predicate {
+        boolean matches(@NonNull String name);
+    }
+
+    /**
+     * Returns the best time of matching a name, in nanoseconds, over a number of rounds.
+     * The first rounds warm up the JIT.
+     */
+    private static long time(@NonNull final String[] names, @NonNull final Predicate predicate,
+                             final int expected) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            int matched = 0;
+            final long start = System.nanoTime();
+            for (final String name : names) {
+                if (predicate.matches(name))
+                    matched++;
+            }
+            best = Math.min(best, (System.nanoTime() - start) / names.length);
+            assertEquals(expected, matched);
+        }
+        return best;
+    }
+}
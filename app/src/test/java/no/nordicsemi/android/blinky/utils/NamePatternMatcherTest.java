@@ -0,0 +1,118 @@
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NamePatternMatcherTest {
+    /** Characters of the fuzzed patterns, including non-ASCII ones. */
+    private static final String PATTERN_CHARS = "ab_Y\u00e9\u9501**??";
+    /** Characters of the fuzzed names. 'c' is not used in any pattern. */
+    private static final String NAME_CHARS = "ab_Yc\u00e9\u9501";
+
+    @Test
+    public void matchesPrefixSuffixAndExactName() {
+        final NamePatternMatcher matcher = NamePatternMatcher.compile("YX_*", "*_LOCK", "Door 1");
+        assertTrue(matcher.matches("YX_"));
+        assertTrue(matcher.matches("YX_Front"));
+        assertTrue(matcher.matches("Front_LOCK"));
+        assertTrue(matcher.matches("_LOCK"));
+        assertTrue(matcher.matches("Door 1"));
+        assertFalse(matcher.matches("YX"));
+        assertFalse(matcher.matches("yx_Front"));
+        assertFalse(matcher.matches("Front_LOCK2"));
+        assertFalse(matcher.matches("Door 12"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void questionMarkMatchesOneCharacter() {
+        final NamePatternMatcher matcher = NamePatternMatcher.compile("L?CK");
+        assertTrue(matcher.matches("LOCK"));
+        assertTrue(matcher.matches("L\u00e9CK"));
+        assertFalse(matcher.matches("LCK"));
+        assertFalse(matcher.matches("LOOCK"));
+    }
+
+    @Test
+    public void emptyPatterns() {
+        assertFalse(NamePatternMatcher.compile(Collections.<String>emptyList()).matches(""));
+        assertFalse(NamePatternMatcher.compile(Collections.<String>emptyList()).matches("YX_1"));
+
+        final NamePatternMatcher empty = NamePatternMatcher.compile("");
+        assertTrue(empty.matches(""));
+        assertFalse(empty.matches("a"));
+        assertTrue(NamePatternMatcher.compile("*").matches(""));
+    }
+
+    @Test
+    public void matchesNonAsciiNames() {
+        final NamePatternMatcher matcher = NamePatternMatcher.compile("\u95e8\u9501*", "*\u00e9");
+        assertTrue(matcher.matches("\u95e8\u95011"));
+        assertTrue(matcher.matches("Caf\u00e9"));
+        assertFalse(matcher.matches("\u95e8"));
+        assertFalse(matcher.matches("Cafe"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooComplexPatternsAreRejected() {
+        // The automaton has to remember which of the last 13 characters were 'a'.
+        NamePatternMatcher.compile("*a????????????");
+    }
+
+    @Test
+    public void matchesLikeRegex() {
+        final Random random = new Random(44);
+        for (int i = 0; i < 2000; i++) {
+            final String[] patterns = new String[1 + random.nextInt(4)];
+            final StringBuilder regex = new StringBuilder();
+            for (int p = 0; p < patterns.length; p++) {
+                patterns[p] = random(random, PATTERN_CHARS, 6);
+                regex.append(p > 0 ? "|" : "").append(toRegex(patterns[p]));
+            }
+            final NamePatternMatcher matcher = NamePatternMatcher.compile(patterns);
+            final Pattern expected = Pattern.compile(regex.toString(), Pattern.DOTALL);
+            for (int n = 0; n < 50; n++) {
+                final String name = random(random, NAME_CHARS, 8);
+                assertEquals(matcher + " on \"" + name + "\"",
+                        expected.matcher(name).matches(), matcher.matches(name));
+            }
+        }
+    }
+
+    /**
+     * Converts a glob pattern to a regular expression.
+     */
+    @NonNull
+    /* package */ static String toRegex(@NonNull final String pattern) {
+        final StringBuilder regex = new StringBuilder("(?:");
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '*')
+                regex.append(".*");
+            else if (c == '?')
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        return regex.append(')').toString();
+    }
+
+    @NonNull
+    private static String random(@NonNull final Random random, @NonNull final String chars,
+                                 final int maxLength) {
+        final int length = random.nextInt(maxLength + 1);
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            builder.append(chars.charAt(random.nextInt(chars.length())));
+        return builder.toString();
+    }
+}
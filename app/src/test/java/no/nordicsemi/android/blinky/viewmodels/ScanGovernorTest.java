@@ -0,0 +1,170 @@
+package no.nordicsemi.android.blinky.viewmodels;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanGovernorTest {
+	private static final int MAX_STARTS = 5;
+	private static final long WINDOW = 31000;
+	private static final long STOP_DELAY = 1000;
+	private static final long ROTATION_PERIOD = 25 * 60 * 1000;
+
+	private long now;
+	/** Times of the actual scanner starts. */
+	private final List<Long> starts = new ArrayList<>();
+	private int stops;
+	private ScanGovernor governor;
+
+	@Before
+	public void setUp() {
+		now = 1000;
+		governor = new ScanGovernor(new ScanGovernor.Config()
+				.setStartLimit(MAX_STARTS, WINDOW)
+				.setStopDelay(STOP_DELAY)
+				.setRotationPeriod(ROTATION_PERIOD),
+				() -> now, new ScanGovernor.Scanner() {
+					@Override
+					public void startScan() {
+						starts.add(now);
+					}
+
+					@Override
+					public void stopScan() {
+						stops++;
+					}
+				});
+	}
+
+	@Test
+	public void stopIsDelayed() {
+		governor.start();
+		assertEquals(now + STOP_DELAY, governor.stop());
+		assertTrue(governor.isRunning());
+		assertEquals(0, stops);
+
+		now += STOP_DELAY - 1;
+		governor.update();
+		assertEquals(0, stops);
+
+		now += 1;
+		assertEquals(ScanGovernor.NONE, governor.update());
+		assertFalse(governor.isRunning());
+		assertEquals(1, stops);
+	}
+
+	@Test
+	public void startDuringStopDelayKeepsScanRunning() {
+		governor.start();
+		governor.stop();
+		now += STOP_DELAY / 2;
+		governor.start();
+		now += STOP_DELAY;
+		governor.update();
+
+		assertTrue(governor.isRunning());
+		assertEquals(1, starts.size());
+		assertEquals(0, stops);
+		assertEquals(1, governor.getMergedCount());
+		assertEquals(1, governor.getAvoidedThrottleCount());
+	}
+
+	@Test
+	public void startsAreLimitedInWindow() {
+		for (int i = 0; i < MAX_STARTS; i++) {
+			governor.start();
+			governor.stop();
+			now += STOP_DELAY;
+			governor.update();
+		}
+		assertEquals(MAX_STARTS, starts.size());
+
+		// The window is full, so the start is deferred until the first start leaves it.
+		final long next = governor.start();
+		assertEquals(MAX_STARTS, starts.size());
+		assertFalse(governor.isRunning());
+		assertEquals(starts.get(0) + WINDOW, next);
+		assertEquals(1, governor.getDeferredCount());
+
+		now = next - 1;
+		assertEquals(next, governor.update());
+		assertEquals(MAX_STARTS, starts.size());
+
+		now = next;
+		governor.update();
+		assertTrue(governor.isRunning());
+		assertEquals(MAX_STARTS + 1, starts.size());
+		assertStartLimitKept();
+	}
+
+	@Test
+	public void deferredStartIsCancelledByStop() {
+		for (int i = 0; i < MAX_STARTS; i++) {
+			governor.start();
+			governor.stop();
+			now += STOP_DELAY;
+			governor.update();
+		}
+		final long next = governor.start();
+		assertEquals(ScanGovernor.NONE, governor.stop());
+
+		now = next;
+		assertEquals(ScanGovernor.NONE, governor.update());
+		assertFalse(governor.isRunning());
+		assertEquals(MAX_STARTS, starts.size());
+	}
+
+	@Test
+	public void manyCyclesKeepStartLimit() {
+		// The user toggles scanning every 300 ms for two minutes.
+		long next = ScanGovernor.NONE;
+		for (int i = 0; i < 400; i++) {
+			if (next != ScanGovernor.NONE && next <= now)
+				governor.update();
+			next = i % 2 == 0 ? governor.start() : governor.stop();
+			now += 300;
+		}
+		assertStartLimitKept();
+		assertTrue(governor.getAvoidedThrottleCount() > 0);
+	}
+
+	@Test
+	public void longScanIsRotated() {
+		assertEquals(now + ROTATION_PERIOD, governor.start());
+		now += ROTATION_PERIOD;
+		assertEquals(now + ROTATION_PERIOD, governor.update());
+
+		assertTrue(governor.isRunning());
+		assertEquals(2, starts.size());
+		assertEquals(1, stops);
+		assertEquals(1, governor.getRotationCount());
+	}
+
+	@Test
+	public void stopNowSkipsDelay() {
+		governor.start();
+		governor.stop();
+		governor.stopNow();
+
+		assertFalse(governor.isRunning());
+		assertEquals(1, stops);
+		now += STOP_DELAY;
+		governor.update();
+		assertEquals(1, stops);
+	}
+
+	/**
+	 * Checks that no more than {@link #MAX_STARTS} scans were started in any window.
+	 */
+	private void assertStartLimitKept() {
+		for (int i = MAX_STARTS; i < starts.size(); i++)
+			assertTrue("Start " + i + " at " + starts.get(i),
+					starts.get(i) - starts.get(i - MAX_STARTS) >= WINDOW);
+	}
+}
@@ -0,0 +1,91 @@
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.app.Application;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Observer;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * The preferences of the scanner are loaded in the background, after the options menu may
+ * have been created. These tests check that the late value is published.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class ScannerViewModelTest {
+	private static final String PREFS_PRECONNECT = "preconnect";
+	private static final long LOAD_TIMEOUT = 5000; // [ms]
+	/** Name of the thread on which the view model loads the preferences. */
+	private static final String LOADER_THREAD = "ScannerPreferences";
+
+	@Test
+	public void preconnectIsPublishedWhenLoaded() {
+		final Application application = ApplicationProvider.getApplicationContext();
+		PreferenceManager.getDefaultSharedPreferences(application)
+				.edit().putBoolean(PREFS_PRECONNECT, true).commit();
+
+		final ScannerViewModel viewModel = new ScannerViewModel(application);
+		final List<Boolean> values = new ArrayList<>();
+		final Observer<Boolean> observer = values::add;
+		viewModel.getPreconnectEnabled().observeForever(observer);
+		awaitLoaded(viewModel);
+
+		assertTrue(viewModel.isPreconnectEnabled());
+		assertEquals(Boolean.TRUE, values.get(values.size() - 1));
+		viewModel.getPreconnectEnabled().removeObserver(observer);
+	}
+
+	@Test
+	public void userChoiceIsNotOverwrittenByLoad() {
+		final Application application = ApplicationProvider.getApplicationContext();
+		PreferenceManager.getDefaultSharedPreferences(application)
+				.edit().putBoolean(PREFS_PRECONNECT, true).commit();
+
+		final ScannerViewModel viewModel = new ScannerViewModel(application);
+		// The main looper is paused, so the loaded value can't have been set yet.
+		viewModel.setPreconnectEnabled(false);
+		awaitLoaded(viewModel);
+
+		assertFalse(viewModel.isPreconnectEnabled());
+	}
+
+	/**
+	 * Waits until the loader thread has finished and the loaded values have been applied.
+	 * The value may have been set by the user already, so the thread is waited for, too.
+	 * The clock of Robolectric is simulated, so the timeout uses {@link System#nanoTime()}.
+	 */
+	private static void awaitLoaded(@NonNull final ScannerViewModel viewModel) {
+		final long deadline = System.nanoTime() + LOAD_TIMEOUT * 1000000;
+		while (isLoading() || viewModel.getPreconnectEnabled().getValue() == null) {
+			if (System.nanoTime() > deadline)
+				throw new AssertionError("Preferences not loaded");
+			// Run the task posted by the loader thread, if it has finished.
+			shadowOf(Looper.getMainLooper()).idle();
+			Thread.yield();
+		}
+		shadowOf(Looper.getMainLooper()).idle();
+	}
+
+	private static boolean isLoading() {
+		for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (LOADER_THREAD.equals(thread.getName()))
+				return true;
+		}
+		return false;
+	}
+}